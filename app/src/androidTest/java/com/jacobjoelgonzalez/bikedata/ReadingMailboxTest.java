@@ -0,0 +1,94 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Readings posted to a ReadingMailbox by several sensor threads while another thread drains it.
+ * Real readings have odd milliseconds per revolution and artificial readings even ones,
+ * so a value delivered with the artificial flag of another reading is caught.
+ */
+public class ReadingMailboxTest extends TestCase {
+
+    private static final int POSTS_PER_THREAD = 200000;
+
+    //Threads posting real readings, and as many posting artificial readings, to each channel
+    private static final int THREADS_PER_KIND = 2;
+
+    public void testDrainPairsValueWithItsReading() throws Exception{
+        final ReadingMailbox mailbox = new ReadingMailbox();
+        final AtomicLong mismatches = new AtomicLong(0);
+        final AtomicLong delivered = new AtomicLong(0);
+        final double[] last = new double[SensorChannel.COUNT];
+        final ReadingMailbox.Listener listener = new ReadingMailbox.Listener() {
+            @Override
+            public void onReading(int channel, double msPerRev, boolean artificial) {
+                if(artificial != (((long)msPerRev) % 2 == 0)){
+                    mismatches.incrementAndGet();
+                }
+                last[channel] = msPerRev;
+                delivered.incrementAndGet();
+            }
+        };
+
+        final AtomicBoolean posting = new AtomicBoolean(true);
+        Thread drainer = new Thread("Drainer"){
+            @Override
+            public void run(){
+                while(posting.get()){
+                    mailbox.drain(listener);
+                }
+            }
+        };
+
+        int threadCount = 2*THREADS_PER_KIND*SensorChannel.COUNT;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] posters = new Thread[threadCount];
+        for(int i=0; i<threadCount; i++){
+            final int channel = i%SensorChannel.COUNT;
+            final boolean artificial = (i/SensorChannel.COUNT)%2 == 0;
+            posters[i] = new Thread("Poster " + i){
+                @Override
+                public void run(){
+                    try{
+                        start.await();
+                    }catch(InterruptedException e){
+                        return;
+                    }
+                    for(int n=0; n<POSTS_PER_THREAD; n++){
+                        if(artificial){
+                            mailbox.post(channel, 2*n);
+                        }
+                        else{
+                            mailbox.post(channel, 2*n + 1, System.nanoTime());
+                        }
+                    }
+                }
+            };
+            posters[i].start();
+        }
+        drainer.start();
+        start.countDown();
+
+        for(Thread poster : posters){
+            poster.join();
+        }
+        posting.set(false);
+        drainer.join();
+
+        assertEquals(0, mismatches.get());
+        assertTrue(delivered.get() > 0);
+        assertEquals((long)threadCount*POSTS_PER_THREAD, mailbox.getPostedCount());
+
+        //The last drain delivers the newest reading of every channel
+        mailbox.post(Constants.CHANNEL_PEDAL, 7, System.nanoTime());
+        mailbox.post(Constants.CHANNEL_TIRE, 8);
+        mailbox.drain(listener);
+        assertEquals(7.0, last[Constants.CHANNEL_PEDAL]);
+        assertEquals(8.0, last[Constants.CHANNEL_TIRE]);
+        assertEquals(0, mismatches.get());
+    }
+}
@@ -0,0 +1,107 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads of a SensorChannelState written by several threads at once. Every write stores a reading with
+ * its time equal to the reading and its deadline TIMEOUT_MS later, so a read mixing two writes is caught.
+ */
+public class SensorChannelStateTest extends TestCase {
+
+    private static final int WRITERS = 3;
+    private static final int READERS = 3;
+
+    private static final long TIMEOUT_MS = 1000;
+
+    //Longest time the threads run to catch writers mid-write
+    private static final long RUN_SECONDS = 10;
+
+    public void testReadsAreNeverTorn() throws Exception{
+        final SensorChannelState state = new SensorChannelState(0);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong tornReads = new AtomicLong(0);
+        final AtomicLong reads = new AtomicLong(0);
+
+        Thread[] threads = new Thread[WRITERS + READERS];
+        for(int i=0; i<WRITERS; i++){
+            final int writer = i;
+            threads[i] = new Thread("Writer " + i){
+                @Override
+                public void run(){
+                    long reading = writer;
+                    while(running.get()){
+                        reading += WRITERS;
+                        state.onReading(reading, reading, reading + TIMEOUT_MS);
+                    }
+                }
+            };
+        }
+        for(int i=0; i<READERS; i++){
+            threads[WRITERS + i] = new Thread("Reader " + i){
+                @Override
+                public void run(){
+                    SensorChannelState.Snapshot snapshot = new SensorChannelState.Snapshot();
+                    while(running.get()){
+                        state.read(snapshot);
+                        if(!isConsistent(snapshot)){
+                            tornReads.incrementAndGet();
+                        }
+                        reads.incrementAndGet();
+                    }
+                }
+            };
+        }
+        for(Thread thread : threads){
+            thread.start();
+        }
+
+        //Run until readers and writers waited on writes in progress long enough to yield
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(RUN_SECONDS);
+        while(state.getReadRetryCount() + state.getWriteSpinCount() < 2*SensorChannelState.SPINS_BEFORE_YIELD
+                && System.nanoTime() < deadline){
+            Thread.sleep(10);
+        }
+        running.set(false);
+        for(Thread thread : threads){
+            thread.join();
+        }
+
+        assertEquals(0, tornReads.get());
+        assertTrue(reads.get() > 0);
+        assertTrue(state.getReadRetryCount() + state.getWriteSpinCount() >= 2*SensorChannelState.SPINS_BEFORE_YIELD);
+
+        SensorChannelState.Snapshot snapshot = new SensorChannelState.Snapshot();
+        state.read(snapshot);
+        assertTrue(isConsistent(snapshot));
+    }
+
+    public void testTimeOutAdvancesDeadline(){
+        SensorChannelState state = new SensorChannelState(0);
+        state.onReading(500, 100, 100 + TIMEOUT_MS);
+        SensorChannelState.Snapshot snapshot = new SensorChannelState.Snapshot();
+
+        assertFalse(state.timeOut(100 + TIMEOUT_MS - 1, TIMEOUT_MS, 2, snapshot));
+        assertTrue(state.timeOut(100 + TIMEOUT_MS, TIMEOUT_MS, 2, snapshot));
+        assertEquals(500.0, snapshot.msPerRev);
+        assertEquals(0, snapshot.timeOutCount);
+        assertEquals(100 + 2*TIMEOUT_MS, state.getDeadline());
+
+        //The last timeout disarms the channel
+        assertTrue(state.timeOut(100 + 2*TIMEOUT_MS, TIMEOUT_MS, 2, snapshot));
+        assertEquals(1, snapshot.timeOutCount);
+        assertEquals(SensorChannelState.DISARMED, state.getDeadline());
+    }
+
+    //True if the snapshot holds the values of a single write, or the initial state
+    private static boolean isConsistent(SensorChannelState.Snapshot snapshot){
+        if(snapshot.deadline == SensorChannelState.DISARMED){
+            return snapshot.readingTime == 0 && snapshot.msPerRev == 0;
+        }
+        return snapshot.readingTime == (long)snapshot.msPerRev && snapshot.deadline == snapshot.readingTime + TIMEOUT_MS
+                && snapshot.timeOutCount == 0;
+    }
+}
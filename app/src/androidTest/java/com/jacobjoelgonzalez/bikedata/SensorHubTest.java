@@ -0,0 +1,151 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Readings of PipeTransport connections decoded by a SensorHub, the closing of the connections,
+ * and connections refused by a full hub.
+ */
+public class SensorHubTest extends TestCase {
+
+    //Longest wait for the hub's threads
+    private static final long WAIT_SECONDS = 10;
+
+    //Connections of the full hub, each sent READINGS_PER_CONNECTION readings
+    private static final int MANY_CONNECTIONS = 32;
+    private static final int READINGS_PER_CONNECTION = 200;
+
+    private final ConcurrentHashMap<SensorConnection, AtomicLong> readings = new ConcurrentHashMap<SensorConnection, AtomicLong>();
+    private CountDownLatch closed;
+    private SensorHub hub;
+    private SensorHub.Listener listener;
+
+    private final byte[] line = new byte[SensorFrameParser.MAX_LINE_LENGTH];
+    private final double[] fields = new double[SensorFrameParser.MAX_FIELD_COUNT];
+
+    @Override
+    protected void setUp(){
+        readings.clear();
+        closed = new CountDownLatch(1);
+        listener = new SensorHub.Listener() {
+            @Override
+            public void onOpened(SensorConnection connection) {
+                readings.put(connection, new AtomicLong(0));
+            }
+
+            @Override
+            public void onReading(SensorConnection connection, SensorRecord record, double filteredMsPerRev) {
+                readings.get(connection).incrementAndGet();
+            }
+
+            @Override
+            public void onTimeout(SensorConnection connection, int channel, double msPerRev) {
+            }
+
+            @Override
+            public void onClosed(SensorConnection connection) {
+                closed.countDown();
+            }
+        };
+        hub = new SensorHub(2, 2, 4, listener);
+    }
+
+    @Override
+    protected void tearDown(){
+        hub.shutdown();
+    }
+
+    public void testBlockingConnectionDecodesEveryReading() throws Exception{
+        //Small enough for the reader thread to find the ring full
+        PipeTransport pipe = new PipeTransport("blocking", 256);
+        SensorConnection connection = hub.openBlocking(pipe.getName(), pipe.getInputStream(), pipe);
+        assertNotNull(connection);
+
+        int count = 20000;
+        for(int i=0; i<count; i++){
+            writeLine(pipe, 500 + i%100);
+        }
+        awaitReadings(connection, count);
+        assertEquals(count, connection.getReadingCount());
+    }
+
+    public void testBlockingConnectionClosesWithItsStream() throws Exception{
+        PipeTransport pipe = new PipeTransport("blocking", 256);
+        SensorConnection connection = hub.openBlocking(pipe.getName(), pipe.getInputStream(), pipe);
+
+        //The sensor link is lost while the reader thread is blocked in read()
+        pipe.close();
+        assertTrue(closed.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(connection.isClosed());
+        assertTrue(hub.getConnections().isEmpty());
+    }
+
+    public void testClosingBlockingConnectionClosesStream() throws Exception{
+        PipeTransport pipe = new PipeTransport("blocking", 256);
+        SensorConnection connection = hub.openBlocking(pipe.getName(), pipe.getInputStream(), pipe);
+
+        connection.close();
+        assertTrue(closed.await(WAIT_SECONDS, TimeUnit.SECONDS));
+        try{
+            pipe.getSensorStream().write(0);
+            fail("Stream of a closed connection is still open");
+        }catch(IOException e){
+            //Expected
+        }
+    }
+
+    public void testEveryConnectionOfFullHubDecodesItsReadings() throws Exception{
+        hub.shutdown();
+        hub = new SensorHub(2, 2, MANY_CONNECTIONS, listener);
+
+        PipeTransport[] pipes = new PipeTransport[MANY_CONNECTIONS];
+        SensorConnection[] connections = new SensorConnection[MANY_CONNECTIONS];
+        for(int i=0; i<MANY_CONNECTIONS; i++){
+            pipes[i] = new PipeTransport("pipe " + i, PipeTransport.DEFAULT_CAPACITY);
+            connections[i] = hub.open(pipes[i]);
+            assertNotNull(connections[i]);
+        }
+
+        //The hub has no slot left, so the next connection is refused and its transport closed
+        PipeTransport refused = new PipeTransport("refused", 256);
+        assertNull(hub.open(refused));
+        assertEquals(1, hub.getRejectedCount());
+        try{
+            refused.getSensorStream().write(0);
+            fail("Transport of a refused connection is still open");
+        }catch(IOException e){
+            //Expected
+        }
+
+        for(int n=0; n<READINGS_PER_CONNECTION; n++){
+            for(int i=0; i<MANY_CONNECTIONS; i++){
+                writeLine(pipes[i], 500 + i);
+            }
+        }
+        for(int i=0; i<MANY_CONNECTIONS; i++){
+            awaitReadings(connections[i], READINGS_PER_CONNECTION);
+            assertEquals(READINGS_PER_CONNECTION, connections[i].getReadingCount());
+        }
+    }
+
+    //Waits until the connection passed on count readings
+    private void awaitReadings(SensorConnection connection, long count) throws InterruptedException{
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+        while(readings.get(connection).get() < count && System.nanoTime() < deadline){
+            Thread.sleep(1);
+        }
+        assertEquals(count, readings.get(connection).get());
+    }
+
+    private void writeLine(PipeTransport pipe, double interval) throws IOException{
+        fields[0] = 1;
+        fields[1] = interval;
+        pipe.getSensorStream().write(line, 0, SensorFrameParser.formatLine(line, 0, Constants.CHANNEL_PEDAL, fields, SensorFrameParser.PEDAL_FIELD_COUNT));
+    }
+}
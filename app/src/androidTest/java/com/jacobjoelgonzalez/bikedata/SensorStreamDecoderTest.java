@@ -0,0 +1,176 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+
+/**
+ * Round trips of readings through BinaryFrameEncoder and SensorFrameParser.formatLine into SensorStreamDecoder,
+ * with the stray SYNC bytes, duplicate frames and sequence wrap-around a sensor link can produce.
+ */
+public class SensorStreamDecoderTest extends TestCase {
+
+    private final ArrayList<Double> intervals = new ArrayList<Double>();
+    private SensorStreamDecoder decoder;
+
+    private final byte[] frame = new byte[Math.max(BinaryFrameEncoder.MAX_FRAME_LENGTH, SensorFrameParser.MAX_LINE_LENGTH)];
+    private final double[] fields = new double[SensorFrameParser.MAX_FIELD_COUNT];
+
+    @Override
+    protected void setUp(){
+        intervals.clear();
+        decoder = new SensorStreamDecoder(new SensorFrameParser.Listener() {
+            @Override
+            public void onReading(int channel, double[] fields, int fieldCount) {
+                intervals.add(fields[fieldCount-1]);
+            }
+        });
+    }
+
+    public void testBinaryRoundTrip(){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryFrameEncoder encoder = new BinaryFrameEncoder();
+        out.write(frame, 0, encoder.encodeHandshake(frame, 0));
+        for(int i=0; i<100; i++){
+            writeFrame(out, encoder, 500 + i);
+        }
+
+        decodeInChunks(out.toByteArray(), 7);
+
+        assertTrue(decoder.isBinary());
+        assertEquals(100, intervals.size());
+        assertEquals(500.0, intervals.get(0));
+        assertEquals(599.0, intervals.get(99));
+        assertEquals(0, decoder.getMalformedFrameCount());
+        assertEquals(0, decoder.getDroppedFrameCount());
+    }
+
+    public void testStraySyncBeforeFirstLineKeepsText(){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(BinaryFrameEncoder.SYNC);
+        for(int i=0; i<10; i++){
+            writeLine(out, 500 + i);
+        }
+
+        decodeInChunks(out.toByteArray(), 5);
+
+        assertFalse(decoder.isBinary());
+        assertEquals(9, intervals.size());
+        assertEquals(1, decoder.getMalformedFrameCount());
+    }
+
+    public void testStraySyncBetweenLinesKeepsText(){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeLine(out, 500);
+        out.write(BinaryFrameEncoder.SYNC);
+        out.write(BinaryFrameEncoder.SYNC);
+        out.write('\n');
+        for(int i=1; i<10; i++){
+            writeLine(out, 500 + i);
+        }
+
+        decodeInChunks(out.toByteArray(), 3);
+
+        assertFalse(decoder.isBinary());
+        assertEquals(10, intervals.size());
+        assertEquals(509.0, intervals.get(9));
+    }
+
+    public void testHandshakeAfterTextSwitchesToBinary(){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryFrameEncoder encoder = new BinaryFrameEncoder();
+        writeLine(out, 500);
+        out.write(BinaryFrameEncoder.SYNC);
+        out.write('\n');
+        writeLine(out, 501);
+        out.write(frame, 0, encoder.encodeHandshake(frame, 0));
+        out.write(BinaryFrameEncoder.SYNC);
+        writeFrame(out, encoder, 502);
+        writeFrame(out, encoder, 503);
+
+        decodeInChunks(out.toByteArray(), 4);
+
+        assertTrue(decoder.isBinary());
+        assertEquals(4, intervals.size());
+        assertEquals(503.0, intervals.get(3));
+    }
+
+    public void testDuplicateFramesAreNotGaps(){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryFrameEncoder encoder = new BinaryFrameEncoder();
+        out.write(frame, 0, encoder.encodeHandshake(frame, 0));
+        writeFrame(out, Constants.CHANNEL_PEDAL, 10, 500);
+        writeFrame(out, Constants.CHANNEL_PEDAL, 11, 501);
+        writeFrame(out, Constants.CHANNEL_PEDAL, 11, 501);
+        writeFrame(out, Constants.CHANNEL_PEDAL, 10, 500);
+        writeFrame(out, Constants.CHANNEL_PEDAL, 12, 502);
+        writeFrame(out, Constants.CHANNEL_PEDAL, 15, 505);
+
+        decodeInChunks(out.toByteArray(), 64);
+
+        assertEquals(4, intervals.size());
+        assertEquals(2, decoder.getDroppedFrameCount());
+    }
+
+    public void testSequenceWrapAround(){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryFrameEncoder encoder = new BinaryFrameEncoder();
+        out.write(frame, 0, encoder.encodeHandshake(frame, 0));
+        writeFrame(out, Constants.CHANNEL_PEDAL, 65534, 500);
+        writeFrame(out, Constants.CHANNEL_PEDAL, 65535, 501);
+        writeFrame(out, Constants.CHANNEL_PEDAL, 0, 502);
+        writeFrame(out, Constants.CHANNEL_PEDAL, 65535, 501);
+        writeFrame(out, Constants.CHANNEL_PEDAL, 2, 504);
+
+        decodeInChunks(out.toByteArray(), 64);
+
+        assertEquals(4, intervals.size());
+        assertEquals(1, decoder.getDroppedFrameCount());
+    }
+
+    public void testFallBackToText(){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryFrameEncoder encoder = new BinaryFrameEncoder();
+        out.write(frame, 0, encoder.encodeHandshake(frame, 0));
+        writeFrame(out, encoder, 500);
+        decodeInChunks(out.toByteArray(), 64);
+        assertTrue(decoder.isBinary());
+
+        //Sensor restarted with text
+        out.reset();
+        for(int i=0; i<60; i++){
+            writeLine(out, 600 + i);
+        }
+        decodeInChunks(out.toByteArray(), 16);
+
+        assertFalse(decoder.isBinary());
+        assertTrue(intervals.size() > 30);
+        assertEquals(659.0, intervals.get(intervals.size()-1));
+    }
+
+    //Feeds the bytes to the decoder in reads of at most chunk bytes
+    private void decodeInChunks(byte[] bytes, int chunk){
+        for(int offset=0; offset<bytes.length; offset+=chunk){
+            decoder.decode(bytes, offset, Math.min(chunk, bytes.length - offset));
+        }
+    }
+
+    private void writeLine(ByteArrayOutputStream out, double interval){
+        fields[0] = 1;
+        fields[1] = interval;
+        out.write(frame, 0, SensorFrameParser.formatLine(frame, 0, Constants.CHANNEL_PEDAL, fields, SensorFrameParser.PEDAL_FIELD_COUNT));
+    }
+
+    private void writeFrame(ByteArrayOutputStream out, BinaryFrameEncoder encoder, double interval){
+        fields[0] = 1;
+        fields[1] = interval;
+        out.write(frame, 0, encoder.encode(Constants.CHANNEL_PEDAL, fields, SensorFrameParser.PEDAL_FIELD_COUNT, frame, 0));
+    }
+
+    private void writeFrame(ByteArrayOutputStream out, int channel, int seq, double interval){
+        fields[0] = 1;
+        fields[1] = interval;
+        out.write(frame, 0, BinaryFrameEncoder.encodeFrame(channel, seq, fields, SensorFrameParser.PEDAL_FIELD_COUNT, frame, 0));
+    }
+}
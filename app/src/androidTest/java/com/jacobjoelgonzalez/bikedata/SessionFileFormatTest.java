@@ -0,0 +1,176 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Round trips of readings through SessionFileWriter and SessionFileReader, and the IOException
+ * a truncated or corrupt session file must be reported with.
+ */
+public class SessionFileFormatTest extends TestCase {
+
+    //More than one block, with a partial last block
+    private static final int READINGS = SessionFileFormat.BLOCK_READINGS + 100;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws IOException{
+        file = File.createTempFile("session", SessionFileFormat.FILE_EXTENSION);
+    }
+
+    @Override
+    protected void tearDown(){
+        file.delete();
+    }
+
+    public void testRoundTrip() throws IOException{
+        writeRide();
+
+        SessionFileReader reader = new SessionFileReader(file);
+        assertEquals(SessionFileFormat.VERSION, reader.getVersion());
+        assertEquals(2, reader.getBlockCount());
+        assertEquals(READINGS, reader.getReadingCount());
+
+        ReadingCursor cursor = reader.cursor();
+        double[] expected = new double[SensorFrameParser.MAX_FIELD_COUNT];
+        for(int i=0; i<READINGS; i++){
+            assertTrue(cursor.next());
+            int channel = fillFields(i, expected);
+            assertEquals(i, cursor.index());
+            assertEquals(1000L*i, cursor.timestamp());
+            assertEquals(channel, cursor.channel());
+            assertEquals(1000000L*i, cursor.receiveNanos());
+            assertEquals(i/2, cursor.sequence());
+            for(int f=0; f<cursor.fieldCount(); f++){
+                assertEquals(expected[f], cursor.field(f), 1e-9);
+            }
+        }
+        assertFalse(cursor.next());
+    }
+
+    public void testCursorAtReading() throws IOException{
+        writeRide();
+
+        ReadingCursor cursor = new SessionFileReader(file).cursorAt(SessionFileFormat.BLOCK_READINGS + 10);
+        assertTrue(cursor.next());
+        assertEquals(SessionFileFormat.BLOCK_READINGS + 10, cursor.index());
+        assertEquals(1000L*(SessionFileFormat.BLOCK_READINGS + 10), cursor.timestamp());
+    }
+
+    public void testFileWithoutIndex() throws IOException{
+        writeRide();
+
+        //Cut the footer, as after a crash
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try{
+            access.setLength(access.length() - 1);
+        }finally{
+            access.close();
+        }
+
+        SessionFileReader reader = new SessionFileReader(file);
+        assertEquals(READINGS, reader.getReadingCount());
+    }
+
+    public void testTruncatedBlock() throws IOException{
+        writeRide();
+        SessionFileReader reader = new SessionFileReader(file);
+        assertEquals(2, reader.getBlockCount());
+
+        //Drop the end of the first block's payload, keeping the index of the whole file
+        int payloadLength = blockPayloadLength();
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try{
+            access.seek(SessionFileFormat.HEADER_LENGTH + 4);
+            access.writeInt(payloadLength/2);
+        }finally{
+            access.close();
+        }
+
+        assertCorrupt(new SessionFileReader(file).cursor());
+    }
+
+    public void testCorruptBlockHeader() throws IOException{
+        writeRide();
+
+        //Reading count beyond a block
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try{
+            access.seek(SessionFileFormat.HEADER_LENGTH);
+            access.writeInt(SessionFileFormat.BLOCK_READINGS + 1);
+        }finally{
+            access.close();
+        }
+
+        assertCorrupt(new SessionFileReader(file).cursor());
+    }
+
+    public void testCorruptIndexFallsBackToBlocks() throws IOException{
+        writeRide();
+
+        //Block offset beyond the file
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try{
+            access.seek(access.length() - SessionFileFormat.FOOTER_LENGTH);
+            long indexOffset = access.readLong();
+            access.seek(indexOffset);
+            access.writeLong(Integer.MAX_VALUE);
+        }finally{
+            access.close();
+        }
+
+        SessionFileReader reader = new SessionFileReader(file);
+        assertEquals(READINGS, reader.getReadingCount());
+        ReadingCursor cursor = reader.cursor();
+        long count = 0;
+        while(cursor.next()){
+            count++;
+        }
+        assertEquals(READINGS, count);
+    }
+
+    //Reading through the cursor must end in an IOException, not a runtime exception
+    private void assertCorrupt(ReadingCursor cursor){
+        try{
+            while(cursor.next()){}
+            fail("Corrupt block was read");
+        }catch(IOException e){
+            //Expected
+        }
+    }
+
+    private int blockPayloadLength() throws IOException{
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+        try{
+            access.seek(SessionFileFormat.HEADER_LENGTH + 4);
+            return access.readInt();
+        }finally{
+            access.close();
+        }
+    }
+
+    private void writeRide() throws IOException{
+        SessionFileWriter writer = new SessionFileWriter(file);
+        SensorRecord record = new SensorRecord();
+        double[] fields = new double[SensorFrameParser.MAX_FIELD_COUNT];
+        for(int i=0; i<READINGS; i++){
+            int channel = fillFields(i, fields);
+            record.set(channel, fields, SensorFrameParser.fieldCountOf(channel), i/2, 1000000L*i, 1000L*i);
+            writer.append(record);
+        }
+        writer.close();
+    }
+
+    //Pedal and tire readings alternating, with fields in thousandths
+    private static int fillFields(int i, double[] fields){
+        int channel = i%2 == 0 ? Constants.CHANNEL_PEDAL : Constants.CHANNEL_TIRE;
+        for(int f=0; f<SensorFrameParser.fieldCountOf(channel); f++){
+            fields[f] = 300 + (i*7 + f*13)%1200 + (i%1000)/1000.0;
+        }
+        return channel;
+    }
+}
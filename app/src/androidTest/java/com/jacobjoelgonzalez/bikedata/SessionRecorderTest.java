@@ -0,0 +1,160 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Session files left behind by an earlier run of SessionRecorder, which must be continued and not truncated.
+ */
+public class SessionRecorderTest extends TestCase {
+
+    private static final int READINGS = 1000;
+
+    private File directory;
+    private File sessionFile;
+    private File saved;
+
+    @Override
+    protected void setUp() throws IOException{
+        directory = File.createTempFile("sessions", "");
+        directory.delete();
+        directory.mkdirs();
+        sessionFile = new File(directory, ".session" + SessionFileFormat.FILE_EXTENSION);
+        saved = new File(directory, "saved" + SessionFileFormat.FILE_EXTENSION);
+    }
+
+    @Override
+    protected void tearDown(){
+        File[] files = directory.listFiles();
+        if(files != null){
+            for(File file : files){
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    public void testVersion1SessionFileIsContinued() throws IOException{
+        writeVersion1SessionFile();
+
+        SessionRecorder recorder = new SessionRecorder(directory);
+        recorder.start();
+        SensorRecord record = new SensorRecord();
+        double[] fields = new double[SensorFrameParser.MAX_FIELD_COUNT];
+        int channel = fillFields(READINGS, fields);
+        record.set(channel, fields, SensorFrameParser.fieldCountOf(channel), 7, 5000000L, 1000L*READINGS);
+        recorder.append(record);
+        recorder.stop();
+        assertTrue(recorder.save(saved));
+
+        SessionFileReader reader = new SessionFileReader(saved);
+        assertEquals(SessionFileFormat.VERSION, reader.getVersion());
+        assertEquals(READINGS + 1, reader.getReadingCount());
+
+        ReadingCursor cursor = reader.cursor();
+        double[] expected = new double[SensorFrameParser.MAX_FIELD_COUNT];
+        for(int i=0; i<READINGS; i++){
+            assertTrue(cursor.next());
+            assertEquals(fillFields(i, expected), cursor.channel());
+            assertEquals(1000L*i, cursor.timestamp());
+            assertEquals(0, cursor.receiveNanos());
+            assertEquals(SensorRecord.NO_SEQUENCE, cursor.sequence());
+            for(int f=0; f<cursor.fieldCount(); f++){
+                assertEquals(expected[f], cursor.field(f), 1e-9);
+            }
+        }
+
+        //The reading recorded after the upgrade
+        assertTrue(cursor.next());
+        assertEquals(1000L*READINGS, cursor.timestamp());
+        assertEquals(5000000L, cursor.receiveNanos());
+        assertEquals(7, cursor.sequence());
+        assertFalse(cursor.next());
+    }
+
+    public void testUnreadableSessionFileIsMovedAside() throws IOException{
+        byte[] unknown = {'B', 'I', 'K', 'E', (byte)(SessionFileFormat.VERSION + 1), 0, 0, 0, 1, 2, 3};
+        FileOutputStream out = new FileOutputStream(sessionFile);
+        try{
+            out.write(unknown);
+        }finally{
+            out.close();
+        }
+
+        SessionRecorder recorder = new SessionRecorder(directory);
+        recorder.start();
+        recorder.stop();
+        assertTrue(recorder.save(saved));
+
+        //The unknown file is kept next to the new session
+        File[] files = directory.listFiles();
+        assertNotNull(files);
+        boolean kept = false;
+        for(File file : files){
+            if(file.getName().startsWith("unreadable-session-")){
+                assertEquals(unknown.length, file.length());
+                kept = true;
+            }
+        }
+        assertTrue(kept);
+        assertEquals(0, new SessionFileReader(saved).getReadingCount());
+    }
+
+    //Writes a session file in version 1 of the format, without receive nanos and sequences and without a block index
+    private void writeVersion1SessionFile() throws IOException{
+        ByteBuffer out = ByteBuffer.allocate(SessionFileFormat.MAX_BLOCK_LENGTH);
+        out.put(SessionFileFormat.MAGIC);
+        out.put((byte)1);
+        out.put((byte)0);
+        out.put((byte)0);
+        out.put((byte)0);
+
+        int blockStart = out.position();
+        out.position(blockStart + SessionFileFormat.BLOCK_HEADER_LENGTH);
+        long[] previousTimestamps = new long[2];
+        long[] previousFields = new long[2*SensorFrameParser.MAX_FIELD_COUNT];
+        double[] fields = new double[SensorFrameParser.MAX_FIELD_COUNT];
+        for(int i=0; i<READINGS; i++){
+            int channel = fillFields(i, fields);
+            long timestamp = 1000L*i;
+            SessionFileFormat.writeVarint(out, SessionFileFormat.zigzag(timestamp - previousTimestamps[channel]) << 1 | channel);
+            previousTimestamps[channel] = timestamp;
+            for(int f=0; f<SensorFrameParser.fieldCountOf(channel); f++){
+                long value = Math.round(fields[f]*1000);
+                int previous = channel*SensorFrameParser.MAX_FIELD_COUNT + f;
+                SessionFileFormat.writeVarint(out, SessionFileFormat.zigzag(value - previousFields[previous]));
+                previousFields[previous] = value;
+            }
+        }
+
+        int end = out.position();
+        out.position(blockStart);
+        out.putInt(READINGS);
+        out.putInt(end - blockStart - SessionFileFormat.BLOCK_HEADER_LENGTH);
+        out.putLong(0);
+        out.putLong(1000L*(READINGS - 1));
+        out.put((byte)3);
+        out.position(end);
+        out.flip();
+
+        FileOutputStream file = new FileOutputStream(sessionFile);
+        try{
+            file.getChannel().write(out);
+        }finally{
+            file.close();
+        }
+    }
+
+    //Pedal and tire readings alternating, with fields in thousandths
+    private static int fillFields(int i, double[] fields){
+        int channel = i%2 == 0 ? Constants.CHANNEL_PEDAL : Constants.CHANNEL_TIRE;
+        for(int f=0; f<SensorFrameParser.fieldCountOf(channel); f++){
+            fields[f] = 300 + (i*7 + f*13)%1200 + (i%1000)/1000.0;
+        }
+        return channel;
+    }
+}
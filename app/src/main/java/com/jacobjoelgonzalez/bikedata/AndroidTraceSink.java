@@ -0,0 +1,83 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import android.os.Trace;
+
+import java.lang.reflect.Method;
+
+/**
+ * Writes PipelineTrace sections to android.os.Trace, where systrace and Perfetto pick them up
+ * when the app is traced, e.g. with atrace --app or a debuggable build.
+ *
+ * Async slices have no public API before Android 10, so they are written through
+ * Trace.beginAsyncSection on Android 10 and later and the hidden Trace.asyncTraceBegin before,
+ * both looked up once by reflection. If neither is found, only the sections are written.
+ * The calls box their arguments, which only happens while tracing with one slice open at a time.
+ */
+public class AndroidTraceSink implements PipelineTrace.Sink {
+
+    //Trace tag of app sections, Trace.TRACE_TAG_APP
+    private static final long TRACE_TAG_APP = 1L << 12;
+
+    private final Method beginAsync;
+    private final Method endAsync;
+
+    //True if the methods take the trace tag first, as the hidden ones do
+    private final boolean tagged;
+
+    public AndroidTraceSink(){
+        Method begin = null;
+        Method end = null;
+        boolean withTag = false;
+        try{
+            begin = Trace.class.getMethod("beginAsyncSection", String.class, int.class);
+            end = Trace.class.getMethod("endAsyncSection", String.class, int.class);
+        }catch(NoSuchMethodException e){
+            try{
+                begin = Trace.class.getMethod("asyncTraceBegin", long.class, String.class, int.class);
+                end = Trace.class.getMethod("asyncTraceEnd", long.class, String.class, int.class);
+                withTag = true;
+            }catch(NoSuchMethodException e2){
+                begin = null;
+                end = null;
+            }
+        }
+        beginAsync = begin;
+        endAsync = end;
+        tagged = withTag;
+    }
+
+    @Override
+    public void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @Override
+    public void endSection() {
+        Trace.endSection();
+    }
+
+    @Override
+    public void beginAsyncSection(String name, int cookie) {
+        invoke(beginAsync, name, cookie);
+    }
+
+    @Override
+    public void endAsyncSection(String name, int cookie) {
+        invoke(endAsync, name, cookie);
+    }
+
+    //Calls an async slice method, ignoring failures since tracing is only diagnostic
+    private void invoke(Method method, String name, int cookie){
+        if(method == null){
+            return;
+        }
+        try{
+            if(tagged){
+                method.invoke(null, TRACE_TAG_APP, name, cookie);
+            }
+            else{
+                method.invoke(null, name, cookie);
+            }
+        }catch(Exception e){}
+    }
+}
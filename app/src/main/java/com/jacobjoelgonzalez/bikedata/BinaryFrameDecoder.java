@@ -0,0 +1,278 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Decodes the binary sensor frames described in BinaryFrameEncoder.
+ * Frames may be split across reads. Bytes outside of a valid frame are skipped until the next SYNC byte.
+ * Gaps in the sequence numbers of a channel are counted as dropped frames. A frame at or up to REORDER_WINDOW
+ * behind the last sequence number of its channel is a duplicate or arrived out of order, and is dropped without
+ * counting a gap. A sequence number further behind means the sensor restarted its count.
+ */
+public class BinaryFrameDecoder {
+
+    //Sequence numbers this far behind the last one are duplicates or reordered frames
+    public static final int REORDER_WINDOW = 16;
+
+    private final SensorFrameParser.Listener listener;
+
+    //Bytes of the frame being received
+    private final byte[] frame = new byte[BinaryFrameEncoder.MAX_FRAME_LENGTH];
+    private int frameLength = 0;
+    private int expectedLength = 0;
+
+    //Reused for the fields of every frame
+    private final double[] fields = new double[SensorFrameParser.MAX_FIELD_COUNT];
+
+    //Last sequence number received on each channel, -1 before the first frame
+    private final int[] lastSequence = new int[BinaryFrameEncoder.CHANNEL_CONTROL+1];
+
+    //Sequence number of the frame being passed to the listener
+    private int sequence = SensorRecord.NO_SEQUENCE;
+
+    //Counters, written by the reading thread only
+    private volatile long frameCount = 0;
+    private volatile long malformedFrameCount = 0;
+    private volatile long droppedFrameCount = 0;
+    private volatile long duplicateFrameCount = 0;
+    private volatile long skippedByteCount = 0;
+
+    //Malformed frames and skipped bytes since the last valid frame
+    private int malformedRun = 0;
+    private int skippedRun = 0;
+
+    //Protocol version reported by the sensor, 0 until the handshake frame is received
+    private volatile int protocolVersion = 0;
+
+    public BinaryFrameDecoder(SensorFrameParser.Listener readingListener){
+        listener = readingListener;
+        reset();
+    }
+
+    /**
+     * Decodes a chunk of bytes read from the sensor. Complete frames are sent to the listener,
+     * an incomplete frame at the end of the chunk is kept for the next call.
+     * @param buffer - the bytes read from the sensor
+     * @param offset - index of the first valid byte
+     * @param length - number of valid bytes
+     */
+    public void parse(byte[] buffer, int offset, int length){
+        parseFrames(buffer, offset, length, false);
+    }
+
+    /**
+     * Looks for the handshake frame in a chunk of text from the sensor. Other frames and bytes are ignored
+     * and nothing is counted or sent to the listener. A handshake split across reads is found in the read completing it.
+     * @param buffer - the bytes read from the sensor
+     * @param offset - index of the first valid byte
+     * @param length - number of valid bytes
+     * @return - the index after the handshake frame, or -1 if the chunk did not complete one
+     */
+    public int findHandshake(byte[] buffer, int offset, int length){
+        return parseFrames(buffer, offset, length, true);
+    }
+
+    //Collects frames from the bytes, returning the index after the first handshake in handshake mode, otherwise -1
+    private int parseFrames(byte[] buffer, int offset, int length, boolean handshakeOnly){
+        int end = offset + length;
+
+        for(int i=offset; i<end; i++){
+            byte b = buffer[i];
+
+            //Wait for the start of a frame
+            if(frameLength == 0){
+                if(b == BinaryFrameEncoder.SYNC){
+                    frame[frameLength++] = b;
+                }
+                else if(!handshakeOnly){
+                    skippedByteCount++;
+                    skippedRun++;
+                }
+                continue;
+            }
+
+            //Check the length of the frame
+            if(frameLength == 1){
+                int frameBytes = b & 0xFF;
+                int payload = frameBytes - BinaryFrameEncoder.HEADER_LENGTH;
+                if(payload <= 0 || payload % BinaryFrameEncoder.FIELD_LENGTH != 0
+                        || frameBytes + BinaryFrameEncoder.FRAME_OVERHEAD > BinaryFrameEncoder.MAX_FRAME_LENGTH){
+                    if(!handshakeOnly){
+                        malformedFrameCount++;
+                        malformedRun++;
+                    }
+
+                    //This byte may start the next frame
+                    frameLength = 0;
+                    if(b == BinaryFrameEncoder.SYNC){
+                        frame[frameLength++] = b;
+                    }
+                    continue;
+                }
+                expectedLength = frameBytes + BinaryFrameEncoder.FRAME_OVERHEAD;
+            }
+
+            frame[frameLength++] = b;
+
+            if(frameLength == expectedLength){
+                frameLength = 0;
+                if(decodeFrame(handshakeOnly) && handshakeOnly){
+                    return i + 1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Drops any partial frame and forgets the sequence numbers, e.g. after the connection was reset.
+     */
+    public void reset(){
+        frameLength = 0;
+        expectedLength = 0;
+        malformedRun = 0;
+        skippedRun = 0;
+        for(int i=0; i<lastSequence.length; i++){
+            lastSequence[i] = -1;
+        }
+    }
+
+    /**
+     * @return - the number of readings sent to the listener
+     */
+    public long getFrameCount(){
+        return frameCount;
+    }
+
+    /**
+     * @return - the number of frames with a bad length, checksum, channel or field count
+     */
+    public long getMalformedFrameCount(){
+        return malformedFrameCount;
+    }
+
+    /**
+     * @return - the number of frames missing from the sequence numbers
+     */
+    public long getDroppedFrameCount(){
+        return droppedFrameCount;
+    }
+
+    /**
+     * @return - the number of frames dropped as duplicates or received out of order
+     */
+    public long getDuplicateFrameCount(){
+        return duplicateFrameCount;
+    }
+
+    /**
+     * @return - the number of frames that failed their checks since the last valid frame, with every
+     * MAX_FRAME_LENGTH bytes skipped outside of a frame counted as one, e.g. when the sensor went back to text
+     */
+    public int getFailedFrameRun(){
+        return malformedRun + skippedRun/BinaryFrameEncoder.MAX_FRAME_LENGTH;
+    }
+
+    /**
+     * @return - the number of bytes skipped while looking for the start of a frame
+     */
+    public long getSkippedByteCount(){
+        return skippedByteCount;
+    }
+
+    /**
+     * @return - the protocol version reported by the sensor, or 0 if no handshake was received
+     */
+    public int getProtocolVersion(){
+        return protocolVersion;
+    }
+
+    /**
+     * @return - the sequence number of the frame whose reading is being passed to the listener
+     */
+    public int getSequence(){
+        return sequence;
+    }
+
+    //Checks and decodes the complete frame, returning true for a valid handshake.
+    //In handshake mode only the handshake is decoded, and nothing is counted.
+    private boolean decodeFrame(boolean handshakeOnly){
+        int last = expectedLength - 1;
+
+        //Verify checksum
+        byte checksum = 0;
+        for(int i=1; i<last; i++){
+            checksum ^= frame[i];
+        }
+        if(checksum != frame[last]){
+            if(!handshakeOnly){
+                malformedFrameCount++;
+                malformedRun++;
+            }
+            return false;
+        }
+
+        int channel = frame[2] & 0xFF;
+        if(handshakeOnly && channel != BinaryFrameEncoder.CHANNEL_CONTROL){
+            return false;
+        }
+        int seq = ((frame[3] & 0xFF) << 8) | (frame[4] & 0xFF);
+        int fieldCount = ((frame[1] & 0xFF) - BinaryFrameEncoder.HEADER_LENGTH)/BinaryFrameEncoder.FIELD_LENGTH;
+
+        //Check the field count of the channel
+        int expectedFields;
+        switch(channel){
+            case Constants.CHANNEL_PEDAL:
+                expectedFields = SensorFrameParser.PEDAL_FIELD_COUNT;
+                break;
+            case Constants.CHANNEL_TIRE:
+                expectedFields = SensorFrameParser.TIRE_FIELD_COUNT;
+                break;
+            case BinaryFrameEncoder.CHANNEL_CONTROL:
+                expectedFields = 1;
+                break;
+            default:
+                expectedFields = -1;
+        }
+        if(fieldCount != expectedFields){
+            if(!handshakeOnly){
+                malformedFrameCount++;
+                malformedRun++;
+            }
+            return false;
+        }
+        malformedRun = 0;
+        skippedRun = 0;
+
+        //Count frames missing since the last frame of this channel, as a signed distance across the wrap
+        if(lastSequence[channel] >= 0 && channel != BinaryFrameEncoder.CHANNEL_CONTROL){
+            int distance = (short)(seq - lastSequence[channel]);
+            if(distance <= 0 && distance > -REORDER_WINDOW){
+                duplicateFrameCount++;
+                return false;
+            }
+            if(distance > 0){
+                droppedFrameCount += distance - 1;
+            }
+        }
+        lastSequence[channel] = seq;
+
+        //Read the fields
+        int pos = 5;
+        for(int i=0; i<fieldCount; i++){
+            int value = ((frame[pos] & 0xFF) << 24) | ((frame[pos+1] & 0xFF) << 16)
+                    | ((frame[pos+2] & 0xFF) << 8) | (frame[pos+3] & 0xFF);
+            fields[i] = value/BinaryFrameEncoder.FIELD_SCALE;
+            pos += BinaryFrameEncoder.FIELD_LENGTH;
+        }
+
+        //Handshake from the sensor
+        if(channel == BinaryFrameEncoder.CHANNEL_CONTROL){
+            protocolVersion = (int)fields[0];
+            return true;
+        }
+
+        frameCount++;
+        sequence = seq;
+        listener.onReading(channel, fields, fieldCount);
+        return false;
+    }
+}
@@ -0,0 +1,114 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Encodes sensor readings in the binary framing that newer sensor firmware can send instead of text lines.
+ *
+ * Frame layout, multi-byte values are big endian:
+ *  0      SYNC (0xA5), a byte that never occurs in the text format
+ *  1      LENGTH of the channel, sequence and field bytes
+ *  2      CHANNEL, Constants.CHANNEL_PEDAL, Constants.CHANNEL_TIRE or CHANNEL_CONTROL
+ *  3-4    SEQUENCE number, counted per channel and wrapping at 65536
+ *  5-     FIELDS, one signed 32 bit value per field in thousandths, in the same order as the text format
+ *  last   CHECKSUM, xor of every byte from LENGTH to the last field byte
+ *
+ * The app asks for binary frames by sending HELLO after connecting. Firmware that supports it answers
+ * with a control frame holding its protocol version and sends binary frames from then on.
+ * Older firmware ignores HELLO and keeps sending text lines.
+ */
+public class BinaryFrameEncoder {
+
+    public static final byte SYNC = (byte)0xA5;
+
+    //Channel used for protocol control frames
+    public static final int CHANNEL_CONTROL = 0x7F;
+
+    //Version of the binary framing
+    public static final int PROTOCOL_VERSION = 1;
+
+    //Request sent by the app to switch the sensor to binary framing
+    public static final byte[] HELLO = {SYNC, 'B', 'I', 'N', PROTOCOL_VERSION, '\n'};
+
+    //Bytes for sync, length and checksum
+    static final int FRAME_OVERHEAD = 3;
+
+    //Bytes for channel and sequence number
+    static final int HEADER_LENGTH = 3;
+
+    //Bytes for each field
+    static final int FIELD_LENGTH = 4;
+
+    //Fields are sent in thousandths
+    static final double FIELD_SCALE = 1000.0;
+
+    //Largest frame for the largest field count
+    public static final int MAX_FRAME_LENGTH = FRAME_OVERHEAD + HEADER_LENGTH + FIELD_LENGTH*SensorFrameParser.MAX_FIELD_COUNT;
+
+    //Length of the handshake frame, which has a single field
+    public static final int HANDSHAKE_LENGTH = FRAME_OVERHEAD + HEADER_LENGTH + FIELD_LENGTH;
+
+    //Next sequence number for each channel
+    private final int[] sequence = new int[CHANNEL_CONTROL+1];
+
+    /**
+     * Encodes a reading with the next sequence number of its channel.
+     * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     * @param fields - the numeric fields of the reading
+     * @param fieldCount - the number of valid values in fields
+     * @param out - buffer to write the frame to. Must have room for MAX_FRAME_LENGTH bytes.
+     * @param offset - index of out to write the frame at
+     * @return - the number of bytes written
+     */
+    public int encode(int channel, double[] fields, int fieldCount, byte[] out, int offset){
+        int seq = sequence[channel];
+        sequence[channel] = (seq + 1) & 0xFFFF;
+        return encodeFrame(channel, seq, fields, fieldCount, out, offset);
+    }
+
+    /**
+     * Encodes the control frame that confirms binary framing to the app.
+     * @param out - buffer to write the frame to
+     * @param offset - index of out to write the frame at
+     * @return - the number of bytes written
+     */
+    public int encodeHandshake(byte[] out, int offset){
+        double[] version = {PROTOCOL_VERSION};
+        return encode(CHANNEL_CONTROL, version, 1, out, offset);
+    }
+
+    /**
+     * Encodes a single frame.
+     * @param channel - channel of the frame
+     * @param seq - sequence number of the frame
+     * @param fields - the numeric fields of the frame
+     * @param fieldCount - the number of valid values in fields
+     * @param out - buffer to write the frame to
+     * @param offset - index of out to write the frame at
+     * @return - the number of bytes written
+     */
+    public static int encodeFrame(int channel, int seq, double[] fields, int fieldCount, byte[] out, int offset){
+        int length = HEADER_LENGTH + FIELD_LENGTH*fieldCount;
+        int pos = offset;
+
+        out[pos++] = SYNC;
+        out[pos++] = (byte)length;
+        out[pos++] = (byte)channel;
+        out[pos++] = (byte)(seq >>> 8);
+        out[pos++] = (byte)seq;
+        for(int i=0; i<fieldCount; i++){
+            int value = (int)Math.round(fields[i]*FIELD_SCALE);
+            out[pos++] = (byte)(value >>> 24);
+            out[pos++] = (byte)(value >>> 16);
+            out[pos++] = (byte)(value >>> 8);
+            out[pos++] = (byte)value;
+        }
+
+        //Checksum covers length through the last field
+        byte checksum = 0;
+        for(int i=offset+1; i<pos; i++){
+            checksum ^= out[i];
+        }
+        out[pos++] = checksum;
+
+        return pos - offset;
+    }
+}
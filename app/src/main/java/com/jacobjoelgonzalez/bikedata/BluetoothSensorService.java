@@ -1,42 +1,91 @@
 package com.jacobjoelgonzalez.bikedata;
 
-import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.os.ParcelUuid;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.UUID;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Created by Jacob on 12/11/2014.
+ *
+ * Connects to any number of sensors at once. Connection attempts share a small pool of connect threads,
+ * and connected sensors are read by the shared reader threads of a SensorHub, so the number of threads
+ * does not grow with the number of bikes. Sensors are reached through a SensorTransport, RFCOMM for the
+ * bike sensors, so a TCP or in-memory stand-in can take their place. The readings of the displayed connection, the first one made,
+ * are shown, recorded and saved. The state and counters of every connection are available from getConnections().
  */
 public class BluetoothSensorService{
 
-    /**
-     * UUID used to connect to remote device
-     */
-    private static UUID uuid = null;
+    //Threads shared by the connection attempts
+    private static final int CONNECT_THREADS = 2;
+
+    //Threads shared by the reads of every connection
+    private static final int READER_THREADS = 2;
+
+    //Threads shared by the decoding and dispatch of every connection's readings
+    private static final int DECODER_THREADS = 2;
+
+    //Sensor connections that can be open at once
+    public static final int MAX_CONNECTIONS = 64;
 
     //Member fields
-    private BluetoothAdapter adapter;
     private Handler handler;
-    private ConnectThread connectThread;
-    private ConnectedThread connectedThread;
+    private ReplayThread replayThread;
+
+    //Reads and times out every sensor connection
+    private final SensorHub hub;
+
+    //Runs the connection attempts
+    private final ExecutorService connectExecutor = Executors.newFixedThreadPool(CONNECT_THREADS);
+
+    //Transports of the connection attempts in progress, so they can be cancelled
+    private final ArrayList<SensorTransport> connectingTransports = new ArrayList<SensorTransport>();
+
+    //Connection whose readings are shown, recorded and saved, or null
+    private volatile SensorConnection displayed = null;
+
+    //Set while the displayed connection records to the session file
+    private volatile boolean recording = false;
 
     /**
-     * Sets the BluetoothAdapter and handler for fields for the object
+     * Sets the handler for fields for the object
      * @param serviceHandler - a handler for the service to send messages to the UI activity
      */
     public BluetoothSensorService(Handler serviceHandler){
 
         //Initialize variable
-        adapter = BluetoothAdapter.getDefaultAdapter();
         handler = serviceHandler;
+        hub = new SensorHub(READER_THREADS, DECODER_THREADS, MAX_CONNECTIONS, hubListener);
+
+        //Queue depths shown by the diagnostics dialog
+        Metrics.REGISTRY.gauge("queue.decodeTasks", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return hub.getDecodeBacklog();
+            }
+        });
+        Metrics.REGISTRY.gauge("queue.displayedBuffers", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                SensorConnection connection = displayed;
+                return connection != null ? connection.getQueueOccupancy() : 0;
+            }
+        });
+        Metrics.REGISTRY.gauge("queue.sessionPending", new MetricsRegistry.Gauge() {
+            @Override
+            public long value() {
+                return MainActivity.sessionRecorder.getPendingCount();
+            }
+        });
     }
 
     /**
@@ -55,6 +104,8 @@ public class BluetoothSensorService{
      * Alerts the user that the attempt to connect to the remote device failed.
      */
     private void connectionFailed(){
+        FlightRecorder.EVENTS.record(FlightRecorder.CONNECT_FAILED, FlightRecorder.NO_SOURCE, 0, 0);
+
         //Send a connection failed message back to the UI
         Message msg = handler.obtainMessage(Constants.MESSAGE_TOAST);
         Bundle bundle = new Bundle();
@@ -64,21 +115,50 @@ public class BluetoothSensorService{
     }
 
     /**
-     * Called from UI to initiate connection to remote device
+     * Shows the user a summary of the ride when a sensor connection ends.
      */
-    public void connect(BluetoothDevice device){
-        //Cancel any thread attempting to make a connection
-        if(connectThread != null){
-            connectThread.cancel();
-            connectThread = null;
-        }
+    private void rideEnded(){
+        SessionAggregates.Summary summary = new SessionAggregates.Summary();
+        MainActivity.sessionAggregates.read(summary);
 
-        //Cancel any thread currently running a connection
-        if(connectedThread != null){
-            connectedThread.cancel();
-            connectedThread = null;
+        //Nothing to summarize
+        if(summary.crankRevolutions == 0 && summary.wheelRevolutions == 0){
+            return;
         }
 
+        Message msg = handler.obtainMessage(Constants.MESSAGE_TOAST);
+        Bundle bundle = new Bundle();
+        bundle.putString(Constants.TOAST, SessionAggregates.describe(summary, MainActivity.calibration));
+        msg.setData(bundle);
+        handler.sendMessage(msg);
+    }
+
+    /**
+     * Called from UI to initiate connection to remote device, replacing any other connection
+     */
+    public void connect(BluetoothDevice device){
+        //Cancel any connection attempt, connection or replay
+        stop();
+
+        addDevice(device);
+    }
+
+    /**
+     * Connects to a sensor through any transport, replacing any other connection,
+     * e.g. a TcpTransport to a sensor simulator
+     * @param transport - the transport to connect, which must not be connected yet
+     */
+    public void connect(SensorTransport transport){
+        stop();
+
+        addTransport(transport);
+    }
+
+    /**
+     * Called from UI to connect to another remote device while keeping the current connections,
+     * e.g. to monitor several bikes. The first connection stays the displayed one.
+     */
+    public void addDevice(BluetoothDevice device){
         //Set uuid for connection based on a cached UUID supported by the remote device
         ParcelUuid[] uuids = device.getUuids();
 
@@ -93,404 +173,362 @@ public class BluetoothSensorService{
             return;
         }
 
-        uuid = uuids[0].getUuid();
-
-        //Start a connectThread to attempt to connect to the remote device
-        connectThread = new ConnectThread(device);
-        connectThread.start();
+        addTransport(new RfcommTransport(device, uuids[0].getUuid()));
     }
 
     /**
-     * This thread runs while attempting to make an outgoing connection
-     * with a device. It runs straight through; the connection either
-     * succeeds or fails.
+     * Connects to another sensor through any transport while keeping the current connections.
+     * @param transport - the transport to connect, which must not be connected yet
      */
-    private class ConnectThread extends Thread{
-
-        private final BluetoothDevice device;
-        private final BluetoothSocket socket;
+    public void addTransport(SensorTransport transport){
+        //Registered before the attempt is queued, so stop() also cancels attempts waiting for a connect thread
+        synchronized(connectingTransports){
+            connectingTransports.add(transport);
+        }
 
-        ConnectThread(BluetoothDevice client){
+        //Attempt to connect on a connect thread
+        try{
+            connectExecutor.execute(new ConnectTask(transport));
+        }catch(RejectedExecutionException e){
+            //Service was shut down
+            synchronized(connectingTransports){
+                connectingTransports.remove(transport);
+            }
+            transport.close();
+        }
+    }
 
-            //Use tmp, because socket is final
-            BluetoothSocket tmp = null;
-            device = client;
+    /**
+     * Called from UI to play a recorded ride back instead of connecting to a sensor
+     * @param ride - a text ride or binary session file
+     * @param speed - multiple of real time to replay at, or ReplaySource.AS_FAST_AS_POSSIBLE
+     */
+    public synchronized void replay(File ride, double speed){
+        //Stop any connection or replay
+        stop();
 
-            //Get a bluetooth socket to connect with the given device
-            try{
-                tmp = device.createRfcommSocketToServiceRecord(uuid);
-            }catch(IOException e){}
-            socket = tmp;
+        //Readings of the replay are displayed like those of a sensor
+        SensorConnection connection = hub.attach("replay of " + ride.getName());
+        if(connection == null){
+            return;
         }
 
-        @Override
-        public void run(){
-            //UI feedback
-            establishing();
+        //Tell the UI that readings are coming from the ride
+        Message msg = handler.obtainMessage(Constants.MESSAGE_DEVICE_NAME);
+        Bundle bundle = new Bundle();
+        bundle.putString(Constants.DEVICE_NAME, connection.getName());
+        msg.setData(bundle);
+        handler.sendMessage(msg);
 
-            //Cancel the device discovery, to open up bandwidth
-            adapter.cancelDiscovery();
+        replayThread = new ReplayThread(connection, new ReplaySource(ride, speed, connection.getFrameListener()));
+        replayThread.start();
+    }
 
-            //Connect to device through socket
-            try{
-                socket.connect();
-            }catch(IOException e){
+    /**
+     * Stops every connection attempt, connection and replay
+     */
+    public synchronized void stop(){
+        synchronized(connectingTransports){
+            for(SensorTransport transport : connectingTransports){
+                transport.close();
+            }
+            connectingTransports.clear();
+        }
 
-                //Unable to connect. Close socket and exit
-                connectionFailed();
+        hub.closeAll();
 
-                try{
-                    socket.close();
-                }catch(IOException E){}
+        if(replayThread != null){
+            replayThread.cancel();
+            replayThread = null;
+        }
+    }
 
-                return;
-            }
+    /**
+     * Stops everything like stop() and ends the connect, reader and decoder threads,
+     * e.g. before the service is replaced. The service can not connect again afterwards.
+     */
+    public synchronized void shutdown(){
+        stop();
+        connectExecutor.shutdownNow();
+        hub.shutdown();
+    }
 
-            // Reset the ConnectThread because we're done
-            synchronized (BluetoothSensorService.this) {
-                connectThread = null;
-            }
+    /**
+     * This thread plays a recorded ride back through a connection without a stream,
+     * with the same filters and sensor timeouts as a sensor connection.
+     */
+    private class ReplayThread extends Thread{
+        private final SensorConnection connection;
+        private final ReplaySource source;
 
-            //Start connected thread
-            manageConnectedSocket(socket, device);
+        ReplayThread(SensorConnection replayConnection, ReplaySource replaySource){
+            connection = replayConnection;
+            source = replaySource;
+        }
+
+        @Override
+        public void run(){
+            source.run();
+            connection.close();
         }
 
-        /**
-         * Cancels listening socket, and finish thread
-         */
         public void cancel(){
-            try{
-                socket.close();
-            }catch(IOException e){}
+            source.cancel();
+            connection.close();
         }
     }
 
-    /* Variables to set a timeout for sensor readings.*/
-    private long pedalStartTime = System.currentTimeMillis();
-    private long pedalTimeOut = 2500;
-    private int pedalTimeOutCount = 0;
-    private double lastPedalReading = 1500000.0;
-
-    private long tireStartTime = System.currentTimeMillis();
-    private long tireTimeOut = 2500;
-    private int tireTimeOutCount = 0;
-    private double lastTireReading = 1500000.0;
-
-    //Stores milliseconds since last the pedal sensor reading
-    private long pedalTimeDifference;
-
-    //Stores milliseconds sine the last tire sensor reading
-    private long tireTimeDifference;
+    /**
+     * Makes an outgoing connection through a transport on a shared connect thread. It runs straight through;
+     * the connection either succeeds and is handed to the hub, or fails.
+     */
+    private class ConnectTask implements Runnable{
 
-    //Artificial pedal reading to be sent to UI activity
-    private double artificialPedalReading;
+        private final SensorTransport transport;
 
-    //Artificial tire reading to be sent to UI activity
-    private double artificialTireReading;
+        ConnectTask(SensorTransport sensorTransport){
+            transport = sensorTransport;
+        }
 
-    /**
-     * This thread handles the connection with a remote device.
-     */
-    private class ConnectedThread extends Thread{
-        private final InputStream in;
-        private final BluetoothSocket socket;
-        private final timerThread timer = new timerThread();
+        @Override
+        public void run(){
+            //Cancelled while waiting for a connect thread
+            synchronized(connectingTransports){
+                if(!connectingTransports.contains(transport)){
+                    transport.close();
+                    return;
+                }
+            }
 
-        //Buffer for separating incoming sensor readings
-        private StringBuilder sensorReadingBuffer = new StringBuilder(0);
-        private String reading;
+            //UI feedback
+            establishing();
 
-        public ConnectedThread(BluetoothSocket btSocket){
+            //Connect to the sensor
+            try{
+                transport.connect();
+            }catch(IOException e){
 
-            InputStream tmpIn = null;
-            socket = btSocket;
+                //Unable to connect. Close transport and exit, without a failure message if it was cancelled
+                transport.close();
+                boolean cancelled;
+                synchronized(connectingTransports){
+                    cancelled = !connectingTransports.remove(transport);
+                }
+                if(!cancelled){
+                    connectionFailed();
+                }
+                return;
+            }
 
-            //Get and set input stream
-            try {
-                tmpIn = socket.getInputStream();
-            }catch(IOException e){}
+            synchronized(connectingTransports){
+                //Cancelled while connecting
+                if(!connectingTransports.remove(transport)){
+                    transport.close();
+                    return;
+                }
+            }
 
-            in = tmpIn;
+            //Start reading the connection
+            manageConnectedTransport(transport);
         }
+    }
 
+    /**
+     * Receives the readings of every connection. Only the displayed connection is shown, recorded and saved.
+     */
+    private final SensorHub.Listener hubListener = new SensorHub.Listener() {
         @Override
-        public void run() {
-            //Start timerThread
-            timer.start();
-
-            //Listen for and receive data from the device
-            byte[] buffer = new byte[1024]; //Byte array buffer to store incoming data chunks
-            int bytes; //Int to hold the number of bytes read
-
-            //Listen for incoming data until an exception is thrown
-            while (true) {
-                try {
-                    //Read data from the input stream
-                    bytes = in.read(buffer);
-
-                    //Construct a char[] from the valid bytes in the byte[]
-                    String readStr = new String(buffer, 0, bytes);
-                    char[] charArr = readStr.toCharArray();
-
-                    //Separate complete sensor readings
-                    for(int i=0; i<charArr.length; i++){
-
-                        //Add any characters that are not a newline to sensor buffer
-                        if(charArr[i] != '\n'){
-                            sensorReadingBuffer.append(charArr[i]);
-                        }
-
-                        //If reading is complete
-                        else {
-                            reading = sensorReadingBuffer.toString();
-
-                            //Clear buffer
-                            sensorReadingBuffer = new StringBuilder(0);
-
-                            /*Separate pedal and tire sensor readings*/
-                            //Check for empty string caused by malformed readings
-                            if(reading.length() > 0){
-                                //Add to sensor readings for file save option
-                                synchronized (MainActivity.lock) {
-                                    MainActivity.sensorReadings.append(reading + '\n');
-                                }
-
-                                //Tire sensor reading
-                                if(reading.charAt(0) == '\t'){
-                                    //Get milliseconds per revolution from reading
-                                    String[] values = reading.split("\t");
-                                    //Ignore malformed readings
-                                    if(values.length == 4){
-                                        //Save and display reading
-                                        newTireReading(Double.parseDouble(values[3]));
-                                    }
-                                }
-
-                                //Pedal sensor reading
-                                else{
-                                    //Get milliseconds per revolution
-                                    String[] values = reading.split("\t");
-                                    //Ignore malformed readings
-                                    if(values.length == 2){
-                                        //Save and display reading
-                                        newPedalReading(Double.parseDouble(values[1]));
-                                    }
-                                }
-                            }
-                        }
-                    }
-                } catch (IOException e) {
-                    break;
+        public void onOpened(SensorConnection connection) {
+            //The first connection is displayed
+            synchronized(BluetoothSensorService.this){
+                if(displayed != null){
+                    return;
                 }
+                displayed = connection;
             }
 
-            //Exit timer thread, because this connectedThread is about to die
-            timer.cancel();
+            //Record readings to the session file while connected to a sensor
+            if(connection.hasStream()){
+                recording = true;
+                MainActivity.sessionRecorder.start();
+            }
         }
 
-        //Call from main activity to close thread
-        public void cancel(){
-            try{
-                socket.close();
+        @Override
+        public void onReading(SensorConnection connection, SensorRecord record, double filteredMsPerRev) {
+            if(connection != displayed){
+                return;
+            }
+            PipelineTrace.Sink trace = PipelineTrace.begin(PipelineTrace.DISPATCH);
 
-                //Exit timer thread
-                timer.cancel();
-            }catch(IOException e){}
-        }
-    }
+            //Only readings of a sensor belong to the session, not those of a replayed ride
+            if(connection.hasStream()){
+                //Record to the session file for the save option, with every field and the receive times
+                MainActivity.sessionRecorder.append(record);
 
-    //Sets new pedal readings and sends them to the UI activity. Synchronized to avoid concurrent variable access with timerThread.
-    private synchronized void newPedalReading(double reading){
-        //Set pedal reading
-        lastPedalReading = reading;
+                //Add to the totals of the ride, from the milliseconds per revolution which is the last field of the reading
+                MainActivity.sessionAggregates.add(record.channel, record.interval(), filteredMsPerRev);
+            }
 
-        //Send reading to UI handler
-        Message msg = handler.obtainMessage(Constants.MESSAGE_PEDAL_READING);
-        Bundle bundle = new Bundle();
-        bundle.putDouble(Constants.PEDAL_READING, lastPedalReading);
-        msg.setData(bundle);
-        handler.sendMessage(msg);
+            //Every reading counts towards the rolling statistics at its receive time, on the clock of the UI frames,
+            //not only the newest reading of each UI frame
+            MainActivity.rollingStats[record.channel].add(record.receiveNanos/1000000, RideMetrics.cadence(filteredMsPerRev));
 
-        //Reset timer and timeout value
-        pedalStartTime = System.currentTimeMillis();
-        pedalTimeOut = 2500;
-        pedalTimeOutCount = 0;
-    }
+            //Acceleration fitted through every tire reading, published before the reading it includes
+            if(record.channel == Constants.CHANNEL_TIRE){
+                MainActivity.tireRpmPerSecond = connection.getTireRpmPerSecond();
+            }
 
-    //Sets new tire readings and sends them to the UI activity. Synchronized to avoid concurrent variable access with timerThread.
-    private synchronized void newTireReading(double reading){
-        //Set tire reading
-        lastTireReading = reading;
+            //Send reading to the UI
+            postReading(record.channel, filteredMsPerRev, record.receiveNanos);
+            PipelineTrace.end(trace);
+        }
 
-        //Send reading to UI handler
-        Message msg = handler.obtainMessage(Constants.MESSAGE_TIRE_READING);
-        Bundle bundle = new Bundle();
-        bundle.putDouble(Constants.TIRE_READING, lastTireReading);
-        msg.setData(bundle);
-        handler.sendMessage(msg);
+        @Override
+        public void onTimeout(SensorConnection connection, int channel, double msPerRev) {
+            if(connection != displayed){
+                return;
+            }
 
-        //Reset timer and timeout value
-        tireStartTime = System.currentTimeMillis();
-        tireTimeOut = 2500;
-        tireTimeOutCount = 0;
-    }
+            //Keep the events leading up to a sensor stopping, e.g. to tell a stalled stream from malformed readings
+            if(connection.getSensorState(channel).getTimeOutCount() == 1){
+                FlightRecorder.EVENTS.dumpLater("timeout");
+            }
 
-    /**
-     * This thread acts as a timer for pedal and tire sensor readings.
-     * If no sensor reading occurs after three seconds,
-     * then the program will start inserting artificial sensors values
-     * to smoothly bring the displayed rpm and speed/acceleration values to zero.
-     * These artificial sensor values are not recorded in the data set for the file save option.
-     * A reading of 1.5 million milliseconds sets the rpm to 0.04 which rounds to 0.0 when rpm is calculated.
-     */
-    private class timerThread extends Thread{
-        //Flag used to exit thread
-        private boolean waiting = true;
+            //Send artificial reading
+            postReading(channel, msPerRev, 0);
+        }
 
         @Override
-        public void run() {
-
-            while(waiting) {
-                //Check pedal timer
-                updatePedalSensorTimer();
+        public void onClosed(SensorConnection connection) {
+            if(connection != displayed){
+                return;
+            }
+            displayed = null;
 
-                //Check tire timer
-                updateTireSensorTimer();
+            //Write the remaining readings to the session file
+            if(recording){
+                recording = false;
+                MainActivity.sessionRecorder.stop();
+            }
 
-                //Only check timer every 100 milliseconds to reduce CPU usage.
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {}
+            //Show the totals of the ride. A replay does not add to them.
+            if(connection.hasStream()){
+                rideEnded();
             }
         }
+    };
 
-         // Exits the timer thread
-        public void cancel(){
-            waiting = false;
+    /**
+     * Replaces the filter of a channel's readings on the displayed connection,
+     * e.g. with a ReadingFilterChain of several stages. The filter must not be used elsewhere.
+     * Readings that were recorded are not affected.
+     * @param channel - the channel to filter
+     * @param filter - the new filter
+     */
+    public void setReadingFilter(SensorChannel channel, ReadingFilter filter){
+        SensorConnection connection = displayed;
+        if(connection != null){
+            connection.setReadingFilter(channel, filter);
         }
     }
 
-    //Gradually brings displayed readings to 0 if tire sensor times out.
-    //Synchronized to avoid concurrent variable access with connectedThread.
-    private synchronized void updateTireSensorTimer(){
-        //Update tire sensor timer
-        tireTimeDifference = System.currentTimeMillis() - tireStartTime;
-        //Bring calculated rpm down to 0.0 in 4 even increments based on the last received sensor reading
-        if (tireTimeDifference > tireTimeOut) {
-            //Increase the timeout count
-            tireTimeOutCount++;
-
-            //Set artificial reading
-            switch(tireTimeOutCount){
-                case 1:
-                    //Three-fourths of last speed value
-                    artificialTireReading = (4.0/3.0)*lastTireReading;
-                    break;
-
-                case 2:
-                    //One-half of last speed value
-                    artificialTireReading = 2.0*lastTireReading;
-                    break;
-
-                case 3:
-                    //One-fourth of last speed value
-                    artificialTireReading = 4.0*lastTireReading;
-                    break;
-
-                default:
-                    //Set speed to 0
-                    artificialTireReading = 1500000.0;
-            }
-
-            //Send artificial reading
-            Message msg = handler.obtainMessage(Constants.MESSAGE_TIRE_READING);
-            Bundle bundle = new Bundle();
-            bundle.putDouble(Constants.TIRE_READING, artificialTireReading);
-            msg.setData(bundle);
-            handler.sendMessage(msg);
-
-            //Reset tire timer
-            tireStartTime = System.currentTimeMillis();
+    /**
+     * @return - the open connections, with their sensor state and counters
+     */
+    public ArrayList<SensorConnection> getConnections(){
+        return hub.getConnections();
+    }
 
-            //Lower timeout value
-            tireTimeOut = 500;
-        }
+    /**
+     * @return - the number of sensor readings on the displayed connection that could not be parsed
+     */
+    public long getMalformedReadingCount(){
+        SensorConnection connection = displayed;
+        return connection != null ? connection.getMalformedReadingCount() : 0;
     }
 
-    //Gradually brings displayed readings to 0 if pedal sensor times out.
-    //Synchronized to avoid concurrent variable access with connectedThread.
-    private synchronized void updatePedalSensorTimer(){
-        //Update pedal sensor timer
-        pedalTimeDifference = System.currentTimeMillis() - pedalStartTime;
-        //Bring calculated rpm down to 0.0 in 4 even increments based on the last received sensor reading
-        if (pedalTimeDifference > pedalTimeOut) {
-            //Increase the timeout count
-            pedalTimeOutCount++;
-
-            //Set artificial reading based on how many times the sensor has timed out
-            switch(pedalTimeOutCount){
-                case 1:
-                    //Three-fourths of the last calculated rpm
-                    artificialPedalReading = (4.0/3.0)*lastPedalReading;
-                    break;
-
-                case 2:
-                    //One-half of last rpm value
-                    artificialPedalReading = 2.0*lastPedalReading;
-                    break;
-
-                case 3:
-                    //One-fourth of last rpm value
-                    artificialPedalReading = 4.0*lastPedalReading;
-                    break;
-
-                default:
-                    //Set rpm to 0
-                    artificialPedalReading = 1500000.0;
-            }
+    /**
+     * @return - the number of binary frames on the displayed connection that were lost, based on their sequence numbers
+     */
+    public long getDroppedReadingCount(){
+        SensorConnection connection = displayed;
+        return connection != null ? connection.getDroppedReadingCount() : 0;
+    }
 
-            //Send artificial reading
-            Message msg = handler.obtainMessage(Constants.MESSAGE_PEDAL_READING);
-            Bundle bundle = new Bundle();
-            bundle.putDouble(Constants.PEDAL_READING, artificialPedalReading);
-            msg.setData(bundle);
-            handler.sendMessage(msg);
+    /**
+     * @return - the number of times the sensor timeout thread woke up
+     */
+    public long getTimeoutWakeupCount(){
+        return hub.getTimeoutWakeupCount();
+    }
 
-            //Reset pedal timer
-            pedalStartTime = System.currentTimeMillis();
+    /**
+     * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     * @return - the last reading and timeout state of the channel on the displayed connection, or null without one
+     */
+    public SensorChannelState getSensorState(int channel){
+        SensorConnection connection = displayed;
+        return connection != null ? connection.getSensorState(channel) : null;
+    }
 
-            //Lower timeout value
-            pedalTimeOut = 500;
+    //Hands a reading to the UI through the reading mailbox. Only the first reading since the last drain
+    //sends a message, which makes the UI drain the mailbox on its next frame.
+    //receiveNanos is the receive time of a real reading, or 0 for an artificial one.
+    private void postReading(int channel, double reading, long receiveNanos){
+        if(receiveNanos != 0){
+            Metrics.DISPATCH.recordSince(receiveNanos);
+        }
+        Metrics.READINGS_DISPATCHED.increment();
+        if(MainActivity.readingMailbox.post(channel, reading, receiveNanos)){
+            handler.sendEmptyMessage(Constants.MESSAGE_READINGS_AVAILABLE);
         }
     }
 
     /**
-     * Initiates a connected thread to handle communication with remote device
-     * @param socket - connected bluetooth socket
-     * @param device - remote device that was connected to.
+     * Hands a connected transport to the hub, which reads it on the shared reader threads
+     * @param transport - connected sensor transport
      */
-    private void manageConnectedSocket(BluetoothSocket socket, BluetoothDevice device){
-        //Cancel the thread that completed the connection
-        if(connectThread != null){
-            connectThread.cancel();
-            connectThread = null;
+    private void manageConnectedTransport(SensorTransport transport){
+        //Ask the sensor for binary frames. Older firmware ignores this and keeps sending text.
+        try{
+            OutputStream out = transport.getOutputStream();
+            out.write(BinaryFrameEncoder.HELLO);
+            out.flush();
+        }catch(IOException e){}
+
+        SensorConnection connection;
+        try{
+            connection = hub.open(transport);
+        }catch(IOException e){
+            connectionFailed();
+            return;
         }
 
-        //Cancel any thread currently running a connection
-        if(connectedThread != null){
-            connectThread.cancel();
-            connectThread = null;
+        //Every connection slot is in use
+        if(connection == null){
+            Message msg = handler.obtainMessage(Constants.MESSAGE_TOAST);
+            Bundle bundle = new Bundle();
+            bundle.putString(Constants.TOAST, "Unable to connect. "+MAX_CONNECTIONS+" sensors are already connected.");
+            msg.setData(bundle);
+            handler.sendMessage(msg);
+            return;
         }
 
-        // Send the name of the connected device back to the UI Activity
-        Message msg = handler.obtainMessage(Constants.MESSAGE_DEVICE_NAME);
-        Bundle bundle = new Bundle();
-        bundle.putString(Constants.DEVICE_NAME, device.getName());
-        msg.setData(bundle);
-        handler.sendMessage(msg);
-
-        //Start the thread to manage the bluetooth connection and transmit incoming sensor reading
-        connectedThread = new ConnectedThread(socket);
-        connectedThread.start();
+        if(connection == displayed){
+            // Send the name of the connected device back to the UI Activity
+            Message msg = handler.obtainMessage(Constants.MESSAGE_DEVICE_NAME);
+            Bundle bundle = new Bundle();
+            bundle.putString(Constants.DEVICE_NAME, connection.getName());
+            msg.setData(bundle);
+            handler.sendMessage(msg);
+        }
+        else{
+            Message msg = handler.obtainMessage(Constants.MESSAGE_TOAST);
+            Bundle bundle = new Bundle();
+            bundle.putString(Constants.TOAST, "Also connected to "+connection.getName());
+            msg.setData(bundle);
+            handler.sendMessage(msg);
+        }
     }
 }
@@ -0,0 +1,50 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * The tire radius used for speed and acceleration, with the constant factors of RideMetrics worked out once.
+ * Calibrations are immutable, so a new one can be published to other threads by assigning it to a volatile field.
+ */
+public final class Calibration {
+
+    public static final double CM_PER_INCH = 2.54;
+
+    //Radius of the bike tire
+    public final double radiusIn;
+    public final double radiusCm;
+
+    //Speed is these factors divided by the milliseconds per revolution
+    final double mphFactor;
+    final double kphFactor;
+
+    //Acceleration is these factors times the rpm difference divided by the seconds per revolution
+    final double fps2Factor;
+    final double mps2Factor;
+
+    /**
+     * Calibration used until the radius is set
+     */
+    public static final Calibration DEFAULT = fromInches(14.5);
+
+    private Calibration(double inches, double centimeters){
+        radiusIn = inches;
+        radiusCm = centimeters;
+        mphFactor = (1250.0*Math.PI*radiusIn)/11;
+        kphFactor = 72*Math.PI*radiusCm;
+        fps2Factor = (Math.PI*radiusIn)/360;
+        mps2Factor = (Math.PI*radiusCm)/3000;
+    }
+
+    /**
+     * @param radius - the radius of the bike tire in inches
+     */
+    public static Calibration fromInches(double radius){
+        return new Calibration(radius, radius*CM_PER_INCH);
+    }
+
+    /**
+     * @param radius - the radius of the bike tire in centimeters
+     */
+    public static Calibration fromCentimeters(double radius){
+        return new Calibration(radius/CM_PER_INCH, radius);
+    }
+}
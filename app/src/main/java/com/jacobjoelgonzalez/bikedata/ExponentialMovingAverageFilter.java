@@ -0,0 +1,40 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Averages the readings with weights that fall off exponentially with age.
+ * Each output moves the given fraction of the way from the last output to the new reading.
+ * The first reading after a reset is passed through unchanged.
+ */
+public class ExponentialMovingAverageFilter implements ReadingFilter {
+
+    private final double alpha;
+    private boolean hasValue = false;
+    private double average;
+
+    /**
+     * @param smoothing - the weight of the newest reading, above 0 and at most 1. Smaller values smooth more.
+     */
+    public ExponentialMovingAverageFilter(double smoothing){
+        if(!(smoothing > 0 && smoothing <= 1)){
+            throw new IllegalArgumentException("Smoothing must be above 0 and at most 1");
+        }
+        alpha = smoothing;
+    }
+
+    @Override
+    public double filter(double value){
+        if(hasValue){
+            average += alpha*(value - average);
+        }
+        else{
+            average = value;
+            hasValue = true;
+        }
+        return average;
+    }
+
+    @Override
+    public void reset(){
+        hasValue = false;
+    }
+}
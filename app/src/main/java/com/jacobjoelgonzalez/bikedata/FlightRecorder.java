@@ -0,0 +1,232 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Always-on record of the last events of the reading path, to find out afterwards why e.g. the speed
+ * dropped to zero: connects and disconnects, reads, read stalls, timeouts with their step, malformed and lost
+ * frames and readings delivered to the UI, each with its System.nanoTime().
+ *
+ * Events are kept as three longs each in a fixed ring of CAPACITY events, so the oldest event is overwritten
+ * by the newest and recording never allocates. Any thread records by claiming the next sequence number with one
+ * atomic increment, clearing the published sequence number of the position, writing the longs and publishing
+ * the sequence number, all with ordered writes. Like a sequence lock, a dump reads the published sequence number
+ * before and after copying an event, and skips events that are not published yet or were overwritten meanwhile.
+ *
+ * dump() writes the events of the last seconds to a text file. dumpLater() does so on a background thread,
+ * at most once per DUMP_INTERVAL_MS, e.g. when a sensor times out.
+ */
+public class FlightRecorder {
+
+    //Events kept, about the last minute at 100 reads per second and two readings per read. A power of two.
+    public static final int CAPACITY = 16384;
+
+    //Events written by dumpLater()
+    public static final long DUMP_WINDOW_NANOS = 30*1000000000L;
+
+    //Shortest time between two dumps by dumpLater()
+    public static final long DUMP_INTERVAL_MS = 60000;
+
+    //Event types. The source is the slot of the connection in its SensorHub, or NO_SOURCE.
+    public static final int CONNECT = 1;           //value: 0
+    public static final int CONNECT_FAILED = 2;    //value: 0, or maxConnections if a full SensorHub refused it
+    public static final int DISCONNECT = 3;        //value: bytes read by the connection
+    public static final int READ = 4;              //arg: bytes read, value: buffers waiting to be decoded
+    public static final int READ_STALL = 5;        //value: times the buffer ring was full
+    public static final int TIMEOUT = 6;           //arg: channel and step, value: bits of the artificial msPerRev
+    public static final int MALFORMED = 7;         //value: readings that could not be decoded
+    public static final int FRAMES_LOST = 8;       //value: binary frames lost by sequence number
+    public static final int UI_DELIVERY = 9;       //arg: channel, value: bits of the msPerRev shown
+
+    private static final String[] TYPE_NAMES = {
+            "?", "connect", "connectFailed", "disconnect", "read", "readStall",
+            "timeout", "malformed", "framesLost", "uiDelivery"
+    };
+
+    //Source of events that do not belong to a connection
+    public static final int NO_SOURCE = 0xFFFF;
+
+    //The recorder of the app
+    public static final FlightRecorder EVENTS = new FlightRecorder(CAPACITY);
+
+    private final int capacity;
+    private final int mask;
+
+    //Three longs per event: time, type, source and arg packed together, and value
+    private final AtomicLongArray events;
+
+    //Sequence number of the last event written to each position plus one
+    private final AtomicLongArray published;
+
+    //Number of events recorded
+    private final AtomicLong next = new AtomicLong(0);
+
+    //Directory of dumpLater() files, or null to skip them
+    private volatile File dumpDirectory = null;
+    private final AtomicLong lastDumpMs = new AtomicLong(-DUMP_INTERVAL_MS);
+
+    /**
+     * @param eventCapacity - the number of events kept, a power of two
+     */
+    public FlightRecorder(int eventCapacity){
+        if(Integer.bitCount(eventCapacity) != 1){
+            throw new IllegalArgumentException("Capacity must be a power of two");
+        }
+        capacity = eventCapacity;
+        mask = eventCapacity - 1;
+        events = new AtomicLongArray(3*eventCapacity);
+        published = new AtomicLongArray(eventCapacity);
+    }
+
+    /**
+     * Records an event. Can be called from any thread.
+     * @param type - the event type, e.g. READ
+     * @param source - the slot of the connection, or NO_SOURCE
+     * @param arg - a small argument of the event, see the event type
+     * @param value - the value of the event, see the event type
+     */
+    public void record(int type, int source, int arg, long value){
+        record(type, source, arg, value, System.nanoTime());
+    }
+
+    /**
+     * Records an event with a time the caller already read, saving a clock read. Can be called from any thread.
+     * @param type - the event type, e.g. READ
+     * @param source - the slot of the connection, or NO_SOURCE
+     * @param arg - a small argument of the event, see the event type
+     * @param value - the value of the event, see the event type
+     * @param time - the time of the event from System.nanoTime()
+     */
+    public void record(int type, int source, int arg, long value, long time){
+        long sequence = next.getAndIncrement();
+        int position = (int)sequence & mask;
+        int i = 3*position;
+        published.lazySet(position, 0);
+        events.lazySet(i, time);
+        events.lazySet(i+1, ((long)type << 56) | ((long)(source & 0xFFFF) << 32) | (arg & 0xFFFFFFFFL));
+        events.lazySet(i+2, value);
+        published.lazySet(position, sequence + 1);
+    }
+
+    /**
+     * Packs the channel and step of a TIMEOUT event.
+     * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     * @param step - the number of artificial readings sent before this one
+     * @return - the arg of the event
+     */
+    public static int timeoutArg(int channel, int step){
+        return (step << 8) | channel;
+    }
+
+    /**
+     * @return - the number of events recorded, including overwritten ones
+     */
+    public long getEventCount(){
+        return next.get();
+    }
+
+    /**
+     * Sets where dumpLater() writes its files.
+     * @param directory - the directory, created if needed, or null to skip the dumps
+     */
+    public void setDumpDirectory(File directory){
+        dumpDirectory = directory;
+    }
+
+    /**
+     * Writes the events of the last DUMP_WINDOW_NANOS to a new file in the dump directory on a background thread,
+     * unless a dump was started less than DUMP_INTERVAL_MS ago.
+     * @param reason - what went wrong, written at the top of the file and used in its name
+     */
+    public void dumpLater(final String reason){
+        final File directory = dumpDirectory;
+        long now = System.currentTimeMillis();
+        long last = lastDumpMs.get();
+        if(directory == null || now - last < DUMP_INTERVAL_MS || !lastDumpMs.compareAndSet(last, now)){
+            return;
+        }
+
+        final long endNanos = System.nanoTime();
+        final File file = new File(directory, "flight-" + reason + "-" + now + ".txt");
+        Thread thread = new Thread("FlightRecorder dump"){
+            @Override
+            public void run(){
+                directory.mkdirs();
+                try{
+                    dump(file, endNanos - DUMP_WINDOW_NANOS, reason);
+                }catch(IOException e){}
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Writes the events recorded since a time as text, oldest first, one event per line.
+     * Events keep being recorded meanwhile.
+     * @param file - the file to write, replaced if it exists
+     * @param sinceNanos - the System.nanoTime() of the oldest event to write
+     * @param reason - what went wrong, written at the top of the file
+     * @throws IOException - if the file could not be written
+     */
+    public void dump(File file, long sinceNanos, String reason) throws IOException{
+        Writer out = new FileWriter(file);
+        try{
+            long dumpNanos = System.nanoTime();
+            out.write(String.format(Locale.US, "%s at %d, %d events recorded, times in ms before the dump%n",
+                    reason, System.currentTimeMillis(), next.get()));
+
+            long end = next.get();
+            long start = Math.max(0, end - capacity);
+            for(long sequence=start; sequence<end; sequence++){
+                int position = (int)sequence & mask;
+                int i = 3*position;
+                if(published.get(position) != sequence + 1){
+                    continue;
+                }
+                long time = events.get(i);
+                long info = events.get(i+1);
+                long value = events.get(i+2);
+                //Overwritten while it was read
+                if(published.get(position) != sequence + 1 || time < sinceNanos){
+                    continue;
+                }
+                out.write(describe(dumpNanos - time, info, value));
+            }
+        }finally{
+            out.close();
+        }
+    }
+
+    //Formats one event
+    private static String describe(long ageNanos, long info, long value){
+        int type = (int)(info >>> 56);
+        int source = (int)(info >>> 32) & 0xFFFF;
+        int arg = (int)info;
+        String name = type < TYPE_NAMES.length ? TYPE_NAMES[type] : TYPE_NAMES[0];
+        String sourceName = source == NO_SOURCE ? "-" : Integer.toString(source);
+
+        String detail;
+        switch(type){
+            case READ:
+                detail = arg + " bytes, " + value + " buffers waiting";
+                break;
+            case TIMEOUT:
+                detail = "channel " + (arg & 0xFF) + " step " + (arg >>> 8) + " msPerRev " + Double.longBitsToDouble(value);
+                break;
+            case UI_DELIVERY:
+                detail = "channel " + arg + " msPerRev " + Double.longBitsToDouble(value);
+                break;
+            default:
+                detail = Long.toString(value);
+                break;
+        }
+        return String.format(Locale.US, "-%.3f %s %s %s%n", ageNanos/1e6, name, sourceName, detail);
+    }
+}
@@ -0,0 +1,76 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import android.view.Choreographer;
+
+/**
+ * Feeds every UI frame to a FrameStats with a Choreographer frame callback while readings arrive,
+ * which works from API 16 on, so on every supported device.
+ *
+ * Requesting a callback every frame keeps vsync running, so the monitor stops by itself after IDLE_FRAMES
+ * frames without reading updates and is started again by the next reading. Must only be used from the UI thread.
+ */
+public class FrameMonitor implements Choreographer.FrameCallback {
+
+    //Frames without reading updates before monitoring stops, about two seconds at 60 Hz
+    public static final int IDLE_FRAMES = 120;
+
+    private final FrameStats stats;
+
+    private boolean running = false;
+    private int idleFrames = 0;
+
+    /**
+     * @param refreshRate - the refresh rate of the display in frames per second
+     */
+    public FrameMonitor(float refreshRate){
+        stats = new FrameStats((long)(1e9/refreshRate));
+    }
+
+    /**
+     * Starts monitoring frames if it is not running.
+     */
+    public void start(){
+        idleFrames = 0;
+        if(running){
+            return;
+        }
+        running = true;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Stops monitoring frames, e.g. when the activity is paused.
+     */
+    public void stop(){
+        if(!running){
+            return;
+        }
+        running = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+        stats.pause();
+    }
+
+    /**
+     * Adds reading updates to a frame.
+     * @param frameTimeNanos - the vsync time of the frame the updates ran in
+     * @param readings - the number of readings shown
+     * @param workNanos - the time showing the readings took
+     */
+    public void onReadingUpdates(long frameTimeNanos, int readings, long workNanos){
+        stats.onReadingUpdates(frameTimeNanos, readings, workNanos);
+        idleFrames = 0;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        stats.onFrame(frameTimeNanos);
+
+        //Readings stopped
+        if(++idleFrames >= IDLE_FRAMES){
+            running = false;
+            stats.pause();
+            return;
+        }
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
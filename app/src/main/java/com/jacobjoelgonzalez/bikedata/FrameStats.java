@@ -0,0 +1,101 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Measures the frames of the UI from their vsync times, and which of them ran reading updates.
+ *
+ * Without per-frame render times before Android 7, a frame lasts from its vsync until the vsync of the next
+ * frame the UI thread started, as Choreographer reports them. A frame that took longer than a vsync period made
+ * the next frame start late, so round(interval/period) - 1 vsyncs were missed, and a frame lasting JANK_PERIODS
+ * periods or more is counted as janky. Frames that ran reading updates, i.e. the drained readings shown by the
+ * fragments, are also measured separately, with the time the updates took, so the jank of reading updates
+ * can be told from jank with other causes.
+ *
+ * The results go to the frame instruments of Metrics, so they are shown and exported with the other metrics.
+ * Must only be used from the UI thread. Nothing is allocated per frame.
+ */
+public class FrameStats {
+
+    //Length of a janky frame in vsync periods
+    public static final double JANK_PERIODS = 1.5;
+
+    private final long vsyncNanos;
+
+    //Vsync time of the frame being measured, 0 if the next frame starts a new measurement
+    private long frameNanos = 0;
+
+    //Frame the last reading updates ran in, with the number of readings shown and the time it took
+    private long updateFrameNanos = 0;
+    private int updateReadings = 0;
+    private long updateWorkNanos = 0;
+
+    /**
+     * @param vsyncPeriodNanos - the time between two vsyncs of the display in nanoseconds
+     */
+    public FrameStats(long vsyncPeriodNanos){
+        vsyncNanos = vsyncPeriodNanos;
+    }
+
+    /**
+     * Ends the frame being measured and starts measuring the next one. Called at the start of every frame.
+     * @param frameTimeNanos - the vsync time of the new frame, as passed to Choreographer.FrameCallback
+     */
+    public void onFrame(long frameTimeNanos){
+        long previous = frameNanos;
+        frameNanos = frameTimeNanos;
+        if(previous == 0 || frameTimeNanos <= previous){
+            return;
+        }
+
+        long interval = frameTimeNanos - previous;
+        long missed = Math.max(0, Math.round((double)interval/vsyncNanos) - 1);
+        boolean janky = interval >= JANK_PERIODS*vsyncNanos;
+
+        Metrics.FRAMES.increment();
+        Metrics.FRAME_INTERVAL.record(interval);
+        Metrics.MISSED_VSYNCS.add(missed);
+        if(janky){
+            Metrics.JANKY_FRAMES.increment();
+        }
+
+        //Attribute the frame to the reading updates that ran in it
+        if(updateFrameNanos == previous && updateReadings > 0){
+            Metrics.READING_FRAMES.increment();
+            Metrics.READING_FRAME_INTERVAL.record(interval);
+            Metrics.READING_UPDATE_WORK.record(updateWorkNanos);
+            if(janky){
+                Metrics.JANKY_READING_FRAMES.increment();
+            }
+        }
+    }
+
+    /**
+     * Adds reading updates to a frame. Called after the readings of a frame were shown, before or after onFrame()
+     * of the same frame.
+     * @param frameTimeNanos - the vsync time of the frame the updates ran in
+     * @param readings - the number of readings shown
+     * @param workNanos - the time showing the readings took
+     */
+    public void onReadingUpdates(long frameTimeNanos, int readings, long workNanos){
+        if(updateFrameNanos != frameTimeNanos){
+            updateFrameNanos = frameTimeNanos;
+            updateReadings = 0;
+            updateWorkNanos = 0;
+        }
+        updateReadings += readings;
+        updateWorkNanos += workNanos;
+    }
+
+    /**
+     * Stops the measurement, e.g. while the UI is paused, so the time until the next frame is not counted as a frame.
+     */
+    public void pause(){
+        frameNanos = 0;
+    }
+
+    /**
+     * @return - the time between two vsyncs in nanoseconds
+     */
+    public long getVsyncNanos(){
+        return vsyncNanos;
+    }
+}
@@ -0,0 +1,126 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts non-negative values, e.g. latencies in nanoseconds, in fixed log-linear buckets to report percentiles.
+ *
+ * Values below SUB_BUCKETS have a bucket each. Above that, every power of two is split into SUB_BUCKETS
+ * equal buckets, so a bucket is never wider than 1/SUB_BUCKETS of its values and a percentile is off by at
+ * most about 6%. Values from 2^(MAX_EXPONENT+1) on, about 36 minutes in nanoseconds, share the last bucket.
+ *
+ * Recording only increments a bucket and the sum, so any thread can record without locks or allocation.
+ * Reading walks the buckets while values may still be recorded, so a percentile may miss the newest values.
+ */
+public class LatencyHistogram {
+
+    //Buckets per power of two, as a number of bits
+    private static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    //Highest power of two with buckets of its own
+    public static final int MAX_EXPONENT = 40;
+
+    //Linear buckets below SUB_BUCKETS, then SUB_BUCKETS for each power of two from SUB_BUCKET_BITS to MAX_EXPONENT
+    public static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2)*SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final StripedCounter sum = new StripedCounter();
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * @param value - the value to count, negative values count as 0
+     */
+    public void record(long value){
+        if(value < 0){
+            value = 0;
+        }
+        buckets.getAndIncrement(bucket(value));
+        sum.add(value);
+
+        //Only the rare new maximum writes the shared value
+        long current = max.get();
+        while(value > current && !max.compareAndSet(current, value)){
+            current = max.get();
+        }
+    }
+
+    /**
+     * Records the time since a start time, e.g. from System.nanoTime().
+     * @param startNanos - the start time in nanoseconds
+     */
+    public void recordSince(long startNanos){
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return - the number of values recorded
+     */
+    public long getCount(){
+        long count = 0;
+        for(int i=0; i<BUCKET_COUNT; i++){
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return - the largest value recorded
+     */
+    public long getMax(){
+        return max.get();
+    }
+
+    /**
+     * @return - the average of the values recorded, 0 without values
+     */
+    public double getMean(){
+        long count = getCount();
+        return count > 0 ? (double)sum.sum()/count : 0;
+    }
+
+    /**
+     * @param fraction - the fraction of values at or below the result, e.g. 0.99 for the 99th percentile
+     * @return - the upper bound of the bucket holding the percentile, never more than the largest value, 0 without values
+     */
+    public long getPercentile(double fraction){
+        long count = getCount();
+        if(count == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(fraction*count));
+
+        long seen = 0;
+        for(int i=0; i<BUCKET_COUNT-1; i++){
+            seen += buckets.get(i);
+            if(seen >= rank){
+                return Math.min(lowerBound(i + 1) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    //Index of the bucket counting a value
+    static int bucket(long value){
+        if(value < SUB_BUCKETS){
+            return (int)value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if(exponent > MAX_EXPONENT){
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1)*SUB_BUCKETS + subBucket;
+    }
+
+    //Smallest value counted by a bucket
+    static long lowerBound(int bucket){
+        if(bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        int exponent = bucket/SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket%SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+}
@@ -0,0 +1,89 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Estimates how fast the revolution rate changes by fitting a straight line through the rpm of the last readings
+ * with least squares, which is much less sensitive to a single noisy interval than the difference of two readings.
+ *
+ * Takes milliseconds per revolution and outputs the slope of the line in rpm per second, which
+ * RideMetrics.slopeAcceleration turns into an acceleration. The readings have no time of their own,
+ * so each reading is placed at the middle of its revolution on a time axis that advances by its interval.
+ * The filter must therefore see every reading of its channel, e.g. on the decoder thread of a SensorConnection,
+ * since a skipped reading would shorten the time axis.
+ * Outputs 0 until two readings were received. Readings that are not positive are ignored.
+ */
+public class LeastSquaresSlopeFilter implements ReadingFilter {
+
+    //Time of the middle of each revolution in milliseconds, and its rpm, in arrival order
+    private final double[] times;
+    private final double[] rates;
+
+    private int next = 0;
+    private int count = 0;
+
+    //End of the last revolution on the time axis
+    private double time = 0;
+
+    private double slope = 0;
+
+    /**
+     * @param size - the number of readings the line is fitted through, at least 2
+     */
+    public LeastSquaresSlopeFilter(int size){
+        if(size < 2){
+            throw new IllegalArgumentException("Window size must be at least 2");
+        }
+        times = new double[size];
+        rates = new double[size];
+    }
+
+    @Override
+    public double filter(double msPerRev){
+        if(!(msPerRev > 0)){
+            return slope;
+        }
+
+        times[next] = time + msPerRev/2;
+        rates[next] = RideMetrics.cadence(msPerRev);
+        time += msPerRev;
+        next++;
+        if(next == times.length){
+            next = 0;
+        }
+        if(count < times.length){
+            count++;
+        }
+        if(count < 2){
+            return slope;
+        }
+
+        //Means of the window, with times relative to the end of the last revolution to keep them small
+        double meanTime = 0;
+        double meanRate = 0;
+        for(int i=0; i<count; i++){
+            meanTime += times[i] - time;
+            meanRate += rates[i];
+        }
+        meanTime /= count;
+        meanRate /= count;
+
+        double covariance = 0;
+        double variance = 0;
+        for(int i=0; i<count; i++){
+            double dt = times[i] - time - meanTime;
+            covariance += dt*(rates[i] - meanRate);
+            variance += dt*dt;
+        }
+
+        //Rpm per millisecond to rpm per second
+        slope = covariance/variance*1000;
+        return slope;
+    }
+
+    @Override
+    public void reset(){
+        next = 0;
+        count = 0;
+        time = 0;
+        slope = 0;
+    }
+}
@@ -6,31 +6,28 @@ import android.app.FragmentTransaction;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.Intent;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.v4.app.DialogFragment;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentManager;
 import android.support.v4.app.FragmentPagerAdapter;
 import android.support.v4.view.ViewPager;
+import android.view.Choreographer;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.Toast;
 
+import java.io.File;
 
-public class MainActivity extends FragmentActivity implements ActionBar.TabListener, btDeviceDialog.onDeviceSelectedListener {
 
-    /**
-     * Used to send sensor readings to desired rpm, speed, and acceleration fragments
-     */
-    public interface onReadingReceivedListener{
-        public void onReadingReceived(double msPerRev);
-    }
-
-    //Listener used to send readings to fragments
-    private onReadingReceivedListener readingListener;
+public class MainActivity extends FragmentActivity implements ActionBar.TabListener, btDeviceDialog.onDeviceSelectedListener,
+        replayDialog.onRideSelectedListener {
 
     //Intent request code
     private final int REQUEST_ENABLE_BT = 1;
@@ -52,37 +49,70 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
     private BluetoothSensorService sensorService = null;
 
     /**
-     * String to store incoming sensor readings
+     * Records sensor readings to a session file while connected
+     */
+    public static SessionRecorder sessionRecorder = null;
+
+    /**
+     * Totals of the ride so far, for the end of ride summary and the save dialog
      */
-    private double reading;
+    public static SessionAggregates sessionAggregates = null;
 
     /**
-     * String to hold sensor readings for File Save option
+     * Hands the newest sensor readings from BluetoothSensorService to the UI thread
      */
-    public static StringBuilder sensorReadings = new StringBuilder(0);
+    public static ReadingMailbox readingMailbox = null;
 
-    //Object to act a lock for synchronized access to sensorReadings
-    public static Object lock = new Object();
+    /**
+     * Delivers readings to the rpm, speed, and acceleration fragments
+     */
+    public static ReadingBus readingBus = null;
+
+    /**
+     * Values kept for the longest rolling window of a channel, enough for 5 minutes at 50 readings per second
+     */
+    private static final int ROLLING_STATS_CAPACITY = 16384;
+
+    /**
+     * Cadence of each sensor channel over the last 10 seconds, minute and 5 minutes, indexed by channel.
+     * Every real reading of the displayed connection is added by the thread delivering it, at its receive time
+     * in System.nanoTime() milliseconds, and the fragments read them at the same clock.
+     */
+    public static RollingStats[] rollingStats = null;
+
+    /**
+     * Time between refreshes of the rolling statistics while no readings arrive
+     */
+    private static final long STATS_REFRESH_MS = 1000;
 
     /**
      * Handler for communicating with BluetoothSensorService
      */
     private Handler serviceHandler;
 
+    /**
+     * Measures the UI frames while readings arrive
+     */
+    private FrameMonitor frameMonitor;
+
+    //Set between onResume() and onPause(), while frames are drawn and measured
+    private boolean resumed = false;
+
     //Codes to track onActivityResult for onPostResume
     private int request_code;
     private int result_code;
 
     /**
-     * Radius of bike tire in inches to be accessed by SpeedFragment and AccelerationFragment
-     * to calculate speed in mph and acceleration in ft/s^2 respectively
+     * Radius of bike tire used by SpeedFragment and AccelerationFragment to calculate speed and acceleration.
+     * Replaced as a whole when the radius is set, so readers always see a matching inch and cm radius.
      */
-    public static double RADIUS_IN = 14.5;
+    public static volatile Calibration calibration = Calibration.DEFAULT;
+
     /**
-     * Radius of bike tire in centimeters to be accessed by SpeedFragment and AccelerationFragment
-     * to calculate speed in kph and acceleration in m/s^2 respectively
+     * Change of the tire rpm per second on the displayed connection, fitted by its decoder thread through every
+     * tire reading and shown by AccelerationFragment with the newest tire reading.
      */
-    public static double RADIUS_CM = 36.83;
+    public static volatile double tireRpmPerSecond = 0;
 
 
     @Override
@@ -90,6 +120,43 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
+        //Create the totals of this session
+        if(sessionAggregates == null){
+            sessionAggregates = new SessionAggregates();
+        }
+
+        //Create the mailbox for readings sent to the UI
+        if(readingMailbox == null){
+            readingMailbox = new ReadingMailbox();
+        }
+
+        //Create the bus the fragments receive readings from
+        if(readingBus == null){
+            readingBus = new ReadingBus();
+        }
+
+        //Create the rolling statistics of each channel
+        if(rollingStats == null){
+            rollingStats = new RollingStats[SensorChannel.COUNT];
+            for(int channel=0; channel<SensorChannel.COUNT; channel++){
+                rollingStats[channel] = new RollingStats(RollingStats.DEFAULT_WINDOWS_MS, ROLLING_STATS_CAPACITY);
+            }
+        }
+
+        //Record next to the saved files if possible, so saving only has to rename the session file
+        if(sessionRecorder == null){
+            File recordingDir = Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState())
+                    ? Environment.getExternalStoragePublicDirectory("BIKE DATA") : getFilesDir();
+            sessionRecorder = new SessionRecorder(recordingDir);
+            FlightRecorder.EVENTS.setDumpDirectory(new File(recordingDir, "diagnostics"));
+        }
+
+        //Measure the frames against the refresh rate of the display, and tell dumps of different devices and releases apart
+        float refreshRate = getWindowManager().getDefaultDisplay().getRefreshRate();
+        frameMonitor = new FrameMonitor(refreshRate);
+        Metrics.REGISTRY.setDescription(Build.MANUFACTURER + " " + Build.MODEL + ", Android " + Build.VERSION.SDK_INT
+                + ", BikeData " + BuildConfig.VERSION_NAME + ", " + refreshRate + " Hz");
+
         //Create a viewPager for sliding action bar tabs
         pager = (ViewPager)findViewById(R.id.pager);
         pager.setAdapter(new pagerAdapter(getSupportFragmentManager()));
@@ -135,37 +202,18 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
                         radiusDialog.show(getSupportFragmentManager(), "radius_dialog");
                         break;
 
-                    case Constants.MESSAGE_TIRE_READING:
-                        //Get sensor reading
-                        reading = msg.getData().getDouble(Constants.TIRE_READING);
-
-                        //Send reading to selected fragment
-                        switch(pager.getCurrentItem()){
-                            case 1:
-                                //Send to speed fragment
-                                readingListener = (SpeedFragment)getSupportFragmentManager().findFragmentByTag("android:switcher:"+R.id.pager+":1");
-                                readingListener.onReadingReceived(reading);
-                                break;
-                            case 2:
-                                //Send to acceleration fragment
-                                readingListener = (AccelerationFragment)getSupportFragmentManager().findFragmentByTag("android:switcher:"+R.id.pager+":2");
-                                readingListener.onReadingReceived(reading);
-                                break;
+                    case Constants.MESSAGE_READINGS_AVAILABLE:
+                        //Show the newest readings with the next frame, and measure the frames while they arrive
+                        Choreographer.getInstance().postFrameCallback(readingFrameCallback);
+                        if(resumed){
+                            frameMonitor.start();
                         }
 
-                        break;
-
-                    case Constants.MESSAGE_PEDAL_READING:
-                        //Get sensor reading
-                        reading = msg.getData().getDouble(Constants.PEDAL_READING);
-
-                        //When RPM fragment is selected
-                        if(pager.getCurrentItem() == 0) {
-                            //Send to RPM fragment
-                            readingListener = (RPMFragment) getSupportFragmentManager().findFragmentByTag("android:switcher:" + R.id.pager + ":0");
-                            readingListener.onReadingReceived(reading);
+                        //Keep the rolling statistics moving once the readings stop
+                        if(!statsRefreshScheduled){
+                            statsRefreshScheduled = true;
+                            serviceHandler.postDelayed(statsRefresh, STATS_REFRESH_MS);
                         }
-
                         break;
 
                     case Constants.MESSAGE_TOAST:
@@ -223,6 +271,11 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
                 radiusDialog.show(getSupportFragmentManager(), "radius_dialog");
                 return true;
 
+            case R.id.replay_ride:
+                replayDialog rideDialog = new replayDialog();
+                rideDialog.show(getSupportFragmentManager(), "replay_dialog");
+                return true;
+
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -239,13 +292,81 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
     @Override
     public void onTabUnselected(ActionBar.Tab tab, FragmentTransaction ft) {}
     @Override
-    public void onTabReselected(ActionBar.Tab tab, FragmentTransaction ft) {}
+    public void onTabReselected(ActionBar.Tab tab, FragmentTransaction ft) {
+        //Tapping the selected tab repeatedly opens the hidden diagnostics dialog
+        long now = SystemClock.uptimeMillis();
+        if(now - firstReselectMs > DIAGNOSTICS_TAP_WINDOW_MS){
+            firstReselectMs = now;
+            reselectCount = 0;
+        }
+        if(++reselectCount == DIAGNOSTICS_TAPS){
+            reselectCount = 0;
+            diagnosticsDialog dialog = new diagnosticsDialog();
+            dialog.show(getSupportFragmentManager(), "diagnostics_dialog");
+        }
+    }
+
+    //Taps on the selected tab within DIAGNOSTICS_TAP_WINDOW_MS that open the diagnostics dialog
+    private static final int DIAGNOSTICS_TAPS = 5;
+    private static final long DIAGNOSTICS_TAP_WINDOW_MS = 3000;
+    private long firstReselectMs = 0;
+    private int reselectCount = 0;
+
+    //Drains the reading mailbox once per display frame
+    private final Choreographer.FrameCallback readingFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            PipelineTrace.Sink trace = PipelineTrace.begin(PipelineTrace.DRAIN);
+            long start = System.nanoTime();
+            int delivered = readingMailbox.drain(readingDispatcher);
+            frameMonitor.onReadingUpdates(frameTimeNanos, delivered, System.nanoTime() - start);
+            PipelineTrace.end(trace);
+        }
+    };
+
+    //Sends the newest reading of each channel to the fragments, which show it with its rolling statistics.
+    //Artificial readings of a stopped sensor are shown too, they were never added to the statistics.
+    private final ReadingMailbox.Listener readingDispatcher = new ReadingMailbox.Listener() {
+        @Override
+        public void onReading(int channel, double msPerRev, boolean artificial) {
+            readingBus.publish(SensorChannel.fromIndex(channel), msPerRev);
+        }
+    };
+
+    //Set while statsRefresh is posted
+    private boolean statsRefreshScheduled = false;
+    private final RollingStats.Snapshot statsSnapshot = new RollingStats.Snapshot(RollingStats.DEFAULT_WINDOWS_MS.length);
+
+    //Shows the rolling statistics again every STATS_REFRESH_MS, so values leave the windows while no readings arrive,
+    //until every window is empty
+    private final Runnable statsRefresh = new Runnable() {
+        @Override
+        public void run() {
+            boolean empty = true;
+            long now = System.nanoTime()/1000000;
+            for(int channel=0; channel<SensorChannel.COUNT; channel++){
+                readingBus.refresh(SensorChannel.fromIndex(channel));
+                rollingStats[channel].read(now, statsSnapshot);
+                empty &= statsSnapshot.isEmpty();
+            }
+
+            statsRefreshScheduled = !empty;
+            if(statsRefreshScheduled){
+                serviceHandler.postDelayed(this, STATS_REFRESH_MS);
+            }
+        }
+    };
 
     /**
      * Setup background operations for communicating with bluetooth sensor
      */
     public void setup(){
 
+        //End the threads of a previous service
+        if(sensorService != null){
+            sensorService.shutdown();
+        }
+
         //Initialize the BluetoothSensorService to perform bluetooth connections
         sensorService = new BluetoothSensorService(serviceHandler);
 
@@ -264,6 +385,18 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
         sensorService.connect(device);
     }
 
+    @Override
+    public void onRideSelected(String path) {
+        //Bluetooth services have not been set up
+        if(sensorService == null){
+            Toast.makeText(this, "Please enable BT to replay rides.", Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        //Play the ride back at real time
+        sensorService.replay(new File(path), 1.0);
+    }
+
     /**
      * This class attaches UI fragments to the ViewPager
      */
@@ -299,6 +432,32 @@ public class MainActivity extends FragmentActivity implements ActionBar.TabListe
         result_code = resultCode;
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        resumed = true;
+    }
+
+    @Override
+    protected void onPause() {
+        //Frames are not drawn while paused
+        resumed = false;
+        frameMonitor.stop();
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        serviceHandler.removeCallbacks(statsRefresh);
+
+        //Close the connections and end their threads
+        if(sensorService != null){
+            sensorService.shutdown();
+            sensorService = null;
+        }
+        super.onDestroy();
+    }
+
     @Override
     protected void onPostResume() {
         super.onPostResume();
@@ -0,0 +1,50 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * The metrics of the reading path from the sensor stream to the screen and the session file, recorded
+ * wherever the work happens and shown by the diagnostics dialog.
+ *
+ * Durations are in nanoseconds from System.nanoTime(). Latencies of readings start at the time their
+ * bytes were read, the receive time of their SensorRecord.
+ */
+public class Metrics {
+
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    //Read stage
+    public static final StripedCounter BYTES_READ = REGISTRY.counter("read.bytes");
+    public static final LatencyHistogram QUEUE_DEPTH = REGISTRY.histogram("read.queueDepth", "");
+
+    //Decode stage: waiting in the buffer ring, then decoding a buffer including its listeners
+    public static final StripedCounter READINGS_PARSED = REGISTRY.counter("parse.readings");
+    public static final StripedCounter READINGS_MALFORMED = REGISTRY.counter("parse.malformed");
+    public static final LatencyHistogram QUEUE_WAIT = REGISTRY.histogram("parse.queueWait", MetricsRegistry.NANOSECONDS);
+    public static final LatencyHistogram PARSE = REGISTRY.histogram("parse.buffer", MetricsRegistry.NANOSECONDS);
+
+    //Readings posted to the UI, and the frames draining them
+    public static final StripedCounter READINGS_DISPATCHED = REGISTRY.counter("dispatch.readings");
+    public static final StripedCounter READINGS_DELIVERED = REGISTRY.counter("dispatch.delivered");
+    public static final LatencyHistogram DISPATCH = REGISTRY.histogram("dispatch.readToPost", MetricsRegistry.NANOSECONDS);
+    public static final LatencyHistogram DRAIN = REGISTRY.histogram("dispatch.postToDrain", MetricsRegistry.NANOSECONDS);
+    public static final LatencyHistogram DELIVERY = REGISTRY.histogram("dispatch.readToUi", MetricsRegistry.NANOSECONDS);
+
+    //Artificial readings, and how late the timeout thread sent them
+    public static final StripedCounter TIMEOUTS = REGISTRY.counter("timeout.fired");
+    public static final LatencyHistogram TIMEOUT_LATENESS = REGISTRY.histogram("timeout.lateness", MetricsRegistry.NANOSECONDS);
+
+    //Session file writes, and saving the session under the chosen name
+    public static final StripedCounter SAVE_BYTES = REGISTRY.counter("save.bytes");
+    public static final StripedCounter SAVE_FAILURES = REGISTRY.counter("save.failures");
+    public static final LatencyHistogram FLUSH = REGISTRY.histogram("save.flush", MetricsRegistry.NANOSECONDS);
+    public static final LatencyHistogram SAVE = REGISTRY.histogram("save.file", MetricsRegistry.NANOSECONDS);
+
+    //UI frames measured by FrameStats while readings arrive, and the frames that ran reading updates
+    public static final StripedCounter FRAMES = REGISTRY.counter("frame.count");
+    public static final StripedCounter MISSED_VSYNCS = REGISTRY.counter("frame.missedVsyncs");
+    public static final StripedCounter JANKY_FRAMES = REGISTRY.counter("frame.janky");
+    public static final StripedCounter READING_FRAMES = REGISTRY.counter("frame.withReadings");
+    public static final StripedCounter JANKY_READING_FRAMES = REGISTRY.counter("frame.jankyWithReadings");
+    public static final LatencyHistogram FRAME_INTERVAL = REGISTRY.histogram("frame.duration", MetricsRegistry.NANOSECONDS);
+    public static final LatencyHistogram READING_FRAME_INTERVAL = REGISTRY.histogram("frame.durationWithReadings", MetricsRegistry.NANOSECONDS);
+    public static final LatencyHistogram READING_UPDATE_WORK = REGISTRY.histogram("frame.readingUpdates", MetricsRegistry.NANOSECONDS);
+}
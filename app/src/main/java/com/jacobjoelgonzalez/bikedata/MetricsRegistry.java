@@ -0,0 +1,171 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Names the counters, histograms and gauges of the app, so they can be shown and dumped together.
+ *
+ * Counters and histograms are created once by name and then recorded to directly, so recording never
+ * touches the registry. Gauges are read when the metrics are described, e.g. the depth of a queue.
+ * describe() lists the total and rate of each counter, the count, p50, p99, p999 and maximum of each
+ * histogram and the value of each gauge, after the description if one was set. Rates are per second since the
+ * previous describe().
+ */
+public class MetricsRegistry {
+
+    //Unit of histograms of durations, which are described in microseconds
+    public static final String NANOSECONDS = "ns";
+
+    /**
+     * A value read when the metrics are described
+     */
+    public interface Gauge{
+        /**
+         * Called from the thread describing the metrics.
+         * @return - the current value
+         */
+        public long value();
+    }
+
+    private final ArrayList<String> counterNames = new ArrayList<String>();
+    private final ArrayList<StripedCounter> counters = new ArrayList<StripedCounter>();
+
+    private final ArrayList<String> histogramNames = new ArrayList<String>();
+    private final ArrayList<String> histogramUnits = new ArrayList<String>();
+    private final ArrayList<LatencyHistogram> histograms = new ArrayList<LatencyHistogram>();
+
+    private final ArrayList<String> gaugeNames = new ArrayList<String>();
+    private final ArrayList<Gauge> gauges = new ArrayList<Gauge>();
+
+    //First line of describe(), e.g. the device and app version
+    private String description = "";
+
+    //Counter sums at the previous describe(), for the rates
+    private long[] lastSums = new long[0];
+    private final long createdNanos = System.nanoTime();
+    private long lastDescribeNanos = createdNanos;
+
+    /**
+     * @param name - the name of the counter
+     * @return - the counter with the name, created if needed
+     */
+    public synchronized StripedCounter counter(String name){
+        int index = counterNames.indexOf(name);
+        if(index >= 0){
+            return counters.get(index);
+        }
+        StripedCounter counter = new StripedCounter();
+        counterNames.add(name);
+        counters.add(counter);
+        return counter;
+    }
+
+    /**
+     * @param name - the name of the histogram
+     * @param unit - the unit of the recorded values, NANOSECONDS for durations
+     * @return - the histogram with the name, created if needed
+     */
+    public synchronized LatencyHistogram histogram(String name, String unit){
+        int index = histogramNames.indexOf(name);
+        if(index >= 0){
+            return histograms.get(index);
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogramNames.add(name);
+        histogramUnits.add(unit);
+        histograms.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * Adds a gauge, replacing a gauge with the same name, e.g. one of a previous service.
+     * @param name - the name of the gauge
+     * @param gauge - reads the value
+     */
+    public synchronized void gauge(String name, Gauge gauge){
+        int index = gaugeNames.indexOf(name);
+        if(index >= 0){
+            gauges.set(index, gauge);
+            return;
+        }
+        gaugeNames.add(name);
+        gauges.add(gauge);
+    }
+
+    /**
+     * Sets the first line of describe(), so dumps of different devices and releases can be told apart.
+     * @param text - e.g. the device, Android version and app version
+     */
+    public synchronized void setDescription(String text){
+        description = text;
+    }
+
+    /**
+     * @return - every metric as text, one per line
+     */
+    public synchronized String describe(){
+        long now = System.nanoTime();
+        double seconds = (now - lastDescribeNanos)/1e9;
+        StringBuilder text = new StringBuilder();
+
+        if(description.length() > 0){
+            text.append(description).append('\n');
+        }
+
+        text.append(String.format(Locale.US, "uptime %.1f s, rates over the last %.1f s%n", (now - createdNanos)/1e9, seconds));
+
+        long[] sums = new long[counters.size()];
+        for(int i=0; i<sums.length; i++){
+            sums[i] = counters.get(i).sum();
+            long last = i < lastSums.length ? lastSums[i] : 0;
+            double rate = seconds > 0 ? (sums[i] - last)/seconds : 0;
+            text.append(String.format(Locale.US, "%s: %d (%.1f/s)%n", counterNames.get(i), sums[i], rate));
+        }
+        lastSums = sums;
+        lastDescribeNanos = now;
+
+        for(int i=0; i<histograms.size(); i++){
+            LatencyHistogram histogram = histograms.get(i);
+            String unit = histogramUnits.get(i);
+            text.append(String.format(Locale.US, "%s: n=%d p50=%s p99=%s p999=%s max=%s%n", histogramNames.get(i),
+                    histogram.getCount(),
+                    format(histogram.getPercentile(0.5), unit),
+                    format(histogram.getPercentile(0.99), unit),
+                    format(histogram.getPercentile(0.999), unit),
+                    format(histogram.getMax(), unit)));
+        }
+
+        for(int i=0; i<gauges.size(); i++){
+            text.append(gaugeNames.get(i)).append(": ").append(gauges.get(i).value()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes describe() to a file.
+     * @param file - the file to write, replaced if it exists
+     * @throws IOException - if the file could not be written
+     */
+    public void dump(File file) throws IOException{
+        String text = describe();
+        Writer out = new FileWriter(file);
+        try{
+            out.write(text);
+        }finally{
+            out.close();
+        }
+    }
+
+    //Formats a histogram value in its unit, durations in microseconds
+    private static String format(long value, String unit){
+        if(NANOSECONDS.equals(unit)){
+            return String.format(Locale.US, "%.1fus", value/1000.0);
+        }
+        return value + unit;
+    }
+}
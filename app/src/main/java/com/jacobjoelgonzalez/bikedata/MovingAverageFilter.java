@@ -0,0 +1,57 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Averages the last readings with equal weight.
+ *
+ * The sum of the window is kept up to date as readings enter and leave the ring buffer, and is added up
+ * again each time the buffer wraps around, so rounding errors can not build up over a long ride.
+ * Until the window is full, the readings received so far are averaged.
+ */
+public class MovingAverageFilter implements ReadingFilter {
+
+    private final double[] window;
+    private int next = 0;
+    private int count = 0;
+    private double sum = 0;
+
+    /**
+     * @param size - the number of readings averaged, at least 1
+     */
+    public MovingAverageFilter(int size){
+        if(size < 1){
+            throw new IllegalArgumentException("Window size must be at least 1");
+        }
+        window = new double[size];
+    }
+
+    @Override
+    public double filter(double value){
+        if(count == window.length){
+            sum -= window[next];
+        }
+        else{
+            count++;
+        }
+        window[next] = value;
+        sum += value;
+
+        next++;
+        if(next == window.length){
+            next = 0;
+
+            //Start the sum over from the values in the window
+            sum = 0;
+            for(int i=0; i<count; i++){
+                sum += window[i];
+            }
+        }
+        return sum/count;
+    }
+
+    @Override
+    public void reset(){
+        next = 0;
+        count = 0;
+        sum = 0;
+    }
+}
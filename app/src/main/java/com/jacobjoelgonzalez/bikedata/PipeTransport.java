@@ -0,0 +1,180 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An in-memory stand-in for a sensor socket. Bytes written to getSensorStream(), e.g. by a SyntheticSensor,
+ * are buffered in a fixed ring and reported through available() like a Bluetooth stream. Writing blocks
+ * while the ring is full, so a slow reader slows the sensor down instead of losing bytes.
+ * Once closed, reads and writes throw like a lost connection. Commands written to the sensor are discarded.
+ */
+public class PipeTransport implements SensorTransport {
+
+    //Bytes buffered by default, about the receive buffer of a TCP socket. The hub drains a connection
+    //every SensorHub.POLL_INTERVAL_MS at the least, so the capacity limits the readings per second of a pipe.
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    private final String name;
+
+    private final byte[] ring;
+    private long written = 0;
+    private long read = 0;
+    private boolean closed = false;
+
+    private final pipeInputStream in = new pipeInputStream();
+    private final sensorOutputStream sensorOut = new sensorOutputStream();
+
+    //Takes the commands sent to the sensor
+    private final OutputStream commandOut = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException{
+            checkOpen();
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException{
+            checkOpen();
+        }
+    };
+
+    /**
+     * @param pipeName - the name of the connection
+     * @param capacity - the number of bytes buffered before writing blocks
+     */
+    public PipeTransport(String pipeName, int capacity){
+        name = pipeName;
+        ring = new byte[capacity];
+    }
+
+    @Override
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * The pipe is connected from the start.
+     * @throws IOException - if the pipe was closed
+     */
+    @Override
+    public void connect() throws IOException{
+        checkOpen();
+    }
+
+    @Override
+    public InputStream getInputStream(){
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream(){
+        return commandOut;
+    }
+
+    /**
+     * @return - the stream the simulated sensor writes its readings to
+     */
+    public OutputStream getSensorStream(){
+        return sensorOut;
+    }
+
+    @Override
+    public synchronized void close(){
+        closed = true;
+        notifyAll();
+    }
+
+    private synchronized void checkOpen() throws IOException{
+        if(closed){
+            throw new IOException("Pipe closed");
+        }
+    }
+
+    /**
+     * Written by the simulated sensor. Blocks until every byte fits.
+     */
+    private class sensorOutputStream extends OutputStream{
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException{
+            synchronized(PipeTransport.this){
+                while(length > 0){
+                    while(written - read == ring.length && !closed){
+                        try{
+                            PipeTransport.this.wait();
+                        }catch(InterruptedException e){
+                            throw new IOException("Interrupted");
+                        }
+                    }
+                    checkOpen();
+
+                    int position = (int)(written%ring.length);
+                    int count = (int)Math.min(length, Math.min(ring.length - (written - read), ring.length - position));
+                    System.arraycopy(bytes, offset, ring, position, count);
+                    written += count;
+                    offset += count;
+                    length -= count;
+                    PipeTransport.this.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException{
+            write(new byte[]{(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void close(){
+            PipeTransport.this.close();
+        }
+    }
+
+    /**
+     * Read by the sensor connection.
+     */
+    private class pipeInputStream extends InputStream{
+        /**
+         * @return - the number of bytes written and not read yet
+         */
+        @Override
+        public int available() throws IOException{
+            synchronized(PipeTransport.this){
+                checkOpen();
+                return (int)(written - read);
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException{
+            synchronized(PipeTransport.this){
+                while(written == read && !closed){
+                    try{
+                        PipeTransport.this.wait();
+                    }catch(InterruptedException e){
+                        throw new IOException("Interrupted");
+                    }
+                }
+                checkOpen();
+
+                int position = (int)(read%ring.length);
+                int count = (int)Math.min(length, Math.min(written - read, ring.length - position));
+                System.arraycopy(ring, position, buffer, offset, count);
+                read += count;
+                PipeTransport.this.notifyAll();
+                return count;
+            }
+        }
+
+        @Override
+        public int read() throws IOException{
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public void close(){
+            PipeTransport.this.close();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optional trace sections around the stages of the reading path, so they line up with the frames
+ * of the UI in systrace or Perfetto: the read of a sensor stream, decoding a buffer, dispatching a reading,
+ * draining the readings on a frame and each fragment showing one.
+ *
+ * Tracing is off until a Sink is set, e.g. an AndroidTraceSink while the diagnostics dialog has tracing
+ * checked. While off, a section costs one volatile read. begin() returns the sink the section was opened on,
+ * which is passed to end(), so a section is always closed on the sink it was opened on even if tracing
+ * is switched meanwhile.
+ *
+ * An async slice follows one buffer of readings from the socket to the screen. It starts when the buffer is read
+ * and ends on the first frame that shows a reading received at that time or later, so readings replaced by newer ones
+ * before a frame still end their slice on the frame that made them outdated. Only one slice is open at a time.
+ * A slice that no frame ended within MAX_SLICE_NANOS, e.g. because the readings belonged to a connection that
+ * is not displayed, is ended by the next read. With one sensor connected every slice follows the displayed readings.
+ */
+public class PipelineTrace {
+
+    /**
+     * Writes trace sections, e.g. to android.os.Trace
+     */
+    public interface Sink{
+        /**
+         * Opens a section on the calling thread.
+         * @param name - the name of the section
+         */
+        public void beginSection(String name);
+
+        /**
+         * Closes the last section opened on the calling thread.
+         */
+        public void endSection();
+
+        /**
+         * Opens a slice that may end on another thread.
+         * @param name - the name of the slice
+         * @param cookie - tells slices with the same name apart
+         */
+        public void beginAsyncSection(String name, int cookie);
+
+        /**
+         * Closes a slice opened by beginAsyncSection.
+         * @param name - the name of the slice
+         * @param cookie - the cookie the slice was opened with
+         */
+        public void endAsyncSection(String name, int cookie);
+    }
+
+    //Names of the sections
+    public static final String READ = "sensor read";
+    public static final String DECODE = "sensor decode";
+    public static final String DISPATCH = "reading dispatch";
+    public static final String DRAIN = "reading drain";
+
+    //Name of the slices from the socket to the screen
+    public static final String READING_SLICE = "reading socket to screen";
+
+    //Longest slice before the next read ends it
+    public static final long MAX_SLICE_NANOS = 1000000000L;
+
+    private static volatile Sink sink = null;
+
+    //Receive time of the buffer the open slice follows, 0 without a slice
+    private static final AtomicLong sliceNanos = new AtomicLong(0);
+
+    /**
+     * Turns tracing on or off. Can be called from any thread.
+     * @param traceSink - writes the sections, or null to stop tracing
+     */
+    public static void setSink(Sink traceSink){
+        Sink old = sink;
+        sink = traceSink;
+
+        //Close the open slice on the sink it was opened on
+        long open = sliceNanos.getAndSet(0);
+        if(old != null && open != 0){
+            old.endAsyncSection(READING_SLICE, cookie(open));
+        }
+    }
+
+    /**
+     * @return - true while sections are traced
+     */
+    public static boolean isEnabled(){
+        return sink != null;
+    }
+
+    /**
+     * Opens a section on the calling thread if tracing is on.
+     * @param name - the name of the section, one of the constants or another constant string
+     * @return - the sink to pass to end(), null if tracing is off
+     */
+    public static Sink begin(String name){
+        Sink traceSink = sink;
+        if(traceSink != null){
+            traceSink.beginSection(name);
+        }
+        return traceSink;
+    }
+
+    /**
+     * Closes the section opened by begin().
+     * @param traceSink - the sink returned by begin()
+     */
+    public static void end(Sink traceSink){
+        if(traceSink != null){
+            traceSink.endSection();
+        }
+    }
+
+    /**
+     * Starts a slice for a buffer of readings unless one is open. Called by the read stage before the buffer is decoded.
+     * @param receiveNanos - the receive time the buffer's readings are stamped with
+     */
+    public static void bufferRead(long receiveNanos){
+        Sink traceSink = sink;
+        if(traceSink == null){
+            return;
+        }
+        long open = sliceNanos.get();
+        if(open != 0 && receiveNanos - open < MAX_SLICE_NANOS){
+            return;
+        }
+        if(sliceNanos.compareAndSet(open, receiveNanos)){
+            if(open != 0){
+                traceSink.endAsyncSection(READING_SLICE, cookie(open));
+            }
+            traceSink.beginAsyncSection(READING_SLICE, cookie(receiveNanos));
+        }
+    }
+
+    /**
+     * Ends the open slice if a reading as new as its buffer is shown. Called on the UI thread for each reading drained.
+     * @param receiveNanos - the receive time of the reading, 0 for an artificial reading
+     */
+    public static void readingShown(long receiveNanos){
+        Sink traceSink = sink;
+        if(traceSink == null || receiveNanos == 0){
+            return;
+        }
+        long open = sliceNanos.get();
+        if(open != 0 && receiveNanos - open >= 0 && sliceNanos.compareAndSet(open, 0)){
+            traceSink.endAsyncSection(READING_SLICE, cookie(open));
+        }
+    }
+
+    //Cookie of the slice of a buffer
+    private static int cookie(long receiveNanos){
+        return (int)(receiveNanos ^ (receiveNanos >>> 32));
+    }
+}
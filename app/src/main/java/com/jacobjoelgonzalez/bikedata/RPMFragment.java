@@ -11,13 +11,29 @@ import android.widget.TextView;
 /**
  * Created by Jacob on 12/8/2014.
  */
-public class RPMFragment extends Fragment implements MainActivity.onReadingReceivedListener {
+public class RPMFragment extends Fragment implements ReadingBus.Subscriber {
+
+    //PipelineTrace section of showing a reading
+    private static final String TRACE_SECTION = "RPMFragment.onReadingReceived";
+
+    //Text color of each cadence zone, indexed by RideMetrics.ZONE_BELOW, ZONE_LOW, ZONE_TARGET and ZONE_HIGH
+    private static final int[] ZONE_COLORS = {Color.BLACK, Color.YELLOW, Color.GREEN, Color.RED};
 
     //View of the fragment, used to update UI from onReadingReceived
     private TextView cadenceValue = null;
     private TextView cadenceDecimalPoint = null;
     private TextView cadenceTenthsValue = null;
 
+    //Shows the rpm in cadenceValue and cadenceTenthsValue
+    private TenthsDisplay cadenceDisplay = null;
+
+    //Shows the rolling average, minimum and maximum rpm
+    private RollingStatsDisplay statsDisplay = null;
+    private final RollingStats.Snapshot stats = new RollingStats.Snapshot(RollingStats.DEFAULT_WINDOWS_MS.length);
+
+    //Color of the displayed rpm value, transparent until one is set
+    private int textColor = Color.TRANSPARENT;
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.rpm_fragment, container, false);
@@ -26,49 +42,44 @@ public class RPMFragment extends Fragment implements MainActivity.onReadingRecei
         cadenceValue = (TextView)view.findViewById(R.id.cadenceValue);
         cadenceDecimalPoint = (TextView)view.findViewById(R.id.cadenceDecimalPoint);
         cadenceTenthsValue = (TextView)view.findViewById(R.id.cadenceTenthsValue);
+        cadenceDisplay = new TenthsDisplay(cadenceValue, cadenceTenthsValue);
+        textColor = Color.TRANSPARENT;
+        statsDisplay = RollingStatsDisplay.fromTable(view);
+
+        //Receive readings while the views exist
+        MainActivity.readingBus.register(SensorChannel.PEDAL, this);
 
         return view;
     }
 
-    /**
-     * Calculates the rpm of the bicycle based on the bikes current milliseconds/rev to the tenths place
-     * @param mpr - milliseconds per revolution of bike, retrieved from bluetooth sensor.
-     * @return - A long array whose first index is the mathematical integer value of the cadence calculation.
-     *          The second index is the tenths place of the cadence calculation
-     */
-    public int[] getCadence(double mpr){
-
-        //Get int value
-        int intVal = (int)(60000/mpr);
-
-        //Get the tenths place value
-        double remainder = 60000%mpr;
-        int tenthsVal = (int)Math.round((remainder/mpr)*10.0);
-        if(tenthsVal == 10){
-            intVal++;
-            tenthsVal = 0;
-        }
-
-        int[] values = {intVal, tenthsVal};
-
-        return values;
+    @Override
+    public void onDestroyView() {
+        MainActivity.readingBus.unregister(SensorChannel.PEDAL, this);
+        super.onDestroyView();
     }
 
     @Override
     public void onReadingReceived(double msPerRev) {
+        PipelineTrace.Sink trace = PipelineTrace.begin(TRACE_SECTION);
 
         //Calculate the rpm to the nearest tenth
-        int[] rpmVals = getCadence(msPerRev);
+        long rpmTenths = RideMetrics.cadenceTenths(msPerRev);
 
-        //Change text color based on rpm
-        if(rpmVals[0] >= 96) changeTextColor(Color.RED);
-        else if(86 <= rpmVals[0] && rpmVals[0] <96) changeTextColor(Color.GREEN);
-        else if(80 <= rpmVals[0] && rpmVals[0] < 86) changeTextColor(Color.YELLOW);
-        else changeTextColor(Color.BLACK);
+        //Change text color based on the cadence zone of the rpm
+        changeTextColor(ZONE_COLORS[RideMetrics.cadenceZone(rpmTenths)]);
 
         //Display current rpm value
-        cadenceValue.setText(String.valueOf(rpmVals[0]));
-        cadenceTenthsValue.setText(String.valueOf(rpmVals[1]));
+        cadenceDisplay.show(rpmTenths);
+
+        //Display rpm over the rolling windows
+        MainActivity.rollingStats[SensorChannel.PEDAL.index].read(System.nanoTime()/1000000, stats);
+        for(int window=0; window<stats.counts.length; window++){
+            statsDisplay.show(window, RollingStatsDisplay.AVERAGE, Math.round(stats.averages[window]*10.0));
+            statsDisplay.show(window, RollingStatsDisplay.MINIMUM, Math.round(stats.minimums[window]*10.0));
+            statsDisplay.show(window, RollingStatsDisplay.MAXIMUM, Math.round(stats.maximums[window]*10.0));
+        }
+
+        PipelineTrace.end(trace);
     }
 
     /**
@@ -76,6 +87,12 @@ public class RPMFragment extends Fragment implements MainActivity.onReadingRecei
      * @param color - an integer representation of a color.
      */
     public void changeTextColor(int color){
+        //Views only need to be redrawn if the color changes
+        if(color == textColor){
+            return;
+        }
+        textColor = color;
+
         cadenceValue.setTextColor(color);
         cadenceDecimalPoint.setTextColor(color);
         cadenceTenthsValue.setTextColor(color);
@@ -0,0 +1,112 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Delivers the readings of each sensor channel to every view subscribed to it.
+ *
+ * Subscribers register when their views are created and unregister when they are destroyed.
+ * A new subscriber is immediately given the last reading of its channel, so every registered view
+ * shows the current value, including pages that are not visible.
+ * Subscribers are kept in an array per channel that is only resized when registering,
+ * so publishing a reading does no lookups and creates no objects.
+ *
+ * Must only be used from the UI thread.
+ */
+public class ReadingBus {
+
+    /**
+     * Receives the readings of a channel, e.g. the rpm, speed and acceleration fragments
+     */
+    public interface Subscriber{
+        public void onReadingReceived(double msPerRev);
+    }
+
+    //Subscribers per channel before the array has to grow
+    private static final int INITIAL_SUBSCRIBERS = 4;
+
+    private final Subscriber[][] subscribers = new Subscriber[SensorChannel.COUNT][INITIAL_SUBSCRIBERS];
+    private final int[] subscriberCounts = new int[SensorChannel.COUNT];
+
+    //Last reading of each channel
+    private final double[] lastReadings = new double[SensorChannel.COUNT];
+    private final boolean[] hasReading = new boolean[SensorChannel.COUNT];
+
+    /**
+     * Subscribes to the readings of a channel and delivers its last reading, if any.
+     * @param channel - the channel to receive readings of
+     * @param subscriber - receives the readings
+     */
+    public void register(SensorChannel channel, Subscriber subscriber){
+        int c = channel.ordinal();
+        Subscriber[] channelSubscribers = subscribers[c];
+        int count = subscriberCounts[c];
+
+        //Already registered
+        for(int i=0; i<count; i++){
+            if(channelSubscribers[i] == subscriber){
+                return;
+            }
+        }
+
+        if(count == channelSubscribers.length){
+            Subscriber[] larger = new Subscriber[count*2];
+            System.arraycopy(channelSubscribers, 0, larger, 0, count);
+            subscribers[c] = channelSubscribers = larger;
+        }
+        channelSubscribers[count] = subscriber;
+        subscriberCounts[c] = count + 1;
+
+        //Bring the new subscriber up to date
+        if(hasReading[c]){
+            subscriber.onReadingReceived(lastReadings[c]);
+        }
+    }
+
+    /**
+     * Stops delivering readings of a channel to a subscriber.
+     * @param channel - the channel the subscriber was registered for
+     * @param subscriber - the subscriber to remove
+     */
+    public void unregister(SensorChannel channel, Subscriber subscriber){
+        int c = channel.ordinal();
+        Subscriber[] channelSubscribers = subscribers[c];
+        int count = subscriberCounts[c];
+        for(int i=0; i<count; i++){
+            if(channelSubscribers[i] == subscriber){
+                //Move the last subscriber into the gap
+                channelSubscribers[i] = channelSubscribers[count-1];
+                channelSubscribers[count-1] = null;
+                subscriberCounts[c] = count - 1;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Delivers a reading to every subscriber of its channel.
+     * @param channel - the channel of the reading
+     * @param msPerRev - the milliseconds per revolution of the reading
+     */
+    public void publish(SensorChannel channel, double msPerRev){
+        int c = channel.ordinal();
+        lastReadings[c] = msPerRev;
+        hasReading[c] = true;
+
+        Subscriber[] channelSubscribers = subscribers[c];
+        int count = subscriberCounts[c];
+        for(int i=0; i<count; i++){
+            channelSubscribers[i].onReadingReceived(msPerRev);
+        }
+    }
+
+    /**
+     * Delivers the last reading of a channel again, e.g. to show rolling statistics that changed without a new reading.
+     * Does nothing before the first reading of the channel.
+     * @param channel - the channel to deliver again
+     */
+    public void refresh(SensorChannel channel){
+        int c = channel.ordinal();
+        if(hasReading[c]){
+            publish(channel, lastReadings[c]);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.IOException;
+
+/**
+ * Iterates over recorded sensor readings in order without creating objects per reading.
+ * The accessors return values of the current reading, which is the one moved to by the last call to next().
+ */
+public interface ReadingCursor {
+
+    /**
+     * Moves to the next reading.
+     * @return - false if there are no more readings
+     * @throws IOException - if the readings can not be read, e.g. from a corrupt session file
+     */
+    public boolean next() throws IOException;
+
+    /**
+     * @return - the index of the current reading in the store or file
+     */
+    public long index();
+
+    /**
+     * @return - the time the current reading was received in milliseconds
+     */
+    public long timestamp();
+
+    /**
+     * @return - the monotonic time the current reading was received in nanoseconds, or 0 if it was not recorded
+     */
+    public long receiveNanos();
+
+    /**
+     * @return - the sequence number of the binary frame of the current reading, or SensorRecord.NO_SEQUENCE
+     */
+    public int sequence();
+
+    /**
+     * @return - the channel of the current reading
+     */
+    public int channel();
+
+    /**
+     * @return - the number of fields of the current reading
+     */
+    public int fieldCount();
+
+    /**
+     * @param field - index of the field
+     * @return - the value of a field of the current reading
+     */
+    public double field(int field);
+
+    /**
+     * @return - the milliseconds per revolution of the current reading, which is its last field
+     */
+    public double interval();
+
+    /**
+     * Copies the fields of the current reading.
+     * @param out - array with room for SensorFrameParser.MAX_FIELD_COUNT values
+     * @return - the number of fields copied
+     */
+    public int copyFields(double[] out);
+}
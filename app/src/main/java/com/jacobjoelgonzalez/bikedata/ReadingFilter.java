@@ -0,0 +1,24 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * A stage that filters the milliseconds per revolution of a sensor channel one reading at a time,
+ * e.g. to smooth the readings or to reject switch bounce.
+ *
+ * Filters keep their history in primitive ring buffers allocated up front, so filtering creates no objects
+ * and can run for every reading. Stages can be chained with ReadingFilterChain.
+ * A filter keeps state between readings, so it must only be used by one thread and one channel.
+ */
+public interface ReadingFilter {
+
+    /**
+     * Adds a reading to the filter.
+     * @param value - the reading, normally milliseconds per revolution
+     * @return - the filtered value
+     */
+    public double filter(double value);
+
+    /**
+     * Forgets every reading, e.g. when a sensor stopped sending or a new connection starts.
+     */
+    public void reset();
+}
@@ -0,0 +1,32 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Runs readings through several filter stages in order, each stage filtering the output of the one before it,
+ * e.g. a RollingMedianFilter rejecting bounce followed by an ExponentialMovingAverageFilter.
+ */
+public class ReadingFilterChain implements ReadingFilter {
+
+    private final ReadingFilter[] stages;
+
+    /**
+     * @param filterStages - the stages, first stage first. An empty chain passes readings through unchanged.
+     */
+    public ReadingFilterChain(ReadingFilter... filterStages){
+        stages = filterStages.clone();
+    }
+
+    @Override
+    public double filter(double value){
+        for(int i=0; i<stages.length; i++){
+            value = stages[i].filter(value);
+        }
+        return value;
+    }
+
+    @Override
+    public void reset(){
+        for(int i=0; i<stages.length; i++){
+            stages[i].reset();
+        }
+    }
+}
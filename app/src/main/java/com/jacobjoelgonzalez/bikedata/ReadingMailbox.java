@@ -0,0 +1,233 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hands the latest milliseconds per revolution of each channel from the sensor threads to the UI thread.
+ *
+ * Posting a reading overwrites the previous reading of its channel, so nothing queues up when the UI thread
+ * is busy. The UI thread drains the mailbox at most once per display frame and only sees the newest reading
+ * of each channel, the readings in between are counted as coalesced.
+ * post() returns true when a drain has to be scheduled, which happens once for all readings posted between two drains.
+ *
+ * Values are kept as the bits of the double in an AtomicLongArray, next to their receive times. Each channel has
+ * a sequence lock like SensorChannelState, so a drain never pairs the value of one reading with the receive time,
+ * and so the artificial flag, of another. Posts to a channel claim its sequence with a compare and set, making it odd,
+ * and make it even again when done. The drain reads the sequence, the value and receive time and the sequence again,
+ * and retries if it was odd or changed. Posting and draining never block, they only wait for the few instructions
+ * of a post to the same channel, and yield after SensorChannelState.SPINS_BEFORE_YIELD tries.
+ * Each drain records its delay and the age of the readings it delivers in Metrics, and each delivery in the FlightRecorder.
+ * Delivered readings end the PipelineTrace slice of their buffer.
+ */
+public class ReadingMailbox {
+
+    /**
+     * Receives the newest reading of each channel that changed since the last drain
+     */
+    public interface Listener{
+        /**
+         * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+         * @param msPerRev - the newest milliseconds per revolution of the channel
+         * @param artificial - true if the reading was made up because the sensor stopped sending
+         */
+        public void onReading(int channel, double msPerRev, boolean artificial);
+    }
+
+    //Sequence of each channel, odd while a post writes the reading
+    private final AtomicLongArray sequences = new AtomicLongArray(SensorChannel.COUNT);
+
+    //Newest reading of each channel
+    private final AtomicLongArray values = new AtomicLongArray(SensorChannel.COUNT);
+
+    //Receive time of the newest reading of each channel, 0 for artificial readings
+    private final AtomicLongArray receiveNanos = new AtomicLongArray(SensorChannel.COUNT);
+
+    //Number of readings posted to each channel
+    private final AtomicLongArray postedCounts = new AtomicLongArray(SensorChannel.COUNT);
+
+    //Number of readings of each channel accounted for by past drains. Only used by the draining thread.
+    private final long[] drainedCounts = new long[SensorChannel.COUNT];
+
+    //Set while a drain is scheduled and has not started yet
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    //Time the scheduled drain was requested
+    private volatile long scheduledNanos = 0;
+
+    //Statistics, written by the draining thread only
+    private volatile long deliveredCount = 0;
+    private volatile long coalescedCount = 0;
+    private volatile long drainCount = 0;
+    private volatile long maxBacklog = 0;
+    private volatile long lastDrainLatencyNanos = 0;
+    private volatile long maxDrainLatencyNanos = 0;
+
+    /**
+     * Replaces the reading of a channel with a reading without a receive time, which is passed on as artificial.
+     * Called from the sensor threads.
+     * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     * @param msPerRev - the milliseconds per revolution of the reading
+     * @return - true if the caller has to schedule a drain on the UI thread
+     */
+    public boolean post(int channel, double msPerRev){
+        return post(channel, msPerRev, 0);
+    }
+
+    /**
+     * Replaces the reading of a channel. Called from the sensor threads.
+     * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     * @param msPerRev - the milliseconds per revolution of the reading
+     * @param nanos - the time the reading was received from System.nanoTime(), or 0 for an artificial reading
+     * @return - true if the caller has to schedule a drain on the UI thread
+     */
+    public boolean post(int channel, double msPerRev, long nanos){
+        //Claim the sequence of the channel
+        int spins = 0;
+        long s;
+        while(true){
+            s = sequences.get(channel);
+            if((s & 1) == 0 && sequences.compareAndSet(channel, s, s + 1)){
+                break;
+            }
+            backOff(++spins);
+        }
+        receiveNanos.set(channel, nanos);
+        values.set(channel, Double.doubleToRawLongBits(msPerRev));
+        sequences.set(channel, s + 2);
+        postedCounts.incrementAndGet(channel);
+
+        if(drainScheduled.compareAndSet(false, true)){
+            scheduledNanos = System.nanoTime();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Passes the newest reading of every channel that was posted to since the last drain to the listener.
+     * Must always be called from the same thread, normally once per display frame.
+     * @param listener - receives the readings
+     * @return - the number of readings passed to the listener
+     */
+    public int drain(Listener listener){
+        long now = System.nanoTime();
+        long latency = now - scheduledNanos;
+        lastDrainLatencyNanos = latency;
+        Metrics.DRAIN.record(latency);
+        if(latency > maxDrainLatencyNanos){
+            maxDrainLatencyNanos = latency;
+        }
+
+        //Readings posted from now on schedule another drain
+        drainScheduled.set(false);
+
+        int delivered = 0;
+        for(int channel=0; channel<SensorChannel.COUNT; channel++){
+            //Count is read before the value, so the value is never older than the count.
+            //A newer value is passed on again by the next drain.
+            long posted = postedCounts.get(channel);
+            long backlog = posted - drainedCounts[channel];
+            if(backlog == 0){
+                continue;
+            }
+            //Value and receive time of the same reading
+            long bits;
+            long nanos;
+            int spins = 0;
+            while(true){
+                long s = sequences.get(channel);
+                if((s & 1) == 0){
+                    bits = values.get(channel);
+                    nanos = receiveNanos.get(channel);
+                    if(sequences.get(channel) == s){
+                        break;
+                    }
+                }
+                backOff(++spins);
+            }
+            double msPerRev = Double.longBitsToDouble(bits);
+            drainedCounts[channel] = posted;
+
+            //Age of the reading when it reaches the UI
+            if(nanos != 0){
+                Metrics.DELIVERY.record(now - nanos);
+            }
+
+            if(backlog > maxBacklog){
+                maxBacklog = backlog;
+            }
+            coalescedCount += backlog - 1;
+
+            FlightRecorder.EVENTS.record(FlightRecorder.UI_DELIVERY, FlightRecorder.NO_SOURCE, channel, Double.doubleToRawLongBits(msPerRev), now);
+            listener.onReading(channel, msPerRev, nanos == 0);
+            PipelineTrace.readingShown(nanos);
+            delivered++;
+        }
+
+        deliveredCount += delivered;
+        drainCount++;
+        Metrics.READINGS_DELIVERED.add(delivered);
+        return delivered;
+    }
+
+    /**
+     * @return - the number of readings posted
+     */
+    public long getPostedCount(){
+        long count = 0;
+        for(int channel=0; channel<SensorChannel.COUNT; channel++){
+            count += postedCounts.get(channel);
+        }
+        return count;
+    }
+
+    /**
+     * @return - the number of readings passed to the UI
+     */
+    public long getDeliveredCount(){
+        return deliveredCount;
+    }
+
+    /**
+     * @return - the number of readings that were replaced by a newer reading before the UI drained them
+     */
+    public long getCoalescedCount(){
+        return coalescedCount;
+    }
+
+    /**
+     * @return - the number of drains
+     */
+    public long getDrainCount(){
+        return drainCount;
+    }
+
+    /**
+     * @return - the most readings of a single channel posted between two drains
+     */
+    public long getMaxBacklog(){
+        return maxBacklog;
+    }
+
+    /**
+     * @return - the time in nanoseconds between scheduling and running the last drain
+     */
+    public long getLastDrainLatencyNanos(){
+        return lastDrainLatencyNanos;
+    }
+
+    /**
+     * @return - the longest time in nanoseconds between scheduling and running a drain
+     */
+    public long getMaxDrainLatencyNanos(){
+        return maxDrainLatencyNanos;
+    }
+
+    //Spins on the first failed tries, which a post in progress ends quickly, and yields after that
+    private static void backOff(int spins){
+        if(spins >= SensorChannelState.SPINS_BEFORE_YIELD){
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Plays a recorded ride back through the same SensorStreamDecoder used for a live sensor connection,
+ * so the parsing and dispatch path can be exercised without a sensor.
+ *
+ * Text rides are fed to the decoder as raw bytes in the same chunk size ConnectedThread reads.
+ * Binary session files are encoded into binary sensor frames first, which exercises the binary framing.
+ * Readings are paced by their receive times, or by the running interval sum of their channel for text rides,
+ * divided by the speed. A speed of AS_FAST_AS_POSSIBLE delivers readings without waiting.
+ *
+ * The time spent reading the file, decoding and dispatching is measured per reading.
+ */
+public class ReplaySource implements Runnable {
+
+    //Speed that replays without pacing
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+
+    //Bytes fed to the decoder at a time, matching ConnectedThread
+    private static final int CHUNK_SIZE = 1024;
+
+    private final File file;
+    private final double speed;
+    private final SensorFrameParser.Listener target;
+
+    //Decoder that delivers to the pacing listener
+    private final SensorStreamDecoder decoder;
+
+    //Flag used to stop the replay
+    private volatile boolean running = true;
+
+    //Pacing state
+    private final long[] channelTimes = new long[2];
+    private long firstTimestamp = Long.MIN_VALUE;
+    private long startNanos;
+
+    //Statistics
+    private volatile long readingCount = 0;
+    private volatile long readNanos = 0;
+    private volatile long decodeNanos = 0;
+    private volatile long dispatchNanos = 0;
+    private volatile long waitNanos = 0;
+    private volatile long elapsedNanos = 0;
+
+    //Receive time of the reading being encoded from a binary session file
+    private long encodedTimestamp;
+
+    /**
+     * @param ride - a text ride or binary session file
+     * @param replaySpeed - multiple of real time to replay at, or AS_FAST_AS_POSSIBLE
+     * @param readingListener - receives the decoded readings, e.g. the dispatch of BluetoothSensorService
+     */
+    public ReplaySource(File ride, double replaySpeed, SensorFrameParser.Listener readingListener){
+        file = ride;
+        speed = replaySpeed;
+        target = readingListener;
+        decoder = new SensorStreamDecoder(new SensorFrameParser.Listener() {
+            @Override
+            public void onReading(int channel, double[] fields, int fieldCount) {
+                dispatch(channel, fields, fieldCount);
+            }
+        });
+    }
+
+    /**
+     * Replays the whole ride, or until cancel() is called. Blocks until done.
+     */
+    @Override
+    public void run(){
+        startNanos = System.nanoTime();
+        try{
+            SessionReader reader = SessionReader.open(file);
+            if(reader instanceof SessionFileReader){
+                replayBinary(reader.cursor());
+            }
+            else{
+                replayText();
+            }
+        }catch(IOException e){}
+        elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Stops the replay.
+     */
+    public void cancel(){
+        running = false;
+    }
+
+    //Feeds the raw bytes of a text ride to the decoder
+    private void replayText() throws IOException{
+        InputStream in = new FileInputStream(file);
+        try{
+            byte[] buffer = new byte[CHUNK_SIZE];
+            while(running){
+                long readStart = System.nanoTime();
+                int bytes = in.read(buffer);
+                readNanos += System.nanoTime() - readStart;
+                if(bytes < 0){
+                    break;
+                }
+                decode(buffer, bytes);
+            }
+        }finally{
+            in.close();
+        }
+    }
+
+    //Encodes the readings of a binary session file as sensor frames and feeds them to the decoder
+    private void replayBinary(ReadingCursor cursor) throws IOException{
+        BinaryFrameEncoder encoder = new BinaryFrameEncoder();
+        byte[] buffer = new byte[BinaryFrameEncoder.MAX_FRAME_LENGTH];
+        double[] fields = new double[SensorFrameParser.MAX_FIELD_COUNT];
+
+        //Handshake switches the decoder to binary framing
+        decode(buffer, encoder.encodeHandshake(buffer, 0));
+
+        while(running){
+            long readStart = System.nanoTime();
+            boolean more = cursor.next();
+            int length = 0;
+            if(more){
+                int fieldCount = cursor.copyFields(fields);
+                encodedTimestamp = cursor.timestamp();
+                length = encoder.encode(cursor.channel(), fields, fieldCount, buffer, 0);
+            }
+            readNanos += System.nanoTime() - readStart;
+            if(!more){
+                break;
+            }
+            decode(buffer, length);
+        }
+    }
+
+    //Decodes a chunk and counts the time not spent in dispatch as decoding
+    private void decode(byte[] buffer, int length){
+        long dispatchBefore = dispatchNanos + waitNanos;
+        long decodeStart = System.nanoTime();
+        decoder.decode(buffer, 0, length);
+        decodeNanos += System.nanoTime() - decodeStart - (dispatchNanos + waitNanos - dispatchBefore);
+    }
+
+    //Waits until the reading is due and passes it on
+    private void dispatch(int channel, double[] fields, int fieldCount){
+        if(!running){
+            return;
+        }
+
+        //Time of the reading within the ride
+        long timestamp;
+        if(decoder.isBinary()){
+            timestamp = encodedTimestamp;
+        }
+        else{
+            channelTimes[channel] += Math.round(fields[fieldCount-1]);
+            timestamp = channelTimes[channel];
+        }
+        if(firstTimestamp == Long.MIN_VALUE){
+            firstTimestamp = timestamp;
+        }
+
+        //Pace the reading
+        if(speed != AS_FAST_AS_POSSIBLE){
+            long waitStart = System.nanoTime();
+            long due = startNanos + (long)((timestamp - firstTimestamp)*1000000.0/speed);
+            long delay = due - waitStart;
+            if(delay > 0){
+                try{
+                    Thread.sleep(delay/1000000, (int)(delay%1000000));
+                }catch(InterruptedException e){
+                    running = false;
+                }
+            }
+            waitNanos += System.nanoTime() - waitStart;
+        }
+
+        long dispatchStart = System.nanoTime();
+        target.onReading(channel, fields, fieldCount);
+        dispatchNanos += System.nanoTime() - dispatchStart;
+        readingCount++;
+    }
+
+    /**
+     * @return - the number of readings replayed
+     */
+    public long getReadingCount(){
+        return readingCount;
+    }
+
+    /**
+     * @return - the number of readings replayed per second, not counting time spent waiting for readings to be due
+     */
+    public double getReadingsPerSecond(){
+        long nanos = (elapsedNanos > 0 ? elapsedNanos : System.nanoTime() - startNanos) - waitNanos;
+        return nanos > 0 ? readingCount*1e9/nanos : 0;
+    }
+
+    /**
+     * @return - the average time in nanoseconds spent reading the ride file per reading
+     */
+    public double getReadNanosPerReading(){
+        return perReading(readNanos);
+    }
+
+    /**
+     * @return - the average time in nanoseconds spent decoding per reading
+     */
+    public double getDecodeNanosPerReading(){
+        return perReading(decodeNanos);
+    }
+
+    /**
+     * @return - the average time in nanoseconds spent in the reading listener per reading
+     */
+    public double getDispatchNanosPerReading(){
+        return perReading(dispatchNanos);
+    }
+
+    /**
+     * @return - the number of lines or frames in the ride that could not be decoded
+     */
+    public long getMalformedCount(){
+        return decoder.getMalformedFrameCount();
+    }
+
+    private double perReading(long nanos){
+        long count = readingCount;
+        return count > 0 ? (double)nanos/count : 0;
+    }
+}
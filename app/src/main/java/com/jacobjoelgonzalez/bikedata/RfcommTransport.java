@@ -0,0 +1,96 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Connects to the bike sensor over a Bluetooth RFCOMM socket.
+ *
+ * Android offers no non-blocking or selectable Bluetooth socket, and the socket stream keeps reporting 0 available
+ * bytes after the link drops, so it can not be polled like the other transports. It is therefore a blocking transport:
+ * SensorHub gives it a reader thread of its own, which blocks in read() and notices a lost link by the IOException
+ * or end of stream read() ends with. That is one thread per Bluetooth connection, which the platform leaves no way around.
+ */
+public class RfcommTransport implements SensorTransport.Blocking {
+
+    private final BluetoothDevice device;
+    private final UUID uuid;
+
+    //Socket of the connection, created by connect()
+    private volatile BluetoothSocket socket = null;
+    private boolean closed = false;
+
+    /**
+     * @param client - the paired device to connect to
+     * @param serviceUuid - a service UUID supported by the device
+     */
+    public RfcommTransport(BluetoothDevice client, UUID serviceUuid){
+        device = client;
+        uuid = serviceUuid;
+    }
+
+    @Override
+    public String getName(){
+        return device.getName();
+    }
+
+    @Override
+    public void connect() throws IOException{
+        //Get a bluetooth socket to connect with the given device
+        BluetoothSocket created = device.createRfcommSocketToServiceRecord(uuid);
+        synchronized(this){
+            if(closed){
+                created.close();
+                throw new IOException("Connection cancelled");
+            }
+            socket = created;
+        }
+
+        //Cancel the device discovery, to open up bandwidth
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if(adapter != null){
+            adapter.cancelDiscovery();
+        }
+
+        created.connect();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException{
+        return connectedSocket().getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException{
+        return connectedSocket().getOutputStream();
+    }
+
+    @Override
+    public void close(){
+        BluetoothSocket closing;
+        synchronized(this){
+            closed = true;
+            closing = socket;
+        }
+        if(closing != null){
+            try{
+                closing.close();
+            }catch(IOException e){}
+        }
+    }
+
+    //The socket, or an IOException before connect()
+    private BluetoothSocket connectedSocket() throws IOException{
+        BluetoothSocket connected = socket;
+        if(connected == null){
+            throw new IOException("Not connected");
+        }
+        return connected;
+    }
+}
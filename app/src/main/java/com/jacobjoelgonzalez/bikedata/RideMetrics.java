@@ -0,0 +1,145 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Calculates cadence, speed and acceleration from sensor readings.
+ *
+ * Results are whole numbers of tenths, e.g. 875 for 87.5 rpm, rounded to the nearest tenth.
+ * Nothing is allocated, so the functions can run for every reading and in plain JVM benchmarks.
+ * Formatting the results for display is left to the fragments.
+ */
+public final class RideMetrics {
+
+    //Units of the speed and acceleration functions
+    public static final int MPH = 2;  //miles per hour
+    public static final int KPH = 3;  //kilometers per hour
+    public static final int FPS2 = 4; //feet/second^2
+    public static final int MPS2 = 5; //meters/second^2
+
+    //Cadence zones, the same bands RPMFragment colors the rpm by
+    public static final int ZONE_BELOW = 0;  //below 80 rpm
+    public static final int ZONE_LOW = 1;    //80 up to 86 rpm
+    public static final int ZONE_TARGET = 2; //86 up to 96 rpm
+    public static final int ZONE_HIGH = 3;   //96 rpm and above
+    public static final int ZONE_COUNT = 4;
+
+    //Inches in a mile and centimeters in a kilometer
+    private static final double INCHES_PER_MILE = 63360.0;
+    private static final double CM_PER_KM = 100000.0;
+
+    private RideMetrics(){}
+
+    /**
+     * @param msPerRev - milliseconds per revolution of the pedals, retrieved from bluetooth sensor.
+     * @return - the rpm of the pedals
+     */
+    public static double cadence(double msPerRev){
+        return 60000.0/msPerRev;
+    }
+
+    /**
+     * @param msPerRev - milliseconds per revolution of the pedals, retrieved from bluetooth sensor.
+     * @return - the rpm of the pedals in tenths
+     */
+    public static long cadenceTenths(double msPerRev){
+        return Math.round(cadence(msPerRev)*10.0);
+    }
+
+    /**
+     * @param rpmTenths - the rpm of the pedals in tenths, as returned by cadenceTenths
+     * @return - the cadence zone of the rpm, one of the ZONE constants
+     */
+    public static int cadenceZone(long rpmTenths){
+        long rpm = rpmTenths/10;
+        if(rpm >= 96) return ZONE_HIGH;
+        else if(rpm >= 86) return ZONE_TARGET;
+        else if(rpm >= 80) return ZONE_LOW;
+        else return ZONE_BELOW;
+    }
+
+    /**
+     * @param revolutions - revolutions of the tire
+     * @param units - MPH for miles or KPH for kilometers
+     * @param calibration - the tire radius
+     * @return - the distance covered in the given units
+     */
+    public static double distance(long revolutions, int units, Calibration calibration){
+        return units == MPH ? revolutions*2*Math.PI*calibration.radiusIn/INCHES_PER_MILE
+                : revolutions*2*Math.PI*calibration.radiusCm/CM_PER_KM;
+    }
+
+    /**
+     * @param msPerRev - milliseconds per revolution of the tire, retrieved from bluetooth sensor.
+     * @param units - MPH or KPH
+     * @param calibration - the tire radius
+     * @return - the speed of the bicycle in the given units
+     */
+    public static double speed(double msPerRev, int units, Calibration calibration){
+        return (units == MPH ? calibration.mphFactor : calibration.kphFactor)/msPerRev;
+    }
+
+    /**
+     * @return - the speed of the bicycle in tenths of the given units
+     */
+    public static long speedTenths(double msPerRev, int units, Calibration calibration){
+        return Math.round(speed(msPerRev, units, calibration)*10.0);
+    }
+
+    /**
+     * @param rpm - revolutions per minute of the tire, e.g. an average of cadence() over the tire readings
+     * @param units - MPH or KPH
+     * @param calibration - the tire radius
+     * @return - the speed of the bicycle in the given units
+     */
+    public static double rpmSpeed(double rpm, int units, Calibration calibration){
+        return (units == MPH ? calibration.mphFactor : calibration.kphFactor)*rpm/60000.0;
+    }
+
+    /**
+     * @return - the speed of the bicycle in tenths of the given units
+     */
+    public static long rpmSpeedTenths(double rpm, int units, Calibration calibration){
+        return Math.round(rpmSpeed(rpm, units, calibration)*10.0);
+    }
+
+    /**
+     * @param msPerRev - the current milliseconds per revolution of the tire, retrieved from bluetooth sensor.
+     * @param prevMsPerRev - the previous reading.
+     * @param units - FPS2 or MPS2
+     * @param calibration - the tire radius
+     * @return - the acceleration of the bicycle in the given units
+     */
+    public static double acceleration(double msPerRev, double prevMsPerRev, int units, Calibration calibration){
+        //No acceleration without a previous reading
+        if(msPerRev <= 0 || prevMsPerRev <= 0){
+            return 0;
+        }
+
+        double rpmDiff = cadence(msPerRev) - cadence(prevMsPerRev);
+        double timeDiff = msPerRev/1000; //Seconds per revolution
+        return (units == FPS2 ? calibration.fps2Factor : calibration.mps2Factor)*rpmDiff/timeDiff;
+    }
+
+    /**
+     * @return - the acceleration of the bicycle in tenths of the given units
+     */
+    public static long accelerationTenths(double msPerRev, double prevMsPerRev, int units, Calibration calibration){
+        return Math.round(acceleration(msPerRev, prevMsPerRev, units, calibration)*10.0);
+    }
+
+    /**
+     * @param rpmPerSecond - the change of the tire rpm per second, e.g. from a LeastSquaresSlopeFilter
+     * @param units - FPS2 or MPS2
+     * @param calibration - the tire radius
+     * @return - the acceleration of the bicycle in the given units
+     */
+    public static double slopeAcceleration(double rpmPerSecond, int units, Calibration calibration){
+        return (units == FPS2 ? calibration.fps2Factor : calibration.mps2Factor)*rpmPerSecond;
+    }
+
+    /**
+     * @return - the acceleration of the bicycle in tenths of the given units
+     */
+    public static long slopeAccelerationTenths(double rpmPerSecond, int units, Calibration calibration){
+        return Math.round(slopeAcceleration(rpmPerSecond, units, calibration)*10.0);
+    }
+}
@@ -0,0 +1,91 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Outputs the median of the last readings, which rejects single short or long intervals caused by
+ * the reed switch bouncing or missing a pass of the magnet, while following real changes after half a window.
+ *
+ * Besides the ring buffer in arrival order, the window is kept sorted. Each reading replaces the oldest value
+ * in the sorted copy by shifting the values between them, which for the few readings of a window is
+ * cheaper than a heap. Until the window is full, the median of the readings received so far is used.
+ * For an even number of readings the two middle values are averaged.
+ */
+public class RollingMedianFilter implements ReadingFilter {
+
+    //Readings in arrival order
+    private final double[] window;
+
+    //The same readings in ascending order, valid up to count
+    private final double[] sorted;
+
+    private int next = 0;
+    private int count = 0;
+
+    /**
+     * @param size - the number of readings the median is taken of, at least 1. Odd sizes avoid averaging.
+     */
+    public RollingMedianFilter(int size){
+        if(size < 1){
+            throw new IllegalArgumentException("Window size must be at least 1");
+        }
+        window = new double[size];
+        sorted = new double[size];
+    }
+
+    @Override
+    public double filter(double value){
+        int i;
+        if(count == window.length){
+            //Replace the oldest reading, shifting the values between its position and the new one's
+            i = indexOf(window[next]);
+            while(i > 0 && sorted[i-1] > value){
+                sorted[i] = sorted[i-1];
+                i--;
+            }
+            while(i < count-1 && sorted[i+1] < value){
+                sorted[i] = sorted[i+1];
+                i++;
+            }
+        }
+        else{
+            //Insert the reading
+            i = count;
+            while(i > 0 && sorted[i-1] > value){
+                sorted[i] = sorted[i-1];
+                i--;
+            }
+            count++;
+        }
+        sorted[i] = value;
+
+        window[next] = value;
+        next++;
+        if(next == window.length){
+            next = 0;
+        }
+
+        int middle = count/2;
+        return (count & 1) == 1 ? sorted[middle] : (sorted[middle-1] + sorted[middle])/2;
+    }
+
+    @Override
+    public void reset(){
+        next = 0;
+        count = 0;
+    }
+
+    //Position of a value in the sorted readings
+    private int indexOf(double value){
+        int low = 0;
+        int high = count - 1;
+        while(low < high){
+            int mid = (low + high) >>> 1;
+            if(sorted[mid] < value){
+                low = mid + 1;
+            }
+            else{
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
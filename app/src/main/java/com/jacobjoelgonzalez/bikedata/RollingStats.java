@@ -0,0 +1,276 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Average, minimum and maximum of the values received within several time windows, e.g. the cadence
+ * over the last 10 seconds, minute and 5 minutes.
+ *
+ * Every window shares one ring buffer of values sized for the longest window. Each window keeps
+ * the sum of its values for the average, and two monotonic queues of ring positions for the minimum and maximum:
+ * a new value removes every value from the back of the minimum queue that is not smaller than it, so the front
+ * is always the smallest value in the window, and likewise for the maximum. Every value enters and leaves each
+ * queue at most once, so adding a value costs O(1) per window amortized and nothing is allocated after construction.
+ *
+ * If more values arrive within the longest window than the ring holds, the oldest are dropped early
+ * and the longer windows cover less time.
+ *
+ * Written by the thread delivering readings and read by the UI. Every method holds the lock, and read()
+ * copies every window at once, so the UI never shows windows from different moments.
+ */
+public class RollingStats {
+
+    //Windows shown by the rpm and speed pages
+    public static final long[] DEFAULT_WINDOWS_MS = {10000, 60000, 300000};
+
+    /**
+     * A consistent copy of every window, reused by the caller
+     */
+    public static class Snapshot{
+        //Number of values, average, minimum and maximum of each window, 0 for an empty window
+        public final int[] counts;
+        public final double[] averages;
+        public final double[] minimums;
+        public final double[] maximums;
+
+        /**
+         * @param windowCount - the number of windows of the statistics to copy
+         */
+        public Snapshot(int windowCount){
+            counts = new int[windowCount];
+            averages = new double[windowCount];
+            minimums = new double[windowCount];
+            maximums = new double[windowCount];
+        }
+
+        /**
+         * @return - true if no window holds a value
+         */
+        public boolean isEmpty(){
+            for(int count : counts){
+                if(count > 0){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    //Length of each window in milliseconds
+    private final long[] windows;
+
+    //Ring of values with the time each was received in milliseconds, indexed by sequence number
+    private final int capacity;
+    private final long[] times;
+    private final double[] values;
+
+    //Sequence number of the next value
+    private long nextSeq = 0;
+
+    //Sequence number of the oldest value still in any window
+    private long oldestSeq = 0;
+
+    //Sequence number of the oldest value in each window
+    private final long[] startSeqs;
+
+    //Sum of the values in each window
+    private final double[] sums;
+
+    //Ring positions of the values left in the minimum and maximum queue of each window, with the
+    //sequence numbers of their front and back
+    private final int[][] minQueues;
+    private final long[] minHeads;
+    private final long[] minTails;
+    private final int[][] maxQueues;
+    private final long[] maxHeads;
+    private final long[] maxTails;
+
+    /**
+     * @param windowsMs - the length of each window in milliseconds
+     * @param maxValues - the number of values kept for the longest window
+     */
+    public RollingStats(long[] windowsMs, int maxValues){
+        if(maxValues < 1){
+            throw new IllegalArgumentException("At least one value must be kept");
+        }
+        windows = windowsMs.clone();
+        capacity = maxValues;
+        times = new long[capacity];
+        values = new double[capacity];
+
+        int count = windows.length;
+        startSeqs = new long[count];
+        sums = new double[count];
+        minQueues = new int[count][capacity];
+        minHeads = new long[count];
+        minTails = new long[count];
+        maxQueues = new int[count][capacity];
+        maxHeads = new long[count];
+        maxTails = new long[count];
+    }
+
+    /**
+     * Adds a value and drops the values that left their windows.
+     * @param time - the time of the value in milliseconds, never before the time of the last value
+     * @param value - the value
+     */
+    public synchronized void add(long time, double value){
+        expire(time);
+
+        //Make room by dropping the oldest value early
+        if(nextSeq - oldestSeq == capacity){
+            for(int w=0; w<windows.length; w++){
+                if(startSeqs[w] == oldestSeq){
+                    removeOldest(w);
+                }
+            }
+            oldestSeq++;
+        }
+
+        int position = position(nextSeq);
+        times[position] = time;
+        values[position] = value;
+
+        for(int w=0; w<windows.length; w++){
+            sums[w] += value;
+
+            //Values behind the new one can no longer be the minimum or maximum
+            int[] minQueue = minQueues[w];
+            long tail = minTails[w];
+            while(tail > minHeads[w] && values[minQueue[position(tail-1)]] >= value){
+                tail--;
+            }
+            minQueue[position(tail)] = position;
+            minTails[w] = tail + 1;
+
+            int[] maxQueue = maxQueues[w];
+            tail = maxTails[w];
+            while(tail > maxHeads[w] && values[maxQueue[position(tail-1)]] <= value){
+                tail--;
+            }
+            maxQueue[position(tail)] = position;
+            maxTails[w] = tail + 1;
+        }
+        nextSeq++;
+    }
+
+    /**
+     * Drops the values that left their windows, e.g. before showing the statistics while no values arrive.
+     * @param now - the current time in milliseconds
+     */
+    public synchronized void expire(long now){
+        long oldest = nextSeq;
+        for(int w=0; w<windows.length; w++){
+            long start = now - windows[w];
+            while(startSeqs[w] < nextSeq && times[position(startSeqs[w])] <= start){
+                removeOldest(w);
+            }
+            oldest = Math.min(oldest, startSeqs[w]);
+        }
+        oldestSeq = oldest;
+    }
+
+    /**
+     * Removes every value.
+     */
+    public synchronized void clear(){
+        nextSeq = 0;
+        oldestSeq = 0;
+        for(int w=0; w<windows.length; w++){
+            startSeqs[w] = 0;
+            sums[w] = 0;
+            minHeads[w] = 0;
+            minTails[w] = 0;
+            maxHeads[w] = 0;
+            maxTails[w] = 0;
+        }
+    }
+
+    /**
+     * Drops the values that left their windows and copies every window.
+     * @param now - the current time in milliseconds
+     * @param out - receives the windows, made for getWindowCount() windows
+     */
+    public synchronized void read(long now, Snapshot out){
+        expire(now);
+        for(int w=0; w<windows.length; w++){
+            out.counts[w] = getCount(w);
+            out.averages[w] = getAverage(w);
+            out.minimums[w] = getMinimum(w);
+            out.maximums[w] = getMaximum(w);
+        }
+    }
+
+    /**
+     * @return - the number of windows
+     */
+    public int getWindowCount(){
+        return windows.length;
+    }
+
+    /**
+     * @param window - index of the window
+     * @return - the length of the window in milliseconds
+     */
+    public long getWindowMs(int window){
+        return windows[window];
+    }
+
+    /**
+     * @param window - index of the window
+     * @return - the number of values in the window
+     */
+    public synchronized int getCount(int window){
+        return (int)(nextSeq - startSeqs[window]);
+    }
+
+    /**
+     * @param window - index of the window
+     * @return - the average of the values in the window, or 0 if it is empty
+     */
+    public synchronized double getAverage(int window){
+        int count = getCount(window);
+        return count > 0 ? sums[window]/count : 0;
+    }
+
+    /**
+     * @param window - index of the window
+     * @return - the smallest value in the window, or 0 if it is empty
+     */
+    public synchronized double getMinimum(int window){
+        return getCount(window) > 0 ? values[minQueues[window][position(minHeads[window])]] : 0;
+    }
+
+    /**
+     * @param window - index of the window
+     * @return - the largest value in the window, or 0 if it is empty
+     */
+    public synchronized double getMaximum(int window){
+        return getCount(window) > 0 ? values[maxQueues[window][position(maxHeads[window])]] : 0;
+    }
+
+    //Removes the oldest value of a window
+    private void removeOldest(int w){
+        int position = position(startSeqs[w]);
+        sums[w] -= values[position];
+        if(minQueues[w][position(minHeads[w])] == position){
+            minHeads[w]++;
+        }
+        if(maxQueues[w][position(maxHeads[w])] == position){
+            maxHeads[w]++;
+        }
+        startSeqs[w]++;
+
+        //Add the sum up again once per pass through the ring, so rounding errors can not build up
+        if(position(startSeqs[w]) == 0){
+            double sum = 0;
+            for(long seq=startSeqs[w]; seq<nextSeq; seq++){
+                sum += values[position(seq)];
+            }
+            sums[w] = sum;
+        }
+    }
+
+    //Position of a sequence number in the ring
+    private int position(long seq){
+        return (int)(seq%capacity);
+    }
+}
@@ -0,0 +1,73 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Shows the average, minimum and maximum of each window of a RollingStats in a table of TextViews,
+ * one row per window. Values are given in tenths and shown with one decimal, e.g. 87.5.
+ * Like TenthsDisplay, a cell is only given new text when its digits change, from a reused array.
+ */
+public class RollingStatsDisplay {
+
+    //Columns of a row
+    public static final int AVERAGE = 0;
+    public static final int MINIMUM = 1;
+    public static final int MAXIMUM = 2;
+    public static final int COLUMNS = 3;
+
+    private final TextView[] cells;
+    private final TenthsFormatter[] formatters;
+    private final char[][] texts;
+
+    /**
+     * @param cellViews - the cells row by row, COLUMNS per window
+     */
+    public RollingStatsDisplay(TextView[] cellViews){
+        cells = cellViews.clone();
+        formatters = new TenthsFormatter[cells.length];
+        texts = new char[cells.length][];
+        for(int i=0; i<cells.length; i++){
+            formatters[i] = new TenthsFormatter();
+            texts[i] = new char[formatters[i].whole.length + 2];
+        }
+    }
+
+    /**
+     * @param view - a view containing the rolling_stats_table layout, which has a row for each of RollingStats.DEFAULT_WINDOWS_MS
+     * @return - a display for the table
+     */
+    public static RollingStatsDisplay fromTable(View view){
+        int[] ids = {
+                R.id.stats10sAverage, R.id.stats10sMinimum, R.id.stats10sMaximum,
+                R.id.stats1mAverage, R.id.stats1mMinimum, R.id.stats1mMaximum,
+                R.id.stats5mAverage, R.id.stats5mMinimum, R.id.stats5mMaximum
+        };
+        TextView[] cellViews = new TextView[ids.length];
+        for(int i=0; i<ids.length; i++){
+            cellViews[i] = (TextView)view.findViewById(ids[i]);
+        }
+        return new RollingStatsDisplay(cellViews);
+    }
+
+    /**
+     * @param window - row of the cell
+     * @param column - AVERAGE, MINIMUM or MAXIMUM
+     * @param valueTenths - the value to show in tenths
+     */
+    public void show(int window, int column, long valueTenths){
+        int cell = window*COLUMNS + column;
+        TenthsFormatter formatter = formatters[cell];
+        if(formatter.update(valueTenths) == 0){
+            return;
+        }
+
+        //Whole part, decimal point and tenths digit
+        char[] text = texts[cell];
+        int length = formatter.wholeLength;
+        System.arraycopy(formatter.whole, 0, text, 0, length);
+        text[length++] = '.';
+        text[length++] = formatter.tenths[0];
+        cells[cell].setText(text, 0, length);
+    }
+}
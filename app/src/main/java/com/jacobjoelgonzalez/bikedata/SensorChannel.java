@@ -0,0 +1,33 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * The sensors of the bike. The index of a channel is the Constants.CHANNEL_* value used where readings
+ * are parsed, stored and written to files, which keep it as a primitive.
+ */
+public enum SensorChannel {
+    PEDAL(Constants.CHANNEL_PEDAL),
+    TIRE(Constants.CHANNEL_TIRE);
+
+    //Number of channels
+    public static final int COUNT = 2;
+
+    //Channels by index, so looking one up does not copy values()
+    private static final SensorChannel[] BY_INDEX = {PEDAL, TIRE};
+
+    /**
+     * Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     */
+    public final int index;
+
+    SensorChannel(int channelIndex){
+        index = channelIndex;
+    }
+
+    /**
+     * @param index - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     * @return - the channel with the given index
+     */
+    public static SensorChannel fromIndex(int index){
+        return BY_INDEX[index];
+    }
+}
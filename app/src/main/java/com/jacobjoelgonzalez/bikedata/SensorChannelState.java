@@ -0,0 +1,184 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The last reading and timeout state of one sensor channel, shared by the reading thread,
+ * the timeout thread and anything displaying the state.
+ *
+ * The values are guarded by a sequence lock. A writer claims the sequence with a compare and set,
+ * making it odd, and makes it even again when done. Readers never lock: they read the sequence,
+ * the values and the sequence again, and retry if it was odd or changed, so they never see a
+ * half written state. Writers of different channels never touch the same state, and the two
+ * writers of a channel only wait for each other for the few instructions of a write. A reader or writer
+ * that keeps failing yields after SPINS_BEFORE_YIELD tries, so a writer preempted mid-write gets to finish.
+ */
+public class SensorChannelState {
+
+    //Deadline of a channel without a timeout pending
+    public static final long DISARMED = Long.MAX_VALUE;
+
+    //Failed tries of a read or write before each retry yields the processor
+    public static final int SPINS_BEFORE_YIELD = 32;
+
+    /**
+     * A consistent copy of the state, reused by the caller
+     */
+    public static class Snapshot{
+        //Milliseconds per revolution of the last real reading
+        public double msPerRev;
+        //Time of the last real reading in milliseconds
+        public long readingTime;
+        //Number of artificial readings sent since the last real reading
+        public int timeOutCount;
+        //Time of the next timeout in milliseconds, or DISARMED
+        public long deadline;
+    }
+
+    //Odd while a write is in progress
+    private final AtomicLong sequence = new AtomicLong(0);
+
+    //Values are volatile so they can not be read outside of the sequence checks
+    private volatile double msPerRev;
+    private volatile long readingTime = 0;
+    private volatile int timeOutCount = 0;
+    private volatile long deadline = DISARMED;
+
+    //Statistics
+    private final AtomicLong readRetryCount = new AtomicLong(0);
+    private final AtomicLong writeSpinCount = new AtomicLong(0);
+
+    /**
+     * @param initialReading - the reading to decay from before the first real reading
+     */
+    public SensorChannelState(double initialReading){
+        msPerRev = initialReading;
+    }
+
+    /**
+     * Stores a real reading and restarts the timeout.
+     * @param reading - the milliseconds per revolution of the reading
+     * @param time - the time of the reading in milliseconds
+     * @param timeoutDeadline - the time of the first timeout in milliseconds
+     */
+    public void onReading(double reading, long time, long timeoutDeadline){
+        long s = beginWrite();
+        msPerRev = reading;
+        readingTime = time;
+        timeOutCount = 0;
+        deadline = timeoutDeadline;
+        endWrite(s);
+    }
+
+    /**
+     * Restarts the timeout without a reading.
+     * @param timeoutDeadline - the time of the first timeout in milliseconds, or DISARMED to stop timeouts
+     */
+    public void arm(long timeoutDeadline){
+        long s = beginWrite();
+        timeOutCount = 0;
+        deadline = timeoutDeadline;
+        endWrite(s);
+    }
+
+    /**
+     * Advances the timeout if its deadline has passed.
+     * @param now - the current time in milliseconds
+     * @param stepTimeout - milliseconds until the next timeout
+     * @param maxTimeOuts - the number of timeouts after which no further timeout is scheduled
+     * @param out - receives the state before the timeout, so timeOutCount is the index of this timeout
+     * @return - false if the deadline has not passed, e.g. because a reading arrived
+     */
+    public boolean timeOut(long now, long stepTimeout, int maxTimeOuts, Snapshot out){
+        long s = beginWrite();
+        if(deadline > now){
+            endWrite(s);
+            return false;
+        }
+
+        out.msPerRev = msPerRev;
+        out.readingTime = readingTime;
+        out.timeOutCount = timeOutCount;
+        out.deadline = deadline;
+
+        timeOutCount++;
+        deadline = timeOutCount < maxTimeOuts ? now + stepTimeout : DISARMED;
+        endWrite(s);
+        return true;
+    }
+
+    /**
+     * Copies the state without blocking writers.
+     * @param out - receives the state
+     */
+    public void read(Snapshot out){
+        int spins = 0;
+        while(true){
+            long s = sequence.get();
+            if((s & 1) == 0){
+                out.msPerRev = msPerRev;
+                out.readingTime = readingTime;
+                out.timeOutCount = timeOutCount;
+                out.deadline = deadline;
+                if(sequence.get() == s){
+                    return;
+                }
+            }
+            readRetryCount.incrementAndGet();
+            backOff(++spins);
+        }
+    }
+
+    /**
+     * @return - the time of the next timeout in milliseconds, or DISARMED
+     */
+    public long getDeadline(){
+        return deadline;
+    }
+
+    /**
+     * @return - the number of artificial readings sent since the last real reading
+     */
+    public int getTimeOutCount(){
+        return timeOutCount;
+    }
+
+    /**
+     * @return - the number of times a read was repeated because a write was in progress
+     */
+    public long getReadRetryCount(){
+        return readRetryCount.get();
+    }
+
+    /**
+     * @return - the number of times a writer had to wait for the other writer
+     */
+    public long getWriteSpinCount(){
+        return writeSpinCount.get();
+    }
+
+    //Claims the sequence for writing and returns the odd sequence
+    private long beginWrite(){
+        int spins = 0;
+        while(true){
+            long s = sequence.get();
+            if((s & 1) == 0 && sequence.compareAndSet(s, s + 1)){
+                return s + 1;
+            }
+            writeSpinCount.incrementAndGet();
+            backOff(++spins);
+        }
+    }
+
+    //Spins on the first failed tries, which a write in progress ends quickly, and yields after that
+    private static void backOff(int spins){
+        if(spins >= SPINS_BEFORE_YIELD){
+            Thread.yield();
+        }
+    }
+
+    //Makes the sequence even again, publishing the write
+    private void endWrite(long s){
+        sequence.set(s + 1);
+    }
+}
@@ -0,0 +1,392 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One sensor connection managed by a SensorHub, e.g. the sensors of one bike.
+ *
+ * Everything that depends on the readings of a connection is kept here, so connections never share
+ * state: the stream decoder, the read buffer, the record passed on for each reading, the filters of each channel,
+ * the timeout state of its channels in the shared scheduler and the counters. Readings are stamped with the time
+ * the bytes holding them were read, or the time they were fed for a connection without a stream.
+ *
+ * A stream is read in two stages. The read stage only drains the stream into the pooled buffers of an SpscBufferRing,
+ * so a slow decode or listener never stops the stream from being drained. The decode stage consumes the ring,
+ * decoding, filtering and passing on the readings. Each stage counts its own throughput, and the ring its occupancy. Readings are decoded, filtered and passed to the
+ * hub's listener by whichever decoder thread of the hub is serving the connection. The hub never runs two reads
+ * or two decodes of the same connection at once, so the ring has a single producer and a single consumer,
+ * and the decoder and filters are only used by one thread at a time.
+ *
+ * A connection without a stream can be fed through getFrameListener(), e.g. by a ReplaySource.
+ */
+public class SensorConnection {
+
+    //Bytes read from the stream at a time
+    public static final int READ_BUFFER_SIZE = 1024;
+
+    //Buffers of read bytes that can wait for the decode stage
+    public static final int QUEUE_BUFFERS = 16;
+
+    //Tire readings the acceleration is fitted through
+    public static final int ACCELERATION_WINDOW = 5;
+
+    private final SensorHub hub;
+    private final String name;
+
+    //Index of the pedal channel of this connection in the hub's timeout scheduler, the tire channel follows it
+    final int firstChannel;
+
+    //Slot of the connection in the hub, the source of its FlightRecorder events
+    final int slot;
+
+    //Stream read by the hub, or null if readings are fed through getFrameListener()
+    final InputStream in;
+    private final Closeable closeable;
+
+    //Separates and parses incoming sensor readings in text or binary framing
+    private final SensorStreamDecoder decoder;
+
+    //Read bytes waiting to be decoded, filled by the read stage and consumed by the decode stage
+    final SpscBufferRing queue;
+
+    //Set while a decode of the connection is queued or running
+    final AtomicBoolean decodeScheduled = new AtomicBoolean(false);
+
+    //Set while the read stage waits for the decode stage to free a buffer
+    final AtomicBoolean readStalled = new AtomicBoolean(false);
+
+    //Tasks of the two stages, set by the hub
+    Runnable readTask;
+    Runnable decodeTask;
+
+    //Reader thread of a stream opened with SensorHub.openBlocking(), which has no read task, or null
+    volatile Thread readerThread;
+
+    //Malformed readings and lost frames already added to Metrics and the FlightRecorder
+    private long malformedCounted = 0;
+    private long droppedCounted = 0;
+
+    //Receive times of the bytes being decoded
+    private long readNanos;
+    private long readTimeMs;
+
+    //Passed on for every reading
+    private final SensorRecord record = new SensorRecord();
+
+    /**
+     * Filters the readings of each channel before they are passed on, indexed by channel.
+     * Readings pass through unchanged until a filter, e.g. a RollingMedianFilter rejecting bounce,
+     * is set with setReadingFilter, so the readings shown are not delayed unless asked for.
+     * Replaced as a whole by setReadingFilter.
+     */
+    private volatile ReadingFilter[] filters = {
+            new ReadingFilterChain(),
+            new ReadingFilterChain()
+    };
+
+    //Change of the tire rpm per second, fitted through every filtered tire reading before any are coalesced for the UI
+    private final LeastSquaresSlopeFilter tireSlope = new LeastSquaresSlopeFilter(ACCELERATION_WINDOW);
+    private volatile double tireRpmPerSecond = 0;
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    //Statistics, each written by one thread at a time
+    private final long openedNanos = System.nanoTime();
+    private volatile long closedNanos = 0;
+    private volatile long bytesRead = 0;
+    private volatile long readCount = 0;
+    private volatile long bytesDecoded = 0;
+    private volatile long readingCount = 0;
+    private volatile long timeoutCount = 0;
+
+    /**
+     * Called by SensorHub.
+     */
+    SensorConnection(SensorHub sensorHub, String connectionName, int pedalChannel, InputStream stream, Closeable close){
+        hub = sensorHub;
+        name = connectionName;
+        firstChannel = pedalChannel;
+        slot = pedalChannel/SensorChannel.COUNT;
+        in = stream;
+        closeable = close;
+        queue = in != null ? new SpscBufferRing(QUEUE_BUFFERS, READ_BUFFER_SIZE) : null;
+        decoder = new SensorStreamDecoder(frameListener);
+    }
+
+    /**
+     * Filters, passes on and restarts the timeout of each decoded reading
+     */
+    private final SensorFrameParser.Listener frameListener = new SensorFrameParser.Listener() {
+        @Override
+        public void onReading(int channel, double[] fields, int fieldCount) {
+            if(closed.get()){
+                return;
+            }
+            //Readings fed without a stream are received now
+            if(in == null){
+                readNanos = System.nanoTime();
+                readTimeMs = System.currentTimeMillis();
+            }
+            record.set(channel, fields, fieldCount, decoder.getSequence(), readNanos, readTimeMs);
+
+            double reading = record.interval();
+            ReadingFilter filter = filters[channel];
+
+            //Readings from before the sensor stopped are not mixed into the new ones
+            SensorTimeoutScheduler timeouts = hub.timeouts;
+            boolean restarted = timeouts.getChannelState(firstChannel + channel).getTimeOutCount() > 0;
+            if(restarted){
+                filter.reset();
+            }
+            double filtered = filter.filter(reading);
+
+            //The acceleration is fitted here rather than on the UI thread, which only sees the newest reading of each frame
+            if(channel == Constants.CHANNEL_TIRE){
+                if(restarted){
+                    tireSlope.reset();
+                }
+                tireRpmPerSecond = tireSlope.filter(filtered);
+            }
+            readingCount++;
+            Metrics.READINGS_PARSED.increment();
+
+            hub.listener.onReading(SensorConnection.this, record, filtered);
+
+            //Restart the timeout, so the timeouts decay from the filtered reading
+            timeouts.onReading(firstChannel + channel, filtered);
+        }
+    };
+
+    /**
+     * @return - the name of the connection, e.g. the name of the device
+     */
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * @return - true if the hub reads the connection from a stream, false if it is fed through getFrameListener()
+     */
+    public boolean hasStream(){
+        return in != null;
+    }
+
+    /**
+     * @return - the change of the tire rpm per second over the last ACCELERATION_WINDOW tire readings,
+     * 0 until two readings arrived after the tire started turning
+     */
+    public double getTireRpmPerSecond(){
+        return tireRpmPerSecond;
+    }
+
+    /**
+     * @return - the listener to feed readings of a connection without a stream to
+     */
+    public SensorFrameParser.Listener getFrameListener(){
+        return frameListener;
+    }
+
+    /**
+     * Replaces the filter of a channel's readings, e.g. with a ReadingFilterChain of several stages.
+     * The filter must not be used elsewhere.
+     * @param channel - the channel to filter
+     * @param filter - the new filter
+     */
+    public synchronized void setReadingFilter(SensorChannel channel, ReadingFilter filter){
+        ReadingFilter[] replaced = filters.clone();
+        replaced[channel.index] = filter;
+        filters = replaced;
+    }
+
+    /**
+     * Closes the connection and its stream. Readings still being decoded are dropped.
+     */
+    public void close(){
+        hub.close(this);
+    }
+
+    /**
+     * @return - true once the connection was closed
+     */
+    public boolean isClosed(){
+        return closed.get();
+    }
+
+    //Hands bytes read into the claimed buffer to the decode stage. Called by the read stage.
+    void publish(int length){
+        long nanos = System.nanoTime();
+        PipelineTrace.bufferRead(nanos);
+        queue.publish(length, nanos, System.currentTimeMillis());
+        bytesRead += length;
+        readCount++;
+        int occupancy = queue.getOccupancy();
+        Metrics.BYTES_READ.add(length);
+        Metrics.QUEUE_DEPTH.record(occupancy);
+        FlightRecorder.EVENTS.record(FlightRecorder.READ, slot, length, occupancy, nanos);
+    }
+
+    //Decodes up to maxBuffers waiting buffers, returning the number decoded. Called by the decode stage.
+    int decodeQueued(int maxBuffers){
+        int count = 0;
+        while(count < maxBuffers && queue.hasPublished()){
+            int length = queue.length();
+            readNanos = queue.receiveNanos();
+            readTimeMs = queue.receiveTimeMs();
+            long start = System.nanoTime();
+            Metrics.QUEUE_WAIT.record(start - readNanos);
+            PipelineTrace.Sink trace = PipelineTrace.begin(PipelineTrace.DECODE);
+            decoder.decode(queue.buffer(), 0, length);
+            PipelineTrace.end(trace);
+            queue.release();
+            Metrics.PARSE.recordSince(start);
+            bytesDecoded += length;
+            count++;
+        }
+
+        long malformed = decoder.getMalformedFrameCount();
+        if(malformed != malformedCounted){
+            Metrics.READINGS_MALFORMED.add(malformed - malformedCounted);
+            FlightRecorder.EVENTS.record(FlightRecorder.MALFORMED, slot, 0, malformed - malformedCounted);
+            malformedCounted = malformed;
+        }
+        long dropped = decoder.getDroppedFrameCount();
+        if(dropped != droppedCounted){
+            FlightRecorder.EVENTS.record(FlightRecorder.FRAMES_LOST, slot, 0, dropped - droppedCounted);
+            droppedCounted = dropped;
+        }
+        return count;
+    }
+
+    //Passes an artificial reading on. Called by the timeout thread.
+    void timeOut(int channel, double msPerRev){
+        if(closed.get()){
+            return;
+        }
+        timeoutCount++;
+        hub.listener.onTimeout(this, channel, msPerRev);
+    }
+
+    //Marks the connection closed and closes its stream, returning false if it was already closed
+    boolean markClosed(){
+        if(!closed.compareAndSet(false, true)){
+            return false;
+        }
+        closedNanos = System.nanoTime();
+        if(closeable != null){
+            try{
+                closeable.close();
+            }catch(IOException e){}
+        }
+        return true;
+    }
+
+    /**
+     * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     * @return - the last reading and timeout state of the channel, which can be read without blocking
+     */
+    public SensorChannelState getSensorState(int channel){
+        return hub.timeouts.getChannelState(firstChannel + channel);
+    }
+
+    /**
+     * @return - the number of bytes read from the stream
+     */
+    public long getBytesRead(){
+        return bytesRead;
+    }
+
+    /**
+     * @return - the number of bytes read per second by the read stage since the connection was opened, until it was closed
+     */
+    public double getBytesReadPerSecond(){
+        long nanos = openNanos();
+        return nanos > 0 ? bytesRead*1e9/nanos : 0;
+    }
+
+    /**
+     * @return - the number of bytes decoded by the decode stage
+     */
+    public long getBytesDecoded(){
+        return bytesDecoded;
+    }
+
+    /**
+     * @return - the number of buffers of read bytes waiting for the decode stage, 0 without a stream
+     */
+    public int getQueueOccupancy(){
+        return queue != null ? queue.getOccupancy() : 0;
+    }
+
+    /**
+     * @return - the most buffers that waited for the decode stage at once
+     */
+    public int getMaxQueueOccupancy(){
+        return queue != null ? queue.getMaxOccupancy() : 0;
+    }
+
+    /**
+     * @return - the average number of buffers waiting for the decode stage when one was added
+     */
+    public double getAverageQueueOccupancy(){
+        return queue != null ? queue.getAverageOccupancy() : 0;
+    }
+
+    /**
+     * @return - the number of times the read stage waited because every buffer was waiting for the decode stage
+     */
+    public long getQueueFullCount(){
+        return queue != null ? queue.getFullCount() : 0;
+    }
+
+    /**
+     * @return - the number of reads from the stream that returned bytes
+     */
+    public long getReadCount(){
+        return readCount;
+    }
+
+    /**
+     * @return - the number of readings decoded
+     */
+    public long getReadingCount(){
+        return readingCount;
+    }
+
+    /**
+     * @return - the number of artificial readings sent because a sensor stopped sending
+     */
+    public long getTimeoutCount(){
+        return timeoutCount;
+    }
+
+    /**
+     * @return - the number of readings that could not be decoded
+     */
+    public long getMalformedReadingCount(){
+        return decoder.getMalformedFrameCount();
+    }
+
+    /**
+     * @return - the number of binary frames that were lost, based on their sequence numbers
+     */
+    public long getDroppedReadingCount(){
+        return decoder.getDroppedFrameCount();
+    }
+
+    /**
+     * @return - the number of readings decoded per second by the decode stage since the connection was opened, until it was closed
+     */
+    public double getReadingsPerSecond(){
+        long nanos = openNanos();
+        return nanos > 0 ? readingCount*1e9/nanos : 0;
+    }
+
+    //Time the connection was open in nanoseconds
+    private long openNanos(){
+        long end = closed.get() ? closedNanos : System.nanoTime();
+        return end - openedNanos;
+    }
+}
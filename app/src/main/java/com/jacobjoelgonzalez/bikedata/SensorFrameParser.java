@@ -0,0 +1,343 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Splits the raw bytes received from the bike sensor into tab-delimited sensor readings.
+ * Readings are separated by newlines. Tire sensor readings start with a tab and carry 3 numeric fields,
+ * pedal sensor readings carry 2 numeric fields. The last field of both is the milliseconds per revolution.
+ *
+ * Lines are located and parsed directly in the read buffer, so no objects are created per reading.
+ * A reading that is split between two reads is carried over in a fixed size buffer until its newline arrives.
+ * Lines that can not be parsed are counted instead of being passed on.
+ */
+public class SensorFrameParser {
+
+    /**
+     * Receives every reading that was parsed successfully
+     */
+    public interface Listener{
+        /**
+         * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+         * @param fields - the numeric fields of the reading. Only valid until this method returns.
+         * @param fieldCount - the number of valid values in fields
+         */
+        public void onReading(int channel, double[] fields, int fieldCount);
+    }
+
+    //Number of numeric fields sent by each sensor
+    public static final int PEDAL_FIELD_COUNT = 2;
+    public static final int TIRE_FIELD_COUNT = 3;
+    public static final int MAX_FIELD_COUNT = 3;
+
+    //Results of parseLine that are not a channel
+    public static final int EMPTY_LINE = -1;
+    public static final int MALFORMED_LINE = -2;
+
+    //Longest line that can be carried between reads. Longer lines are malformed.
+    public static final int MAX_FRAME_LENGTH = 128;
+
+    //Powers of ten used to scale the parsed digits
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    private final Listener listener;
+
+    //Holds the start of a reading that did not end in the last read
+    private final byte[] partialFrame = new byte[MAX_FRAME_LENGTH];
+    private int partialLength = 0;
+    private boolean partialOverflow = false;
+
+    //Reused for the fields of every reading
+    private final double[] fields = new double[MAX_FIELD_COUNT];
+
+    //Counters, written by the reading thread only
+    private volatile long frameCount = 0;
+    private volatile long malformedFrameCount = 0;
+
+    public SensorFrameParser(Listener readingListener){
+        listener = readingListener;
+    }
+
+    /**
+     * Parses a chunk of bytes read from the sensor. Complete readings are sent to the listener,
+     * an incomplete reading at the end of the chunk is kept for the next call.
+     * @param buffer - the bytes read from the sensor
+     * @param offset - index of the first valid byte
+     * @param length - number of valid bytes
+     */
+    public void parse(byte[] buffer, int offset, int length){
+        int end = offset + length;
+        int lineStart = offset;
+
+        for(int i=offset; i<end; i++){
+            if(buffer[i] != '\n'){
+                continue;
+            }
+
+            //Whole line is in the read buffer
+            if(partialLength == 0 && !partialOverflow){
+                parseFrame(buffer, lineStart, i);
+            }
+
+            //Line started in a previous read
+            else{
+                carry(buffer, lineStart, i);
+                if(partialOverflow){
+                    malformedFrameCount++;
+                }
+                else{
+                    parseFrame(partialFrame, 0, partialLength);
+                }
+
+                //Clear carried line
+                partialLength = 0;
+                partialOverflow = false;
+            }
+
+            lineStart = i + 1;
+        }
+
+        //Keep the unfinished reading for the next read
+        if(lineStart < end){
+            carry(buffer, lineStart, end);
+        }
+    }
+
+    /**
+     * Drops any carried partial reading, e.g. after the connection was reset.
+     */
+    public void reset(){
+        partialLength = 0;
+        partialOverflow = false;
+    }
+
+    /**
+     * @return - the number of readings sent to the listener
+     */
+    public long getFrameCount(){
+        return frameCount;
+    }
+
+    /**
+     * @return - the number of non-empty lines that could not be parsed
+     */
+    public long getMalformedFrameCount(){
+        return malformedFrameCount;
+    }
+
+    //Appends part of a line to the partial frame buffer
+    private void carry(byte[] buffer, int start, int end){
+        int length = end - start;
+        if(partialOverflow || partialLength + length > MAX_FRAME_LENGTH){
+            partialOverflow = true;
+            return;
+        }
+        System.arraycopy(buffer, start, partialFrame, partialLength, length);
+        partialLength += length;
+    }
+
+    //Parses a single line without the newline character
+    private void parseFrame(byte[] line, int start, int end){
+        int channel = parseLine(line, start, end, fields);
+
+        //Ignore empty lines
+        if(channel == EMPTY_LINE){
+            return;
+        }
+
+        if(channel == MALFORMED_LINE){
+            malformedFrameCount++;
+            return;
+        }
+
+        frameCount++;
+        listener.onReading(channel, fields, fieldCountOf(channel));
+    }
+
+    /**
+     * Parses a single line without the newline character.
+     * @param line - array holding the line
+     * @param start - index of the first byte of the line
+     * @param end - index after the last byte of the line
+     * @param fields - array with room for MAX_FIELD_COUNT values to parse the fields into
+     * @return - the channel of the reading, EMPTY_LINE or MALFORMED_LINE
+     */
+    public static int parseLine(byte[] line, int start, int end, double[] fields){
+        //Ignore trailing carriage returns and spaces
+        while(end > start && (line[end-1] == '\r' || line[end-1] == ' ')){
+            end--;
+        }
+
+        if(end == start){
+            return EMPTY_LINE;
+        }
+
+        //Tire sensor readings start with a tab
+        int channel;
+        if(line[start] == '\t'){
+            channel = Constants.CHANNEL_TIRE;
+            start++;
+        }
+        else{
+            channel = Constants.CHANNEL_PEDAL;
+        }
+        int expectedFields = fieldCountOf(channel);
+
+        //Parse each tab separated field
+        int fieldCount = 0;
+        int fieldStart = start;
+        for(int i=start; i<=end; i++){
+            if(i < end && line[i] != '\t'){
+                continue;
+            }
+
+            if(fieldCount == expectedFields){
+                return MALFORMED_LINE;
+            }
+
+            double value = parseNumber(line, fieldStart, i);
+            if(Double.isNaN(value)){
+                return MALFORMED_LINE;
+            }
+
+            fields[fieldCount++] = value;
+            fieldStart = i + 1;
+        }
+
+        if(fieldCount != expectedFields){
+            return MALFORMED_LINE;
+        }
+
+        return channel;
+    }
+
+    /**
+     * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     * @return - the number of fields sent for readings of the channel
+     */
+    public static int fieldCountOf(int channel){
+        return channel == Constants.CHANNEL_TIRE ? TIRE_FIELD_COUNT : PEDAL_FIELD_COUNT;
+    }
+
+    /**
+     * Parses a decimal number such as "-12.75" from ASCII bytes.
+     * @return - the parsed value, or NaN if the bytes are not a number
+     */
+    static double parseNumber(byte[] bytes, int start, int end){
+        //Ignore surrounding spaces
+        while(start < end && bytes[start] == ' ') start++;
+        while(end > start && bytes[end-1] == ' ') end--;
+
+        if(start == end){
+            return Double.NaN;
+        }
+
+        boolean negative = false;
+        if(bytes[start] == '-' || bytes[start] == '+'){
+            negative = bytes[start] == '-';
+            start++;
+        }
+
+        long digits = 0;
+        int digitCount = 0;
+        int decimalPlaces = 0;
+        boolean decimalPoint = false;
+        for(int i=start; i<end; i++){
+            byte b = bytes[i];
+            if(b >= '0' && b <= '9'){
+                //Ignore digits beyond the precision of a long
+                if(digitCount < 18){
+                    digits = digits*10 + (b - '0');
+                    if(decimalPoint) decimalPlaces++;
+                }
+                else if(!decimalPoint){
+                    return Double.NaN;
+                }
+                digitCount++;
+            }
+            else if(b == '.' && !decimalPoint){
+                decimalPoint = true;
+            }
+            else{
+                return Double.NaN;
+            }
+        }
+
+        if(digitCount == 0){
+            return Double.NaN;
+        }
+
+        double value = digits / POWERS_OF_TEN[decimalPlaces];
+        return negative ? -value : value;
+    }
+
+    //Longest line written by formatLine
+    public static final int MAX_LINE_LENGTH = 1 + MAX_FIELD_COUNT*24 + 1;
+
+    /**
+     * Writes a reading in the tab-delimited layout sent by the sensor, followed by a newline.
+     * Whole numbers are written without a decimal point, others are rounded to thousandths.
+     * @param out - the array to write to. Must have room for MAX_LINE_LENGTH bytes.
+     * @param offset - index of out to write the line at
+     * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     * @param fields - the numeric fields of the reading
+     * @param fieldCount - the number of valid values in fields
+     * @return - the number of bytes written
+     */
+    public static int formatLine(byte[] out, int offset, int channel, double[] fields, int fieldCount){
+        int pos = offset;
+        if(channel == Constants.CHANNEL_TIRE){
+            out[pos++] = '\t';
+        }
+        for(int i=0; i<fieldCount; i++){
+            if(i > 0){
+                out[pos++] = '\t';
+            }
+            pos = formatNumber(out, pos, fields[i]);
+        }
+        out[pos++] = '\n';
+        return pos - offset;
+    }
+
+    //Writes a number with up to three decimal places and returns the position after it
+    private static int formatNumber(byte[] out, int pos, double value){
+        long thousandths = Math.round(value*1000.0);
+        if(thousandths < 0){
+            out[pos++] = '-';
+            thousandths = -thousandths;
+        }
+
+        pos = formatDigits(out, pos, thousandths/1000);
+
+        //Decimal places without trailing zeros
+        int fraction = (int)(thousandths%1000);
+        if(fraction != 0){
+            out[pos++] = '.';
+            int divisor = 100;
+            while(fraction != 0){
+                out[pos++] = (byte)('0' + fraction/divisor);
+                fraction %= divisor;
+                divisor /= 10;
+            }
+        }
+        return pos;
+    }
+
+    //Writes the digits of a non-negative number and returns the position after them
+    private static int formatDigits(byte[] out, int pos, long value){
+        int start = pos;
+        do{
+            out[pos++] = (byte)('0' + value%10);
+            value /= 10;
+        }while(value != 0);
+
+        //Digits were written in reverse
+        for(int i=start, j=pos-1; i<j; i++, j--){
+            byte tmp = out[i];
+            out[i] = out[j];
+            out[j] = tmp;
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,528 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Manages many sensor connections at once with a fixed number of threads, e.g. to monitor every bike of a studio.
+ *
+ * Instead of a blocking reader thread per connection, the connections share a small pool of reader threads.
+ * A read task only reads the bytes a stream reports as available, so it never blocks a shared thread.
+ * After reading it is queued again right away while bytes keep arriving, and checks again after
+ * POLL_INTERVAL_MS once the stream is drained. While a stream stays idle the wait doubles up to
+ * MAX_POLL_INTERVAL_MS, so idle connections wake their reader thread rarely, and it is reset by the next bytes. Each task reads at most MAX_READS_PER_TURN times
+ * before giving the other connections a turn. The timeouts of every connection share one SensorTimeoutScheduler.
+ *
+ * Reading and decoding are separate stages. A read task only moves bytes from the stream into the connection's
+ * SpscBufferRing and queues the connection's decode task on a separate pool of decoder threads, which decodes,
+ * filters and passes on the readings. A slow listener therefore only fills the ring, while the streams keep being
+ * drained. If the ring is full, the read task stops until the decode task frees a buffer and queues it again.
+ *
+ * Streams must report their buffered bytes through available(), as the streams of SensorTransports do,
+ * and must throw an IOException once the connection is lost. A stream that can only be read with a blocking read(),
+ * like that of a Bluetooth socket, is opened with openBlocking() instead. It gets a reader thread of its own,
+ * which reads straight into the connection's ring and queues the decode task like a read task, without polling.
+ */
+public class SensorHub {
+
+    //Time a drained connection waits before its stream is checked again
+    public static final long POLL_INTERVAL_MS = 5;
+
+    //Longest wait of a connection whose stream stays idle
+    public static final long MAX_POLL_INTERVAL_MS = 100;
+
+    //Reads of one connection before the other connections get a turn
+    public static final int MAX_READS_PER_TURN = 8;
+
+    //Buffers of one connection decoded before the other connections get a turn
+    public static final int MAX_DECODES_PER_TURN = 8;
+
+    /**
+     * Receives the readings and events of every connection
+     */
+    public interface Listener{
+        /**
+         * Called when a connection was opened, before any of its readings are passed on.
+         * @param connection - the new connection
+         */
+        public void onOpened(SensorConnection connection);
+
+        /**
+         * Called by the decoder thread serving the connection.
+         * @param connection - the connection the reading arrived on
+         * @param record - every field, the sequence number and the receive times of the reading, only valid during the call
+         * @param filteredMsPerRev - the milliseconds per revolution after the connection's filter
+         */
+        public void onReading(SensorConnection connection, SensorRecord record, double filteredMsPerRev);
+
+        /**
+         * Called by the timeout thread when a sensor of a connection stopped sending.
+         * @param connection - the connection of the sensor
+         * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+         * @param msPerRev - the artificial milliseconds per revolution
+         */
+        public void onTimeout(SensorConnection connection, int channel, double msPerRev);
+
+        /**
+         * Called once when a connection is closed or its stream fails.
+         * @param connection - the closed connection
+         */
+        public void onClosed(SensorConnection connection);
+    }
+
+    final Listener listener;
+
+    //Timeouts of every connection, SensorChannel.COUNT channels per connection slot
+    final SensorTimeoutScheduler timeouts;
+
+    //Open connections by slot, null for a free slot
+    private final AtomicReferenceArray<SensorConnection> slots;
+
+    //Connections refused because every slot was in use
+    private final AtomicLong rejectedCount = new AtomicLong(0);
+
+    private final ScheduledThreadPoolExecutor readers;
+    private final ThreadPoolExecutor decoders;
+
+    /**
+     * Uses as many decoder threads as reader threads.
+     * @param readerThreads - the number of threads reading the streams of every connection
+     * @param maxConnections - the number of connections that can be open at once
+     * @param hubListener - receives the readings and events of every connection
+     */
+    public SensorHub(int readerThreads, int maxConnections, Listener hubListener){
+        this(readerThreads, readerThreads, maxConnections, hubListener);
+    }
+
+    /**
+     * @param readerThreads - the number of threads reading the streams of every connection
+     * @param decoderThreads - the number of threads decoding the read bytes of every connection
+     * @param maxConnections - the number of connections that can be open at once
+     * @param hubListener - receives the readings and events of every connection
+     */
+    public SensorHub(int readerThreads, int decoderThreads, int maxConnections, Listener hubListener){
+        listener = hubListener;
+        slots = new AtomicReferenceArray<SensorConnection>(maxConnections);
+        timeouts = new SensorTimeoutScheduler(maxConnections*SensorChannel.COUNT, new SensorTimeoutScheduler.Listener() {
+            @Override
+            public void onTimeout(int channel, double msPerRev) {
+                SensorConnection connection = slots.get(channel/SensorChannel.COUNT);
+                if(connection != null){
+                    connection.timeOut(channel%SensorChannel.COUNT, msPerRev);
+                }
+            }
+        });
+        readers = new ScheduledThreadPoolExecutor(readerThreads, new stageThreadFactory("SensorHub reader "));
+        decoders = new ThreadPoolExecutor(decoderThreads, decoderThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new stageThreadFactory("SensorHub decoder "));
+    }
+
+    /**
+     * Opens a connection that reads a sensor stream.
+     * @param name - the name of the connection, e.g. the name of the device
+     * @param in - the stream the sensor readings arrive on
+     * @param closeable - closed with the connection, e.g. the socket of the stream. May be null.
+     * @return - the connection, or null if maxConnections connections are open
+     */
+    public SensorConnection open(String name, InputStream in, Closeable closeable){
+        SensorConnection connection = add(name, in, closeable);
+        if(connection != null){
+            readTask task = new readTask(connection);
+            connection.readTask = task;
+            connection.decodeTask = new decodeTask(connection);
+            schedule(task, 0);
+        }
+        return connection;
+    }
+
+    /**
+     * Opens a connection that reads a connected transport. The transport is closed with the connection.
+     * @param transport - the connected transport the sensor readings arrive on
+     * @return - the connection, or null if maxConnections connections are open
+     * A SensorTransport.Blocking is opened with openBlocking().
+     * @throws IOException - if the transport has no stream to read
+     */
+    public SensorConnection open(SensorTransport transport) throws IOException{
+        InputStream in;
+        try{
+            in = transport.getInputStream();
+        }catch(IOException e){
+            transport.close();
+            throw e;
+        }
+        if(transport instanceof SensorTransport.Blocking){
+            return openBlocking(transport.getName(), in, transport);
+        }
+        return open(transport.getName(), in, transport);
+    }
+
+    /**
+     * Opens a connection that reads a stream with a blocking read() on a reader thread of its own,
+     * e.g. a Bluetooth socket stream, which can not report its buffered bytes.
+     * @param name - the name of the connection, e.g. the name of the device
+     * @param in - the stream the sensor readings arrive on, whose read() must fail or end once the connection is lost
+     * @param closeable - closed with the connection, which must end a read() in progress, e.g. the socket of the stream. May be null.
+     * @return - the connection, or null if maxConnections connections are open
+     */
+    public SensorConnection openBlocking(String name, InputStream in, Closeable closeable){
+        SensorConnection connection = add(name, in, closeable);
+        if(connection != null){
+            blockingReadThread thread = new blockingReadThread(connection);
+            connection.readerThread = thread;
+            connection.decodeTask = new decodeTask(connection);
+            thread.start();
+        }
+        return connection;
+    }
+
+    /**
+     * Opens a connection that is fed readings through SensorConnection.getFrameListener(), e.g. by a replay.
+     * @param name - the name of the connection
+     * @return - the connection, or null if maxConnections connections are open
+     */
+    public SensorConnection attach(String name){
+        return add(name, null, null);
+    }
+
+    /**
+     * Closes a connection. Its listener is told once, from the calling thread.
+     * @param connection - the connection to close
+     */
+    public void close(SensorConnection connection){
+        if(!connection.markClosed()){
+            return;
+        }
+        for(int channel=0; channel<SensorChannel.COUNT; channel++){
+            timeouts.disarm(connection.firstChannel + channel);
+        }
+        slots.compareAndSet(connection.slot, connection, null);
+
+        //A reader thread waiting for a free buffer ends now, one blocked in read() once the stream is closed
+        Thread reader = connection.readerThread;
+        if(reader != null){
+            LockSupport.unpark(reader);
+        }
+        FlightRecorder.EVENTS.record(FlightRecorder.DISCONNECT, connection.slot, 0, connection.getBytesRead());
+        listener.onClosed(connection);
+    }
+
+    /**
+     * Closes every connection.
+     */
+    public void closeAll(){
+        for(int slot=0; slot<slots.length(); slot++){
+            SensorConnection connection = slots.get(slot);
+            if(connection != null){
+                close(connection);
+            }
+        }
+    }
+
+    /**
+     * Closes every connection and stops the reader and decoder threads.
+     */
+    public void shutdown(){
+        closeAll();
+        readers.shutdownNow();
+        decoders.shutdownNow();
+    }
+
+    /**
+     * @return - the open connections
+     */
+    public ArrayList<SensorConnection> getConnections(){
+        ArrayList<SensorConnection> connections = new ArrayList<SensorConnection>();
+        for(int slot=0; slot<slots.length(); slot++){
+            SensorConnection connection = slots.get(slot);
+            if(connection != null){
+                connections.add(connection);
+            }
+        }
+        return connections;
+    }
+
+    /**
+     * @return - the number of times the shared timeout thread woke up
+     */
+    public long getTimeoutWakeupCount(){
+        return timeouts.getWakeupCount();
+    }
+
+    /**
+     * @return - the number of connections whose decode task waits for a decoder thread
+     */
+    public int getDecodeBacklog(){
+        return decoders.getQueue().size();
+    }
+
+    /**
+     * @return - the number of connections refused because maxConnections connections were open
+     */
+    public long getRejectedCount(){
+        return rejectedCount.get();
+    }
+
+    //Puts a new connection in a free slot and starts its timeouts. A connection without a free slot
+    //is closed and recorded in the FlightRecorder.
+    private SensorConnection add(String name, InputStream in, Closeable closeable){
+        for(int slot=0; slot<slots.length(); slot++){
+            if(slots.get(slot) == null){
+                SensorConnection connection = new SensorConnection(this, name, slot*SensorChannel.COUNT, in, closeable);
+                if(slots.compareAndSet(slot, null, connection)){
+                    for(int channel=0; channel<SensorChannel.COUNT; channel++){
+                        timeouts.arm(connection.firstChannel + channel);
+                    }
+                    FlightRecorder.EVENTS.record(FlightRecorder.CONNECT, slot, 0, 0);
+                    listener.onOpened(connection);
+                    return connection;
+                }
+            }
+        }
+
+        //No free slot
+        rejectedCount.incrementAndGet();
+        FlightRecorder.EVENTS.record(FlightRecorder.CONNECT_FAILED, FlightRecorder.NO_SOURCE, 0, slots.length());
+        if(closeable != null){
+            try{
+                closeable.close();
+            }catch(IOException e){}
+        }
+        return null;
+    }
+
+    //Queues the decode task of a connection unless it is already queued or running
+    private void scheduleDecode(SensorConnection connection){
+        if(!connection.decodeScheduled.compareAndSet(false, true)){
+            return;
+        }
+        try{
+            decoders.execute(connection.decodeTask);
+        }catch(RejectedExecutionException e){
+            close(connection);
+        }
+    }
+
+    //Lets the read stage of a connection continue after it found the ring full
+    private void resumeRead(SensorConnection connection){
+        Thread reader = connection.readerThread;
+        if(reader != null){
+            LockSupport.unpark(reader);
+        }
+        else{
+            schedule((readTask)connection.readTask, 0);
+        }
+    }
+
+    //Runs a read task after a delay, closing its connection if the hub was shut down
+    private void schedule(readTask task, long delayMs){
+        try{
+            if(delayMs == 0){
+                readers.execute(task);
+            }
+            else{
+                readers.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+            }
+        }catch(RejectedExecutionException e){
+            close(task.connection);
+        }
+    }
+
+    /**
+     * Reads the available bytes of a connection and queues itself again. Only one task exists per connection.
+     */
+    private class readTask implements Runnable{
+        final SensorConnection connection;
+
+        //Wait before the next check of an idle stream
+        private long pollDelayMs = POLL_INTERVAL_MS;
+
+        readTask(SensorConnection sensorConnection){
+            connection = sensorConnection;
+        }
+
+        @Override
+        public void run(){
+            if(connection.isClosed()){
+                return;
+            }
+
+            int reads = 0;
+            boolean stalled = false;
+            PipelineTrace.Sink trace = PipelineTrace.begin(PipelineTrace.READ);
+            try{
+                while(reads < MAX_READS_PER_TURN){
+                    int available = connection.in.available();
+                    if(available <= 0){
+                        break;
+                    }
+                    byte[] buffer = connection.queue.claim();
+                    if(buffer == null){
+                        stalled = true;
+                        break;
+                    }
+                    int bytes = connection.in.read(buffer, 0, Math.min(available, buffer.length));
+                    if(bytes < 0){
+                        close(connection);
+                        return;
+                    }
+                    connection.publish(bytes);
+                    reads++;
+                }
+            }catch(IOException e){
+                //Connection lost
+                close(connection);
+                return;
+            }finally{
+                PipelineTrace.end(trace);
+            }
+
+            if(reads > 0){
+                scheduleDecode(connection);
+            }
+
+            if(stalled){
+                FlightRecorder.EVENTS.record(FlightRecorder.READ_STALL, connection.slot, 0, connection.getQueueFullCount());
+
+                //The decode task queues this task again once it frees a buffer. Check again in case it just did.
+                connection.readStalled.set(true);
+                if(connection.queue.getOccupancy() == connection.queue.getCapacity()
+                        || !connection.readStalled.compareAndSet(true, false)){
+                    return;
+                }
+                schedule(this, 0);
+                return;
+            }
+
+            //Keep reading while bytes arrive, otherwise check again later
+            if(reads == MAX_READS_PER_TURN){
+                pollDelayMs = POLL_INTERVAL_MS;
+                schedule(this, 0);
+            }
+            else if(reads > 0){
+                pollDelayMs = POLL_INTERVAL_MS;
+                schedule(this, POLL_INTERVAL_MS);
+            }
+            else{
+                long delayMs = pollDelayMs;
+                pollDelayMs = Math.min(2*pollDelayMs, MAX_POLL_INTERVAL_MS);
+                schedule(this, delayMs);
+            }
+        }
+    }
+
+    /**
+     * Reads a blocking stream into the connection's ring for as long as the connection is open.
+     * Only one thread exists per connection.
+     */
+    private class blockingReadThread extends Thread{
+        final SensorConnection connection;
+
+        blockingReadThread(SensorConnection sensorConnection){
+            super("SensorHub reader " + sensorConnection.getName());
+            setDaemon(true);
+            connection = sensorConnection;
+        }
+
+        @Override
+        public void run(){
+            try{
+                while(!connection.isClosed()){
+                    byte[] buffer = connection.queue.claim();
+                    if(buffer == null){
+                        waitForBuffer();
+                        continue;
+                    }
+                    int bytes = connection.in.read(buffer, 0, buffer.length);
+                    if(bytes < 0){
+                        break;
+                    }
+                    if(bytes > 0){
+                        connection.publish(bytes);
+                        scheduleDecode(connection);
+                    }
+                }
+            }catch(IOException e){
+                //Connection lost, or closed while reading
+            }
+            close(connection);
+        }
+
+        //Waits until the decode task frees a buffer or the connection is closed
+        private void waitForBuffer(){
+            FlightRecorder.EVENTS.record(FlightRecorder.READ_STALL, connection.slot, 0, connection.getQueueFullCount());
+            connection.readStalled.set(true);
+            while(connection.queue.getOccupancy() == connection.queue.getCapacity() && !connection.isClosed()){
+                LockSupport.park(this);
+            }
+            connection.readStalled.set(false);
+        }
+    }
+
+    /**
+     * Decodes the buffers a connection's read task queued, and queues itself again while more are waiting.
+     * Only one task exists per connection, and it is queued at most once at a time.
+     */
+    private class decodeTask implements Runnable{
+        final SensorConnection connection;
+
+        decodeTask(SensorConnection sensorConnection){
+            connection = sensorConnection;
+        }
+
+        @Override
+        public void run(){
+            int decoded = connection.decodeQueued(MAX_DECODES_PER_TURN);
+
+            //Let a read task that found the ring full continue
+            if(decoded > 0 && connection.readStalled.compareAndSet(true, false)){
+                resumeRead(connection);
+            }
+
+            //Give the other connections a turn before decoding the rest
+            if(decoded == MAX_DECODES_PER_TURN && connection.queue.hasPublished()){
+                try{
+                    decoders.execute(this);
+                }catch(RejectedExecutionException e){
+                    close(connection);
+                }
+                return;
+            }
+
+            //Done. Check again in case the read task queued a buffer after the last check but saw this task still scheduled.
+            connection.decodeScheduled.set(false);
+            if(connection.queue.hasPublished()){
+                scheduleDecode(connection);
+            }
+        }
+    }
+
+    /**
+     * Names the daemon threads of a stage
+     */
+    private static class stageThreadFactory implements ThreadFactory{
+        private final String prefix;
+        private int count = 0;
+
+        stageThreadFactory(String namePrefix){
+            prefix = namePrefix;
+        }
+
+        @Override
+        public synchronized Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, prefix + count++);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * A sensor reading with everything known about it: every numeric field the firmware sent, the sequence
+ * number of its binary frame, and when its bytes were read from the connection, both on the monotonic clock
+ * in nanoseconds and on the wall clock in milliseconds.
+ *
+ * The monotonic receive times of consecutive readings give the jitter of the sensor and the app against
+ * the intervals the sensor measured, and the sequence numbers show which frames were lost.
+ *
+ * Records are reused, so a record passed to a listener is only valid during the call.
+ */
+public class SensorRecord {
+
+    //Sequence number of readings that arrived as text lines, which carry none
+    public static final int NO_SEQUENCE = -1;
+
+    //Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+    public int channel;
+
+    //The numeric fields as sent by the sensor, the last one is the milliseconds per revolution
+    public final double[] fields = new double[SensorFrameParser.MAX_FIELD_COUNT];
+    public int fieldCount;
+
+    //Sequence number of the binary frame, or NO_SEQUENCE
+    public int sequence = NO_SEQUENCE;
+
+    //Time the reading was read, from System.nanoTime()
+    public long receiveNanos;
+
+    //Time the reading was read, from System.currentTimeMillis()
+    public long receiveTimeMs;
+
+    /**
+     * Fills the record.
+     * @param readingChannel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     * @param readingFields - the numeric fields of the reading
+     * @param readingFieldCount - the number of valid values in readingFields
+     * @param frameSequence - sequence number of the binary frame, or NO_SEQUENCE
+     * @param nanos - monotonic receive time in nanoseconds
+     * @param timeMs - wall clock receive time in milliseconds
+     */
+    public void set(int readingChannel, double[] readingFields, int readingFieldCount, int frameSequence, long nanos, long timeMs){
+        channel = readingChannel;
+        System.arraycopy(readingFields, 0, fields, 0, readingFieldCount);
+        fieldCount = readingFieldCount;
+        sequence = frameSequence;
+        receiveNanos = nanos;
+        receiveTimeMs = timeMs;
+    }
+
+    /**
+     * @return - the milliseconds per revolution, which is the last field
+     */
+    public double interval(){
+        return fields[fieldCount-1];
+    }
+}
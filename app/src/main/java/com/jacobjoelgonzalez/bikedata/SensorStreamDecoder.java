@@ -0,0 +1,121 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Decodes the byte stream received from the sensor, which is either tab-delimited text lines
+ * or binary frames once the sensor has accepted BinaryFrameEncoder.HELLO.
+ *
+ * The stream starts out as text. The stream switches to binary frames after a complete handshake frame with
+ * a valid checksum, so a stray SYNC byte in the text does not end the text. If no handshake arrives within the
+ * first NEGOTIATION_FRAMES text readings the sensor is assumed to be older firmware and the stream is no longer
+ * checked for binary frames. Once binary, FALLBACK_FRAMES frames in a row failing their checks switch the stream
+ * back to text and negotiating, e.g. after the sensor restarted with text.
+ */
+public class SensorStreamDecoder {
+
+    //Number of text readings after which binary frames are no longer expected
+    private static final int NEGOTIATION_FRAMES = 32;
+
+    //Failed binary frames in a row after which the stream is text again
+    private static final int FALLBACK_FRAMES = 8;
+
+    private final SensorFrameParser textParser;
+    private final BinaryFrameDecoder binaryDecoder;
+
+    //Framing state
+    private volatile boolean binary = false;
+    private boolean negotiating = true;
+
+    //Text readings parsed before the current negotiation started
+    private long negotiationStart = 0;
+
+    public SensorStreamDecoder(SensorFrameParser.Listener readingListener){
+        textParser = new SensorFrameParser(readingListener);
+        binaryDecoder = new BinaryFrameDecoder(readingListener);
+    }
+
+    /**
+     * Decodes a chunk of bytes read from the sensor.
+     * @param buffer - the bytes read from the sensor
+     * @param offset - index of the first valid byte
+     * @param length - number of valid bytes
+     */
+    public void decode(byte[] buffer, int offset, int length){
+        if(binary){
+            binaryDecoder.parse(buffer, offset, length);
+
+            //Sensor stopped sending binary frames
+            if(binaryDecoder.getFailedFrameRun() >= FALLBACK_FRAMES){
+                reset();
+            }
+            return;
+        }
+
+        if(negotiating){
+            int handshakeEnd = binaryDecoder.findHandshake(buffer, offset, length);
+            if(handshakeEnd >= 0){
+                //Finish the text before the handshake, and drop any unfinished text line
+                int textEnd = Math.max(offset, handshakeEnd - BinaryFrameEncoder.HANDSHAKE_LENGTH);
+                textParser.parse(buffer, offset, textEnd - offset);
+                textParser.reset();
+
+                binary = true;
+                binaryDecoder.parse(buffer, handshakeEnd, offset + length - handshakeEnd);
+                return;
+            }
+        }
+
+        textParser.parse(buffer, offset, length);
+
+        //Fall back to text for older firmware
+        if(negotiating && textParser.getFrameCount() - negotiationStart >= NEGOTIATION_FRAMES){
+            negotiating = false;
+        }
+    }
+
+    /**
+     * Starts negotiating again with the text format, e.g. for a new connection.
+     */
+    public void reset(){
+        textParser.reset();
+        binaryDecoder.reset();
+        binary = false;
+        negotiating = true;
+        negotiationStart = textParser.getFrameCount();
+    }
+
+    /**
+     * @return - true if the sensor is sending binary frames
+     */
+    public boolean isBinary(){
+        return binary;
+    }
+
+    /**
+     * @return - the sequence number of the binary frame whose reading is being passed to the listener,
+     * or SensorRecord.NO_SEQUENCE for a text line
+     */
+    public int getSequence(){
+        return binary ? binaryDecoder.getSequence() : SensorRecord.NO_SEQUENCE;
+    }
+
+    /**
+     * @return - the number of readings sent to the listener
+     */
+    public long getFrameCount(){
+        return textParser.getFrameCount() + binaryDecoder.getFrameCount();
+    }
+
+    /**
+     * @return - the number of text lines and binary frames that could not be decoded
+     */
+    public long getMalformedFrameCount(){
+        return textParser.getMalformedFrameCount() + binaryDecoder.getMalformedFrameCount();
+    }
+
+    /**
+     * @return - the number of binary frames missing from the sequence numbers
+     */
+    public long getDroppedFrameCount(){
+        return binaryDecoder.getDroppedFrameCount();
+    }
+}
@@ -0,0 +1,249 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Brings the displayed rpm and speed/acceleration values smoothly to zero when a sensor stops sending readings.
+ *
+ * If no reading of a channel arrives within FIRST_TIMEOUT_MS, artificial readings of 3/4, 1/2 and 1/4
+ * of the last rpm and then zero are sent STEP_TIMEOUT_MS apart. Zero is sent twice, so the acceleration,
+ * which compares the last two readings, settles at zero as well. A reading of 1.5 million milliseconds sets
+ * the rpm to 0.04 which rounds to 0.0 when rpm is calculated.
+ * These artificial sensor values are not recorded in the data set for the file save option.
+ *
+ * Each channel has a deadline that a reading moves forward. The timeout thread sleeps until the earliest deadline
+ * instead of polling, so while readings arrive it only wakes when a deadline it slept for has been moved,
+ * at most once per FIRST_TIMEOUT_MS. With no deadline armed it waits until a channel is armed again.
+ *
+ * The state of each channel is a SensorChannelState, so readings, timeouts and readers of one channel
+ * never block each other or the other channels. A single scheduler can serve the channels of many
+ * sensor connections, which then share one timeout thread.
+ */
+public class SensorTimeoutScheduler {
+
+    /**
+     * Receives the artificial readings
+     */
+    public interface Listener{
+        /**
+         * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+         * @param msPerRev - the artificial milliseconds per revolution
+         */
+        public void onTimeout(int channel, double msPerRev);
+    }
+
+    //Time without readings before the first artificial reading
+    public static final long FIRST_TIMEOUT_MS = 2500;
+
+    //Time between artificial readings
+    public static final long STEP_TIMEOUT_MS = 500;
+
+    //Reading that displays as zero
+    public static final double ZERO_READING = 1500000.0;
+
+    //Multiples of the last reading sent by the first timeouts, which are 3/4, 1/2 and 1/4 of the rpm
+    private static final double[] DECAY = {4.0/3.0, 2.0, 4.0};
+
+    //Number of artificial readings sent after the last real one: the decay and zero twice
+    private static final int TIMEOUT_STEPS = DECAY.length + 2;
+
+    private final Listener listener;
+
+    //State of each channel
+    private final SensorChannelState[] channels;
+
+    private final Object threadLock = new Object();
+    private volatile timeoutThread thread = null;
+
+    //Set while the timeout thread waits with no deadline armed
+    private volatile boolean idle = false;
+
+    //Statistics
+    private volatile long wakeupCount = 0;
+    private volatile long timeoutCount = 0;
+
+    /**
+     * @param timeoutListener - receives the artificial readings of the pedal and tire channel, on the timeout thread
+     */
+    public SensorTimeoutScheduler(Listener timeoutListener){
+        this(SensorChannel.COUNT, timeoutListener);
+    }
+
+    /**
+     * @param channelCount - the number of channels, e.g. the channels of several sensor connections
+     * @param timeoutListener - receives the artificial readings, on the timeout thread
+     */
+    public SensorTimeoutScheduler(int channelCount, Listener timeoutListener){
+        listener = timeoutListener;
+        channels = new SensorChannelState[channelCount];
+        for(int channel=0; channel<channelCount; channel++){
+            channels[channel] = new SensorChannelState(ZERO_READING);
+        }
+    }
+
+    /**
+     * Starts the timeouts of every channel, e.g. when a connection starts.
+     */
+    public void arm(){
+        long deadline = now() + FIRST_TIMEOUT_MS;
+        for(int channel=0; channel<channels.length; channel++){
+            channels[channel].arm(deadline);
+        }
+        wake();
+    }
+
+    /**
+     * Starts the timeout of a single channel, e.g. when one of several connections starts.
+     * @param channel - index of the channel
+     */
+    public void arm(int channel){
+        channels[channel].arm(now() + FIRST_TIMEOUT_MS);
+        wake();
+    }
+
+    /**
+     * Stops the timeouts of every channel, e.g. when a connection ends. The timeout thread is kept for the next arm().
+     */
+    public void disarm(){
+        for(int channel=0; channel<channels.length; channel++){
+            channels[channel].arm(SensorChannelState.DISARMED);
+        }
+    }
+
+    /**
+     * Stops the timeout of a single channel.
+     * @param channel - index of the channel
+     */
+    public void disarm(int channel){
+        channels[channel].arm(SensorChannelState.DISARMED);
+    }
+
+    /**
+     * Restarts the timeout of a channel. Called for every real reading.
+     * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     * @param msPerRev - the milliseconds per revolution of the reading
+     */
+    public void onReading(int channel, double msPerRev){
+        long time = now();
+        channels[channel].onReading(msPerRev, time, time + FIRST_TIMEOUT_MS);
+
+        //Only wake the timeout thread if it is not already waiting for a deadline
+        if(idle){
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     * @return - the state of the channel, which can be read without blocking
+     */
+    public SensorChannelState getChannelState(int channel){
+        return channels[channel];
+    }
+
+    /**
+     * @return - the number of channels
+     */
+    public int getChannelCount(){
+        return channels.length;
+    }
+
+    /**
+     * @return - the number of times the timeout thread woke up
+     */
+    public long getWakeupCount(){
+        return wakeupCount;
+    }
+
+    /**
+     * @return - the number of artificial readings sent
+     */
+    public long getTimeoutCount(){
+        return timeoutCount;
+    }
+
+    //Starts the timeout thread if needed and makes it look at the deadlines again
+    private void wake(){
+        synchronized(threadLock){
+            if(thread == null){
+                thread = new timeoutThread();
+                thread.start();
+            }
+        }
+        LockSupport.unpark(thread);
+    }
+
+    //Monotonic time in milliseconds
+    private static long now(){
+        return System.nanoTime()/1000000;
+    }
+
+    /**
+     * This thread sends the artificial readings when the deadlines pass
+     */
+    private class timeoutThread extends Thread{
+
+        //State of the channel before its timeout
+        private final SensorChannelState.Snapshot snapshot = new SensorChannelState.Snapshot();
+
+        timeoutThread(){
+            setDaemon(true);
+        }
+
+        @Override
+        public void run(){
+            while(true){
+                long time = now();
+                long next = SensorChannelState.DISARMED;
+                for(int channel=0; channel<channels.length; channel++){
+                    SensorChannelState state = channels[channel];
+                    long deadline = state.getDeadline();
+                    if(deadline <= time && state.timeOut(time, STEP_TIMEOUT_MS, TIMEOUT_STEPS, snapshot)){
+                        //Time the deadline had passed by
+                        Metrics.TIMEOUT_LATENESS.record(System.nanoTime() - deadline*1000000);
+
+                        //Set artificial reading based on how many times the sensor has timed out
+                        int step = snapshot.timeOutCount;
+                        double artificialReading = step < DECAY.length ? DECAY[step]*snapshot.msPerRev : ZERO_READING;
+
+                        //Send artificial reading
+                        timeoutCount++;
+                        Metrics.TIMEOUTS.increment();
+                        FlightRecorder.EVENTS.record(FlightRecorder.TIMEOUT, channel/SensorChannel.COUNT,
+                                FlightRecorder.timeoutArg(channel%SensorChannel.COUNT, step), Double.doubleToRawLongBits(artificialReading));
+                        listener.onTimeout(channel, artificialReading);
+                    }
+                    next = Math.min(next, state.getDeadline());
+                }
+
+                //Sleep until the earliest deadline, which readings may move further while sleeping
+                time = now();
+                if(next <= time){
+                    continue;
+                }
+                if(next == SensorChannelState.DISARMED){
+                    //Check again after setting idle, so a reading arriving meanwhile either sees idle or is seen here
+                    idle = true;
+                    if(allDisarmed()){
+                        LockSupport.park(this);
+                    }
+                    idle = false;
+                }
+                else{
+                    LockSupport.parkNanos(this, (next - time)*1000000);
+                }
+                wakeupCount++;
+            }
+        }
+
+        //True if no channel has a timeout pending
+        private boolean allDisarmed(){
+            for(int channel=0; channel<channels.length; channel++){
+                if(channels[channel].getDeadline() != SensorChannelState.DISARMED){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A link to a sensor that readings arrive on, e.g. an RFCOMM socket to the bike sensor,
+ * a TCP connection to a sensor simulator or an in-memory pipe fed by a SyntheticSensor.
+ *
+ * BluetoothSensorService and SensorHub only use this interface, so the whole parsing and dispatch path
+ * can run against a stand-in transport without a sensor. The input stream must report its buffered bytes
+ * through available() and must throw an IOException once the connection is lost, as SensorHub requires,
+ * unless the transport is Blocking.
+ */
+public interface SensorTransport extends Closeable {
+
+    /**
+     * A transport whose stream can only be read with a blocking read(), e.g. a Bluetooth socket.
+     * SensorHub reads it on a thread of its own instead of polling available(), and read() must throw
+     * an IOException or return -1 once the connection is lost or the transport is closed.
+     */
+    public interface Blocking extends SensorTransport{
+    }
+
+    /**
+     * @return - the name shown for the connection, e.g. the name of the device
+     */
+    public String getName();
+
+    /**
+     * Connects to the sensor. Blocks until connected or failed, and may be cancelled by close() from another thread.
+     * @throws IOException - if the connection could not be made or was cancelled
+     */
+    public void connect() throws IOException;
+
+    /**
+     * @return - the stream the sensor readings arrive on, once connected
+     * @throws IOException - if the transport is not connected
+     */
+    public InputStream getInputStream() throws IOException;
+
+    /**
+     * @return - the stream commands to the sensor are written to, e.g. BinaryFrameEncoder.HELLO
+     * @throws IOException - if the transport is not connected
+     */
+    public OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Closes the connection, or cancels a connect() in progress. May be called more than once and from any thread.
+     */
+    @Override
+    public void close();
+}
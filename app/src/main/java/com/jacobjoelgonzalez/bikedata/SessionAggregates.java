@@ -0,0 +1,172 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Totals of a ride that are updated with every real sensor reading, so a summary of the ride
+ * takes the same time no matter how long it was and never has to go through the stored readings.
+ *
+ * Each reading is one revolution of the pedals or the tire, which took its milliseconds per revolution.
+ * Revolutions slower than MAX_ACTIVE_INTERVAL_MS count as stopped, so the moving and pedaling times,
+ * the averages and the cadence zones leave out the time spent standing. Distance and speed are worked out
+ * when summarized, so they always use the current tire radius.
+ *
+ * Written by the thread delivering readings and read by the UI. Both hold the lock for a few field copies only.
+ */
+public class SessionAggregates {
+
+    //Longest revolution counted as riding, the same time after which the display starts decaying to zero
+    public static final long MAX_ACTIVE_INTERVAL_MS = SensorTimeoutScheduler.FIRST_TIMEOUT_MS;
+
+    /**
+     * A consistent copy of the totals, reused by the caller
+     */
+    public static class Summary{
+        //Revolutions of the pedals and the tire
+        public long crankRevolutions;
+        public long wheelRevolutions;
+
+        //Time spent pedaling and moving in milliseconds
+        public double pedalingMs;
+        public double movingMs;
+
+        //Revolutions within the pedaling and moving time
+        public long activeCrankRevolutions;
+        public long activeWheelRevolutions;
+
+        //Highest rpm of the pedals and the tire
+        public double maxCadence;
+        public double maxWheelRpm;
+
+        //Time spent pedaling in each cadence zone in milliseconds, indexed by RideMetrics.ZONE_BELOW to ZONE_HIGH
+        public final double[] zoneMs = new double[RideMetrics.ZONE_COUNT];
+
+        /**
+         * @return - the average rpm of the pedals while pedaling, or 0
+         */
+        public double averageCadence(){
+            return pedalingMs > 0 ? activeCrankRevolutions*60000.0/pedalingMs : 0;
+        }
+
+        /**
+         * @param units - RideMetrics.MPH or KPH
+         * @param calibration - the tire radius
+         * @return - the average speed while moving in the given units, or 0
+         */
+        public double averageSpeed(int units, Calibration calibration){
+            double wheelRpm = movingMs > 0 ? activeWheelRevolutions*60000.0/movingMs : 0;
+            return RideMetrics.rpmSpeed(wheelRpm, units, calibration);
+        }
+
+        /**
+         * @param units - RideMetrics.MPH or KPH
+         * @param calibration - the tire radius
+         * @return - the highest speed in the given units
+         */
+        public double maxSpeed(int units, Calibration calibration){
+            return RideMetrics.rpmSpeed(maxWheelRpm, units, calibration);
+        }
+
+        /**
+         * @param units - RideMetrics.MPH for miles or KPH for kilometers
+         * @param calibration - the tire radius
+         * @return - the distance covered in the given units
+         */
+        public double distance(int units, Calibration calibration){
+            return RideMetrics.distance(wheelRevolutions, units, calibration);
+        }
+    }
+
+    private final Summary totals = new Summary();
+
+    /**
+     * Adds a real sensor reading. Artificial readings sent while a sensor is silent must not be added.
+     * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     * @param msPerRev - the milliseconds per revolution as received, which the times are summed from
+     * @param filteredMsPerRev - the milliseconds per revolution as displayed, which the maxima and zones are taken from
+     */
+    public synchronized void add(int channel, double msPerRev, double filteredMsPerRev){
+        boolean active = msPerRev > 0 && msPerRev <= MAX_ACTIVE_INTERVAL_MS;
+        double rpm = filteredMsPerRev > 0 ? RideMetrics.cadence(filteredMsPerRev) : 0;
+
+        if(channel == Constants.CHANNEL_PEDAL){
+            totals.crankRevolutions++;
+            if(active){
+                totals.activeCrankRevolutions++;
+                totals.pedalingMs += msPerRev;
+                totals.zoneMs[RideMetrics.cadenceZone(Math.round(rpm*10.0))] += msPerRev;
+            }
+            if(rpm > totals.maxCadence){
+                totals.maxCadence = rpm;
+            }
+        }
+        else{
+            totals.wheelRevolutions++;
+            if(active){
+                totals.activeWheelRevolutions++;
+                totals.movingMs += msPerRev;
+            }
+            if(rpm > totals.maxWheelRpm){
+                totals.maxWheelRpm = rpm;
+            }
+        }
+    }
+
+    /**
+     * Copies the totals.
+     * @param out - receives the totals
+     */
+    public synchronized void read(Summary out){
+        out.crankRevolutions = totals.crankRevolutions;
+        out.wheelRevolutions = totals.wheelRevolutions;
+        out.pedalingMs = totals.pedalingMs;
+        out.movingMs = totals.movingMs;
+        out.activeCrankRevolutions = totals.activeCrankRevolutions;
+        out.activeWheelRevolutions = totals.activeWheelRevolutions;
+        out.maxCadence = totals.maxCadence;
+        out.maxWheelRpm = totals.maxWheelRpm;
+        System.arraycopy(totals.zoneMs, 0, out.zoneMs, 0, RideMetrics.ZONE_COUNT);
+    }
+
+    /**
+     * Starts a new ride, e.g. after the readings were saved.
+     */
+    public synchronized void clear(){
+        totals.crankRevolutions = 0;
+        totals.wheelRevolutions = 0;
+        totals.pedalingMs = 0;
+        totals.movingMs = 0;
+        totals.activeCrankRevolutions = 0;
+        totals.activeWheelRevolutions = 0;
+        totals.maxCadence = 0;
+        totals.maxWheelRpm = 0;
+        for(int zone=0; zone<RideMetrics.ZONE_COUNT; zone++){
+            totals.zoneMs[zone] = 0;
+        }
+    }
+
+    /**
+     * @param summary - the totals to describe
+     * @param calibration - the tire radius
+     * @return - a few lines describing the ride, for the end of ride summary and the save dialog
+     */
+    public static String describe(Summary summary, Calibration calibration){
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%.2f mi (%.2f km) in %s\n",
+                summary.distance(RideMetrics.MPH, calibration), summary.distance(RideMetrics.KPH, calibration),
+                formatDuration(summary.movingMs)));
+        text.append(String.format("Speed avg %.1f mph (%.1f kph), max %.1f mph (%.1f kph)\n",
+                summary.averageSpeed(RideMetrics.MPH, calibration), summary.averageSpeed(RideMetrics.KPH, calibration),
+                summary.maxSpeed(RideMetrics.MPH, calibration), summary.maxSpeed(RideMetrics.KPH, calibration)));
+        text.append(String.format("Cadence avg %.1f rpm, max %.1f rpm, %d revolutions\n",
+                summary.averageCadence(), summary.maxCadence, summary.crankRevolutions));
+        text.append(String.format("Under 80 rpm %s, 80-86 %s, 86-96 %s, 96+ %s",
+                formatDuration(summary.zoneMs[RideMetrics.ZONE_BELOW]), formatDuration(summary.zoneMs[RideMetrics.ZONE_LOW]),
+                formatDuration(summary.zoneMs[RideMetrics.ZONE_TARGET]), formatDuration(summary.zoneMs[RideMetrics.ZONE_HIGH])));
+        return text.toString();
+    }
+
+    //Formats milliseconds as h:mm:ss
+    private static String formatDuration(double ms){
+        long seconds = Math.round(ms/1000);
+        return String.format("%d:%02d:%02d", seconds/3600, (seconds/60)%60, seconds%60);
+    }
+}
@@ -0,0 +1,100 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Converts between the tab-delimited text files saved by older versions of the app and binary session files.
+ * Both directions stream the readings, so files of any length can be converted in constant memory.
+ */
+public class SessionFileConverter {
+
+    //Bytes read or written at a time
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Converts a text file to a binary session file.
+     * Text files have no receive times, so each reading is given the sum of the intervals
+     * of its channel up to and including it, which is when it would have been received.
+     * @param in - the text file to convert
+     * @param out - the binary session file to write
+     * @return - the number of lines in the text file that could not be parsed
+     */
+    public static long textToBinary(InputStream in, File out) throws IOException{
+        final SessionFileWriter writer = new SessionFileWriter(out);
+        final long[] channelTimes = new long[2];
+        final IOException[] writeError = new IOException[1];
+
+        SensorFrameParser parser = new SensorFrameParser(new SensorFrameParser.Listener() {
+            @Override
+            public void onReading(int channel, double[] fields, int fieldCount) {
+                channelTimes[channel] += Math.round(fields[fieldCount-1]);
+                try{
+                    writer.append(channelTimes[channel], channel, fields, fieldCount);
+                }catch(IOException e){
+                    writeError[0] = e;
+                }
+            }
+        });
+
+        try{
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int bytes;
+            while((bytes = in.read(buffer)) >= 0 && writeError[0] == null){
+                parser.parse(buffer, 0, bytes);
+            }
+
+            //Last line may not end with a newline
+            byte[] newline = {'\n'};
+            parser.parse(newline, 0, 1);
+
+            if(writeError[0] != null){
+                throw writeError[0];
+            }
+        }finally{
+            writer.close();
+        }
+
+        return parser.getMalformedFrameCount();
+    }
+
+    /**
+     * Converts a binary session file to a text file in the layout sent by the sensor. Receive times are not kept.
+     * @param in - the binary session file to convert
+     * @param out - the stream to write the text to
+     * @return - the number of readings written
+     */
+    public static long binaryToText(File in, OutputStream out) throws IOException{
+        return writeText(new SessionFileReader(in).cursor(), out);
+    }
+
+    /**
+     * Writes readings in the tab-delimited layout sent by the sensor.
+     * @param cursor - the readings to write
+     * @param out - the stream to write the text to
+     * @return - the number of readings written
+     */
+    public static long writeText(ReadingCursor cursor, OutputStream out) throws IOException{
+        byte[] buffer = new byte[BUFFER_SIZE + SensorFrameParser.MAX_LINE_LENGTH];
+        double[] fields = new double[SensorFrameParser.MAX_FIELD_COUNT];
+        int length = 0;
+        long count = 0;
+
+        while(cursor.next()){
+            int fieldCount = cursor.copyFields(fields);
+            length += SensorFrameParser.formatLine(buffer, length, cursor.channel(), fields, fieldCount);
+            count++;
+
+            if(length >= BUFFER_SIZE){
+                out.write(buffer, 0, length);
+                length = 0;
+            }
+        }
+        out.write(buffer, 0, length);
+        out.flush();
+
+        return count;
+    }
+}
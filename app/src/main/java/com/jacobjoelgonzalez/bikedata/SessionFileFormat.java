@@ -0,0 +1,459 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Defines the binary session file format, version 3. Multi-byte values are big endian.
+ *
+ * File header, HEADER_LENGTH bytes:
+ *  MAGIC "BIKE", VERSION byte, 3 reserved bytes
+ *
+ * Blocks of up to BLOCK_READINGS readings, each starting with a BLOCK_HEADER_LENGTH byte header:
+ *  int reading count, int payload length, long smallest timestamp, long largest timestamp, byte decimal places
+ * The payload holds one entry per reading:
+ *  varint of (zigzag(timestamp - previous timestamp of the same channel - interval) << 3
+ *      | SAME_RECEIVE_NANOS | NEXT_SEQUENCE | channel)
+ *  zigzag varint of (field - previous field of the same channel and index) for each field of the channel
+ *  zigzag varint of (receive nanos - previous receive nanos - (timestamp - previous timestamp) * 10^6),
+ *      unless SAME_RECEIVE_NANOS is set
+ *  zigzag varint of (sequence - previous sequence of the same channel), unless NEXT_SEQUENCE is set
+ * Fields are stored as whole numbers after scaling by 10^decimal places of the block. Timestamps are wall clock
+ * milliseconds, receive nanos are monotonic nanoseconds and sequences are binary frame sequence numbers or
+ * SensorRecord.NO_SEQUENCE, as in a SensorRecord.
+ * A reading is received about one interval, its last field, after the previous reading of its channel,
+ * and the receive nanos move with the timestamp, so only the differences from those are stored.
+ * SAME_RECEIVE_NANOS is set if the reading was received with the previous reading of any channel, or neither has
+ * receive nanos. NEXT_SEQUENCE is set if the sequence follows the previous sequence of the channel,
+ * or both are NO_SEQUENCE.
+ * The previous values start at 0 in each block, and the previous sequences at NO_SEQUENCE,
+ * so every block can be decoded on its own.
+ *
+ * Version 2 stores (zigzag(timestamp - previous timestamp of the same channel) << 1 | channel) as the header
+ * and always stores the receive nanos and sequence, each as the difference from the previous one of the same channel.
+ * Version 1 stores no receive nanos and sequences, which are read as 0 and NO_SEQUENCE.
+ *
+ * On rides from SyntheticSensor, a session file is about 2.2x smaller than the text the sensor sent for it
+ * when recorded live, where the sub-millisecond part of the receive nanos takes about 3 of the 8 bytes
+ * of a reading, and about 3.8x smaller when converted from a text file, which has no receive nanos or sequences.
+ *
+ * Block index, INDEX_ENTRY_LENGTH bytes per block:
+ *  long block offset, long index of the first reading, long smallest timestamp, long largest timestamp, int reading count
+ *
+ * Footer, FOOTER_LENGTH bytes:
+ *  long index offset, int block count, INDEX_MAGIC "BIDX"
+ *
+ * A file without a footer, e.g. from a crash, can still be read by walking the block headers.
+ */
+public class SessionFileFormat {
+
+    public static final byte[] MAGIC = {'B', 'I', 'K', 'E'};
+    public static final byte[] INDEX_MAGIC = {'B', 'I', 'D', 'X'};
+    public static final int VERSION = 3;
+
+    //Oldest version that can be read
+    public static final int MIN_VERSION = 1;
+
+    //Extension of saved session files
+    public static final String FILE_EXTENSION = ".ride";
+
+    public static final int HEADER_LENGTH = 8;
+    public static final int BLOCK_HEADER_LENGTH = 4 + 4 + 8 + 8 + 1;
+    public static final int INDEX_ENTRY_LENGTH = 8 + 8 + 8 + 8 + 4;
+    public static final int FOOTER_LENGTH = 8 + 4 + 4;
+
+    //Readings per block
+    public static final int BLOCK_READINGS = 4096;
+
+    //Largest encoded size of a reading, one varint for the header, each field, the receive nanos and the sequence
+    private static final int MAX_READING_LENGTH = 10 + 10*SensorFrameParser.MAX_FIELD_COUNT + 10 + 10;
+
+    //Largest encoded size of a block
+    public static final int MAX_BLOCK_LENGTH = BLOCK_HEADER_LENGTH + BLOCK_READINGS*MAX_READING_LENGTH;
+
+    //Most decimal places kept for fields, matching the thousandths of the text and sensor formats
+    private static final int MAX_DECIMAL_PLACES = 3;
+
+    private static final double[] SCALES = {1.0, 10.0, 100.0, 1000.0};
+
+    //Channels that can be stored in the low bit of the reading header
+    private static final int CHANNEL_COUNT = 2;
+
+    //Flags of the reading header
+    private static final int NEXT_SEQUENCE = 2;
+    private static final int SAME_RECEIVE_NANOS = 4;
+
+    /**
+     * A block of readings in parallel primitive arrays, reused for encoding and decoding
+     */
+    public static class Block{
+        public final long[] timestamps = new long[BLOCK_READINGS];
+        public final byte[] channels = new byte[BLOCK_READINGS];
+        public final double[] fields = new double[BLOCK_READINGS*SensorFrameParser.MAX_FIELD_COUNT];
+        public final long[] receiveNanos = new long[BLOCK_READINGS];
+        public final int[] sequences = new int[BLOCK_READINGS];
+        public int size = 0;
+
+        //Previous timestamp, receive nanos and sequence of each channel and previous value of each channel and field,
+        //used for delta coding
+        private final long[] previousTimestamps = new long[CHANNEL_COUNT];
+        private final long[] previousFields = new long[CHANNEL_COUNT*SensorFrameParser.MAX_FIELD_COUNT];
+        private final long[] previousNanos = new long[CHANNEL_COUNT];
+        private final long[] previousSequences = new long[CHANNEL_COUNT];
+
+        //Timestamp and receive nanos of the previous reading of any channel
+        private long previousTimestamp;
+        private long previousReceiveNanos;
+
+        /**
+         * Adds a reading without receive nanos and sequence, e.g. from a text file.
+         * @return - true if the block is now full
+         */
+        public boolean add(long timestamp, int channel, double[] readingFields, int fieldCount){
+            timestamps[size] = timestamp;
+            channels[size] = (byte)channel;
+            System.arraycopy(readingFields, 0, fields, size*SensorFrameParser.MAX_FIELD_COUNT, fieldCount);
+            receiveNanos[size] = 0;
+            sequences[size] = SensorRecord.NO_SEQUENCE;
+            size++;
+            return size == BLOCK_READINGS;
+        }
+
+        /**
+         * Adds a reading with everything known about it.
+         * @param record - the reading, stamped with its wall clock receive time
+         * @return - true if the block is now full
+         */
+        public boolean add(SensorRecord record){
+            timestamps[size] = record.receiveTimeMs;
+            channels[size] = (byte)record.channel;
+            System.arraycopy(record.fields, 0, fields, size*SensorFrameParser.MAX_FIELD_COUNT, record.fieldCount);
+            receiveNanos[size] = record.receiveNanos;
+            sequences[size] = record.sequence;
+            size++;
+            return size == BLOCK_READINGS;
+        }
+
+        /**
+         * Encodes the block header and payload.
+         * @param out - buffer with room for MAX_BLOCK_LENGTH bytes
+         */
+        public void encode(ByteBuffer out){
+            int headerPosition = out.position();
+            out.position(headerPosition + BLOCK_HEADER_LENGTH);
+
+            //Use the fewest decimal places that keep every field
+            int decimalPlaces = 0;
+            for(int i=0; i<size && decimalPlaces < MAX_DECIMAL_PLACES; i++){
+                int count = SensorFrameParser.fieldCountOf(channels[i]);
+                for(int f=0; f<count; f++){
+                    double value = fields[i*SensorFrameParser.MAX_FIELD_COUNT + f]*SCALES[decimalPlaces];
+                    while(value != Math.rint(value) && decimalPlaces < MAX_DECIMAL_PLACES){
+                        decimalPlaces++;
+                        value = fields[i*SensorFrameParser.MAX_FIELD_COUNT + f]*SCALES[decimalPlaces];
+                    }
+                }
+            }
+            double scale = SCALES[decimalPlaces];
+
+            long minTimestamp = Long.MAX_VALUE;
+            long maxTimestamp = Long.MIN_VALUE;
+            clearPrevious(VERSION);
+
+            for(int i=0; i<size; i++){
+                int channel = channels[i];
+                long timestamp = timestamps[i];
+                if(timestamp < minTimestamp) minTimestamp = timestamp;
+                if(timestamp > maxTimestamp) maxTimestamp = timestamp;
+
+                int count = SensorFrameParser.fieldCountOf(channel);
+                //The last field is the interval
+                long interval = Math.round(fields[i*SensorFrameParser.MAX_FIELD_COUNT + count - 1]*scale);
+                long header = zigzag(timestamp - previousTimestamps[channel] - Math.round(interval/scale)) << 3 | channel;
+                boolean sameNanos = receiveNanos[i] == previousReceiveNanos;
+                boolean nextSequence = sequences[i] == nextSequence(previousSequences[channel]);
+                if(sameNanos) header |= SAME_RECEIVE_NANOS;
+                if(nextSequence) header |= NEXT_SEQUENCE;
+                writeVarint(out, header);
+
+                for(int f=0; f<count; f++){
+                    long value = Math.round(fields[i*SensorFrameParser.MAX_FIELD_COUNT + f]*scale);
+                    int previous = channel*SensorFrameParser.MAX_FIELD_COUNT + f;
+                    writeVarint(out, zigzag(value - previousFields[previous]));
+                    previousFields[previous] = value;
+                }
+
+                if(!sameNanos){
+                    writeVarint(out, zigzag(receiveNanos[i] - previousReceiveNanos - (timestamp - previousTimestamp)*1000000));
+                }
+                if(!nextSequence){
+                    writeVarint(out, zigzag(sequences[i] - previousSequences[channel]));
+                }
+                previousTimestamps[channel] = timestamp;
+                previousTimestamp = timestamp;
+                previousReceiveNanos = receiveNanos[i];
+                previousSequences[channel] = sequences[i];
+            }
+
+            //Fill in the header
+            int end = out.position();
+            out.position(headerPosition);
+            out.putInt(size);
+            out.putInt(end - headerPosition - BLOCK_HEADER_LENGTH);
+            out.putLong(size > 0 ? minTimestamp : 0);
+            out.putLong(size > 0 ? maxTimestamp : 0);
+            out.put((byte)decimalPlaces);
+            out.position(end);
+        }
+
+        /**
+         * Decodes a block header and payload of the current version.
+         * @param in - buffer positioned at the block header. Left after the block.
+         * @throws IOException - if the block is truncated or corrupt
+         */
+        public void decode(ByteBuffer in) throws IOException{
+            decode(in, VERSION);
+        }
+
+        /**
+         * Decodes a block header and payload. The payload is only read up to the length in its header,
+         * so a truncated or corrupt block is reported instead of reading past it. The block is empty afterwards.
+         * @param in - buffer positioned at the block header. Left after the block.
+         * @param version - the version of the file holding the block
+         * @throws IOException - if the block is truncated or corrupt
+         */
+        public void decode(ByteBuffer in, int version) throws IOException{
+            size = 0;
+            if(in.remaining() < BLOCK_HEADER_LENGTH){
+                throw new IOException("Truncated block header at " + in.position());
+            }
+            int count = in.getInt();
+            int payloadLength = in.getInt();
+            in.getLong();
+            in.getLong();
+            int decimalPlaces = in.get();
+            if(count < 0 || count > BLOCK_READINGS || payloadLength < 0 || payloadLength > in.remaining()
+                    || decimalPlaces < 0 || decimalPlaces > MAX_DECIMAL_PLACES){
+                throw new IOException("Corrupt block header at " + (in.position() - BLOCK_HEADER_LENGTH));
+            }
+
+            int limit = in.limit();
+            int payloadEnd = in.position() + payloadLength;
+            in.limit(payloadEnd);
+            try{
+                decodePayload(in, count, SCALES[decimalPlaces], version);
+            }catch(BufferUnderflowException e){
+                throw new IOException("Corrupt block payload ending at " + payloadEnd);
+            }finally{
+                in.limit(limit);
+            }
+            in.position(payloadEnd);
+            size = count;
+        }
+
+        //Decodes the readings of the payload
+        private void decodePayload(ByteBuffer in, int readings, double scale, int version){
+            clearPrevious(version);
+
+            for(int i=0; i<readings; i++){
+                long header = readVarint(in);
+                int channel = (int)(header & 1);
+                channels[i] = (byte)channel;
+
+                int count = SensorFrameParser.fieldCountOf(channel);
+                long value = 0;
+                for(int f=0; f<count; f++){
+                    int previous = channel*SensorFrameParser.MAX_FIELD_COUNT + f;
+                    value = previousFields[previous] + unzigzag(readVarint(in));
+                    previousFields[previous] = value;
+                    fields[i*SensorFrameParser.MAX_FIELD_COUNT + f] = value/scale;
+                }
+
+                if(version >= 3){
+                    //The last field is the interval
+                    long timestamp = previousTimestamps[channel] + unzigzag(header >>> 3) + Math.round(value/scale);
+                    timestamps[i] = timestamp;
+                    previousTimestamps[channel] = timestamp;
+
+                    long nanos = previousReceiveNanos;
+                    if((header & SAME_RECEIVE_NANOS) == 0){
+                        nanos += (timestamp - previousTimestamp)*1000000 + unzigzag(readVarint(in));
+                    }
+                    receiveNanos[i] = nanos;
+                    previousTimestamp = timestamp;
+                    previousReceiveNanos = nanos;
+
+                    long sequence = nextSequence(previousSequences[channel]);
+                    if((header & NEXT_SEQUENCE) == 0){
+                        sequence = previousSequences[channel] + unzigzag(readVarint(in));
+                    }
+                    sequences[i] = (int)sequence;
+                    previousSequences[channel] = sequence;
+                }
+                else{
+                    long timestamp = previousTimestamps[channel] + unzigzag(header >>> 1);
+                    timestamps[i] = timestamp;
+                    previousTimestamps[channel] = timestamp;
+
+                    if(version >= 2){
+                        long nanos = previousNanos[channel] + unzigzag(readVarint(in));
+                        receiveNanos[i] = nanos;
+                        previousNanos[channel] = nanos;
+                        long sequence = previousSequences[channel] + unzigzag(readVarint(in));
+                        sequences[i] = (int)sequence;
+                        previousSequences[channel] = sequence;
+                    }
+                    else{
+                        receiveNanos[i] = 0;
+                        sequences[i] = SensorRecord.NO_SEQUENCE;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Empties the block.
+         */
+        public void clear(){
+            size = 0;
+        }
+
+        private void clearPrevious(int version){
+            for(int i=0; i<previousTimestamps.length; i++){
+                previousTimestamps[i] = 0;
+            }
+            for(int i=0; i<previousFields.length; i++){
+                previousFields[i] = 0;
+            }
+            for(int i=0; i<CHANNEL_COUNT; i++){
+                previousNanos[i] = 0;
+                previousSequences[i] = version >= 3 ? SensorRecord.NO_SEQUENCE : 0;
+            }
+            previousTimestamp = 0;
+            previousReceiveNanos = 0;
+        }
+
+        //Sequence expected after the previous sequence of a channel
+        private static long nextSequence(long previous){
+            return previous == SensorRecord.NO_SEQUENCE ? SensorRecord.NO_SEQUENCE : previous + 1;
+        }
+    }
+
+    /**
+     * Writes the file header.
+     */
+    public static void writeHeader(ByteBuffer out){
+        out.put(MAGIC);
+        out.put((byte)VERSION);
+        out.put((byte)0);
+        out.put((byte)0);
+        out.put((byte)0);
+    }
+
+    /**
+     * @param in - buffer positioned at the start of a file
+     * @return - true if the buffer starts with a supported file header
+     */
+    public static boolean readHeader(ByteBuffer in){
+        return readVersion(in) != 0;
+    }
+
+    /**
+     * @param in - buffer positioned at the start of a file
+     * @return - the version of the file, or 0 if the buffer does not start with a supported file header
+     */
+    public static int readVersion(ByteBuffer in){
+        if(in.remaining() < HEADER_LENGTH){
+            return 0;
+        }
+        for(int i=0; i<MAGIC.length; i++){
+            if(in.get() != MAGIC[i]){
+                return 0;
+            }
+        }
+        int version = in.get();
+        in.get();
+        in.get();
+        in.get();
+        return version >= MIN_VERSION && version <= VERSION ? version : 0;
+    }
+
+    /**
+     * @param channel - an open file
+     * @return - the version of the file, or 0 if the file does not start with a supported file header
+     */
+    public static int readVersion(FileChannel channel) throws IOException{
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        return readFully(channel, header, 0, HEADER_LENGTH) ? readVersion(header) : 0;
+    }
+
+    /**
+     * Finds the end of the last complete block of a file that has no block index, e.g. the session file
+     * of a recording that was interrupted while a block was being written.
+     * @param channel - an open session file
+     * @return - the length of the header and the complete blocks, or 0 if the file does not start with a header of this version
+     */
+    public static long completeLength(FileChannel channel) throws IOException{
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(Math.max(HEADER_LENGTH, BLOCK_HEADER_LENGTH));
+        if(!readFully(channel, header, 0, HEADER_LENGTH) || readVersion(header) != VERSION){
+            return 0;
+        }
+
+        long position = HEADER_LENGTH;
+        while(readFully(channel, header, position, BLOCK_HEADER_LENGTH)){
+            int count = header.getInt();
+            int payloadLength = header.getInt();
+            long end = position + BLOCK_HEADER_LENGTH + payloadLength;
+            if(count <= 0 || count > BLOCK_READINGS || payloadLength < 0 || end > size){
+                break;
+            }
+            position = end;
+        }
+        return position;
+    }
+
+    //Reads length bytes at a position into the start of the buffer and flips it, returning false at the end of the file
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException{
+        buffer.clear();
+        buffer.limit(length);
+        while(buffer.hasRemaining()){
+            if(channel.read(buffer, position + buffer.position()) < 0){
+                return false;
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+
+    static long zigzag(long value){
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value){
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    //Writes 7 bits per byte, low bits first, with the high bit set on all but the last byte
+    static void writeVarint(ByteBuffer out, long value){
+        while((value & ~0x7FL) != 0){
+            out.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte)value);
+    }
+
+    static long readVarint(ByteBuffer in){
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do{
+            b = in.get();
+            value |= (long)(b & 0x7F) << shift;
+            shift += 7;
+        }while((b & 0x80) != 0);
+        return value;
+    }
+}
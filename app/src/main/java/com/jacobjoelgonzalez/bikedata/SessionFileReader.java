@@ -0,0 +1,354 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Reads binary session files written by SessionFileWriter.
+ * The file is memory-mapped and blocks are decoded straight from the mapping.
+ * The block index is loaded when the file is opened, so a reading index or time range can be read
+ * by decoding only the blocks that hold it. Files without an index are indexed by walking their block headers.
+ */
+public class SessionFileReader extends SessionReader {
+
+    //Version of the file format
+    private final int version;
+
+    //Block index
+    private long[] blockOffsets;
+    private long[] blockFirstReadings;
+    private long[] blockMinTimestamps;
+    private long[] blockMaxTimestamps;
+    private int blockCount;
+    private long readingCount;
+
+    /**
+     * Opens a session file and loads its block index.
+     * @param file - the file to read
+     * @throws IOException - if the file can not be read or is not a session file
+     */
+    public SessionFileReader(File file) throws IOException{
+        this(map(file));
+        if(!SessionFileFormat.readHeader(data.duplicate())){
+            throw new IOException("Not a session file: " + file);
+        }
+    }
+
+    /**
+     * @param mappedFile - a mapped session file, starting with a valid header
+     */
+    SessionFileReader(MappedByteBuffer mappedFile){
+        super(mappedFile);
+        version = SessionFileFormat.readVersion(data.duplicate());
+        if(!readIndex()){
+            scanBlocks();
+        }
+    }
+
+    @Override
+    public long getReadingCount(){
+        return readingCount;
+    }
+
+    /**
+     * @return - the version of the file format, which tells if receive nanos and sequences were recorded
+     */
+    public int getVersion(){
+        return version;
+    }
+
+    /**
+     * @return - the number of blocks in the file
+     */
+    public int getBlockCount(){
+        return blockCount;
+    }
+
+    /**
+     * @param timestamp - a time in milliseconds
+     * @return - the first block that may hold readings at or after the time, or getBlockCount() if there is none
+     */
+    public int findBlockByTime(long timestamp){
+        for(int i=0; i<blockCount; i++){
+            if(blockMaxTimestamps[i] >= timestamp){
+                return i;
+            }
+        }
+        return blockCount;
+    }
+
+    /**
+     * @param readingIndex - index of a reading in the file
+     * @return - the block holding the reading
+     */
+    public int findBlockByReading(long readingIndex){
+        int low = 0;
+        int high = blockCount - 1;
+        while(low < high){
+            int middle = (low + high + 1) >>> 1;
+            if(blockFirstReadings[middle] <= readingIndex){
+                low = middle;
+            }
+            else{
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Decodes a block from the mapped file.
+     * @param block - index of the block
+     * @param out - the block to decode into
+     * @throws IOException - if the block is truncated or corrupt
+     */
+    public void readBlock(int block, SessionFileFormat.Block out) throws IOException{
+        ByteBuffer in = data.duplicate();
+        in.position((int)blockOffsets[block]);
+        out.decode(in, version);
+    }
+
+    @Override
+    public Cursor cursorAt(long readingIndex){
+        if(readingIndex >= readingCount){
+            return new Cursor(blockCount, 0, Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+        int block = findBlockByReading(readingIndex);
+        return new Cursor(block, (int)(readingIndex - blockFirstReadings[block]), Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public Cursor cursorAtTime(long timestamp){
+        return cursor(timestamp, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param fromTime - the earliest time in milliseconds to read
+     * @param toTime - the time in milliseconds to stop reading at
+     * @return - a cursor over the readings received in the given time range
+     */
+    public Cursor cursor(long fromTime, long toTime){
+        return new Cursor(findBlockByTime(fromTime), 0, fromTime, toTime);
+    }
+
+    //Loads the block index from the end of the file. Returns false if the file has no index or the index
+    //does not match the blocks, which are then scanned instead.
+    private boolean readIndex(){
+        ByteBuffer in = data.duplicate();
+        int size = in.limit();
+        if(size < SessionFileFormat.HEADER_LENGTH + SessionFileFormat.FOOTER_LENGTH){
+            return false;
+        }
+
+        in.position(size - SessionFileFormat.FOOTER_LENGTH);
+        long indexOffset = in.getLong();
+        int count = in.getInt();
+        for(int i=0; i<SessionFileFormat.INDEX_MAGIC.length; i++){
+            if(in.get() != SessionFileFormat.INDEX_MAGIC[i]){
+                return false;
+            }
+        }
+        if(count < 0 || indexOffset < SessionFileFormat.HEADER_LENGTH
+                || indexOffset + (long)count*SessionFileFormat.INDEX_ENTRY_LENGTH != size - SessionFileFormat.FOOTER_LENGTH){
+            return false;
+        }
+
+        in.position((int)indexOffset);
+        allocateIndex(count);
+        long firstReading = 0;
+        long blockStart = SessionFileFormat.HEADER_LENGTH;
+        for(int i=0; i<count; i++){
+            long offset = in.getLong();
+            long first = in.getLong();
+            long minTimestamp = in.getLong();
+            long maxTimestamp = in.getLong();
+            int readings = in.getInt();
+
+            //Blocks must follow each other before the index, with matching reading counts
+            if(offset < blockStart || offset + SessionFileFormat.BLOCK_HEADER_LENGTH > indexOffset
+                    || first != firstReading || readings <= 0 || readings > SessionFileFormat.BLOCK_READINGS){
+                return false;
+            }
+            addBlock(offset, first, minTimestamp, maxTimestamp, readings);
+            firstReading += readings;
+            blockStart = offset + SessionFileFormat.BLOCK_HEADER_LENGTH;
+        }
+        return true;
+    }
+
+    //Builds the block index from the block headers, e.g. for a file that was not closed
+    private void scanBlocks(){
+        allocateIndex(16);
+        ByteBuffer in = data.duplicate();
+        int size = in.limit();
+        long position = SessionFileFormat.HEADER_LENGTH;
+        long firstReading = 0;
+
+        while(position + SessionFileFormat.BLOCK_HEADER_LENGTH <= size){
+            in.position((int)position);
+            int count = in.getInt();
+            int payloadLength = in.getInt();
+            long minTimestamp = in.getLong();
+            long maxTimestamp = in.getLong();
+
+            //Stop at an incomplete block
+            long end = position + SessionFileFormat.BLOCK_HEADER_LENGTH + payloadLength;
+            if(count <= 0 || count > SessionFileFormat.BLOCK_READINGS || payloadLength < 0 || end > size){
+                break;
+            }
+
+            addBlock(position, firstReading, minTimestamp, maxTimestamp, count);
+            firstReading += count;
+            position = end;
+        }
+    }
+
+    private void allocateIndex(int capacity){
+        capacity = Math.max(capacity, 1);
+        blockOffsets = new long[capacity];
+        blockFirstReadings = new long[capacity];
+        blockMinTimestamps = new long[capacity];
+        blockMaxTimestamps = new long[capacity];
+        blockCount = 0;
+        readingCount = 0;
+    }
+
+    private void addBlock(long offset, long firstReading, long minTimestamp, long maxTimestamp, int size){
+        //Grow index
+        if(blockCount == blockOffsets.length){
+            long[] offsets = new long[blockCount*2];
+            long[] firstReadings = new long[blockCount*2];
+            long[] minTimestamps = new long[blockCount*2];
+            long[] maxTimestamps = new long[blockCount*2];
+            System.arraycopy(blockOffsets, 0, offsets, 0, blockCount);
+            System.arraycopy(blockFirstReadings, 0, firstReadings, 0, blockCount);
+            System.arraycopy(blockMinTimestamps, 0, minTimestamps, 0, blockCount);
+            System.arraycopy(blockMaxTimestamps, 0, maxTimestamps, 0, blockCount);
+            blockOffsets = offsets;
+            blockFirstReadings = firstReadings;
+            blockMinTimestamps = minTimestamps;
+            blockMaxTimestamps = maxTimestamps;
+        }
+
+        blockOffsets[blockCount] = offset;
+        blockFirstReadings[blockCount] = firstReading;
+        blockMinTimestamps[blockCount] = minTimestamp;
+        blockMaxTimestamps[blockCount] = maxTimestamp;
+        blockCount++;
+        readingCount = firstReading + size;
+    }
+
+    /**
+     * Reads the readings of a time range in order, decoding one block at a time from the mapped file.
+     * A cursor must only be used by one thread.
+     */
+    public class Cursor implements ReadingCursor{
+
+        private final SessionFileFormat.Block block = new SessionFileFormat.Block();
+        private final ByteBuffer in = data.duplicate();
+        private final long fromTime;
+        private final long toTime;
+
+        //Next block to decode
+        private int nextBlock;
+
+        //Index of the first reading of the decoded block
+        private long blockStart = 0;
+
+        //Index of the current reading in the block
+        private int index;
+
+        Cursor(int firstBlock, int firstReading, long from, long to){
+            nextBlock = firstBlock;
+            index = firstReading - 1;
+            fromTime = from;
+            toTime = to;
+        }
+
+        /**
+         * @throws IOException - if the next block is truncated or corrupt
+         */
+        @Override
+        public boolean next() throws IOException{
+            while(true){
+                index++;
+
+                //Decode the next block that overlaps the time range
+                while(index >= block.size){
+                    while(nextBlock < blockCount
+                            && (blockMaxTimestamps[nextBlock] < fromTime || blockMinTimestamps[nextBlock] >= toTime)){
+                        nextBlock++;
+                    }
+                    if(nextBlock >= blockCount){
+                        block.clear();
+                        index = 0;
+                        return false;
+                    }
+
+                    //Skip readings before the start of the first block
+                    int skip = block.size == 0 && index > 0 ? index : 0;
+
+                    in.position((int)blockOffsets[nextBlock]);
+                    block.decode(in, version);
+                    blockStart = blockFirstReadings[nextBlock];
+                    nextBlock++;
+                    index = skip;
+                }
+
+                long timestamp = block.timestamps[index];
+                if(timestamp >= fromTime && timestamp < toTime){
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        public long index(){
+            return blockStart + index;
+        }
+
+        @Override
+        public long timestamp(){
+            return block.timestamps[index];
+        }
+
+        @Override
+        public long receiveNanos(){
+            return block.receiveNanos[index];
+        }
+
+        @Override
+        public int sequence(){
+            return block.sequences[index];
+        }
+
+        @Override
+        public int channel(){
+            return block.channels[index];
+        }
+
+        @Override
+        public int fieldCount(){
+            return SensorFrameParser.fieldCountOf(block.channels[index]);
+        }
+
+        @Override
+        public double field(int field){
+            return block.fields[index*SensorFrameParser.MAX_FIELD_COUNT + field];
+        }
+
+        @Override
+        public double interval(){
+            return field(fieldCount() - 1);
+        }
+
+        @Override
+        public int copyFields(double[] out){
+            int count = fieldCount();
+            System.arraycopy(block.fields, index*SensorFrameParser.MAX_FIELD_COUNT, out, 0, count);
+            return count;
+        }
+    }
+}
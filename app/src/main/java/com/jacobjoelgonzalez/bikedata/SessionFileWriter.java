@@ -0,0 +1,162 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes readings to a binary session file as described in SessionFileFormat.
+ * Readings are collected into a block, which is encoded and written once it is full.
+ * The block index and footer are written by close().
+ */
+public class SessionFileWriter {
+
+    private final FileOutputStream stream;
+    private final FileChannel channel;
+
+    //Block being filled and the buffer it is encoded into
+    private final SessionFileFormat.Block block = new SessionFileFormat.Block();
+    private final ByteBuffer buffer = ByteBuffer.allocate(SessionFileFormat.MAX_BLOCK_LENGTH);
+
+    //Block index, grown as blocks are written
+    private long[] blockOffsets = new long[16];
+    private long[] blockFirstReadings = new long[16];
+    private long[] blockMinTimestamps = new long[16];
+    private long[] blockMaxTimestamps = new long[16];
+    private int[] blockSizes = new int[16];
+    private int blockCount = 0;
+
+    //Bytes written to the file
+    private long position = 0;
+
+    //Readings written to the file
+    private long readingCount = 0;
+
+    /**
+     * Creates the file and writes the file header.
+     * @param file - the file to write
+     */
+    public SessionFileWriter(File file) throws IOException{
+        stream = new FileOutputStream(file);
+        channel = stream.getChannel();
+
+        buffer.clear();
+        SessionFileFormat.writeHeader(buffer);
+        write();
+    }
+
+    /**
+     * Adds a reading to the file.
+     * @param timestamp - the time the reading was received in milliseconds
+     * @param channel - Constants.CHANNEL_PEDAL or Constants.CHANNEL_TIRE
+     * @param fields - the numeric fields of the reading
+     * @param fieldCount - the number of valid values in fields
+     */
+    public void append(long timestamp, int channel, double[] fields, int fieldCount) throws IOException{
+        if(block.add(timestamp, channel, fields, fieldCount)){
+            writeBlock();
+        }
+    }
+
+    /**
+     * Adds a reading with its monotonic receive time and sequence number to the file.
+     * @param record - the reading, stamped with its receive times
+     */
+    public void append(SensorRecord record) throws IOException{
+        if(block.add(record)){
+            writeBlock();
+        }
+    }
+
+    /**
+     * @return - the number of readings added to the file
+     */
+    public long getReadingCount(){
+        return readingCount + block.size;
+    }
+
+    /**
+     * Writes the last block, the block index and the footer, and closes the file.
+     */
+    public void close() throws IOException{
+        try{
+            writeBlock();
+
+            //Block index
+            long indexOffset = position;
+            for(int i=0; i<blockCount; i++){
+                if(buffer.remaining() < SessionFileFormat.INDEX_ENTRY_LENGTH){
+                    write();
+                }
+                buffer.putLong(blockOffsets[i]);
+                buffer.putLong(blockFirstReadings[i]);
+                buffer.putLong(blockMinTimestamps[i]);
+                buffer.putLong(blockMaxTimestamps[i]);
+                buffer.putInt(blockSizes[i]);
+            }
+
+            //Footer
+            if(buffer.remaining() < SessionFileFormat.FOOTER_LENGTH){
+                write();
+            }
+            buffer.putLong(indexOffset);
+            buffer.putInt(blockCount);
+            buffer.put(SessionFileFormat.INDEX_MAGIC);
+            write();
+        }finally{
+            stream.close();
+        }
+    }
+
+    //Encodes and writes the current block and adds it to the index
+    private void writeBlock() throws IOException{
+        if(block.size == 0){
+            return;
+        }
+
+        buffer.clear();
+        long offset = position;
+        block.encode(buffer);
+
+        //Grow index
+        if(blockCount == blockOffsets.length){
+            int length = blockCount*2;
+            blockOffsets = copyOf(blockOffsets, length);
+            blockFirstReadings = copyOf(blockFirstReadings, length);
+            blockMinTimestamps = copyOf(blockMinTimestamps, length);
+            blockMaxTimestamps = copyOf(blockMaxTimestamps, length);
+            int[] sizes = new int[length];
+            System.arraycopy(blockSizes, 0, sizes, 0, blockCount);
+            blockSizes = sizes;
+        }
+
+        //Timestamps are in the block header
+        blockOffsets[blockCount] = offset;
+        blockFirstReadings[blockCount] = readingCount;
+        blockMinTimestamps[blockCount] = buffer.getLong(8);
+        blockMaxTimestamps[blockCount] = buffer.getLong(16);
+        blockSizes[blockCount] = block.size;
+        blockCount++;
+
+        readingCount += block.size;
+        block.clear();
+        write();
+    }
+
+    //Writes the buffer to the file and clears it
+    private void write() throws IOException{
+        buffer.flip();
+        while(buffer.hasRemaining()){
+            position += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static long[] copyOf(long[] array, int length){
+        long[] copy = new long[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+}
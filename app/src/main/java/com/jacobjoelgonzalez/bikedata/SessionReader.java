@@ -0,0 +1,81 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads recorded rides from memory-mapped files, in the binary session format or the tab-delimited text layout.
+ * Readings are decoded straight from the mapped file, so large rides use little heap.
+ * Both formats support starting at any reading index or time.
+ */
+public abstract class SessionReader {
+
+    //The mapped file
+    protected final MappedByteBuffer data;
+
+    protected SessionReader(MappedByteBuffer mappedFile){
+        data = mappedFile;
+    }
+
+    /**
+     * Opens a recorded ride, choosing the reader based on the file header.
+     * @param file - a binary session file or a text file
+     * @return - a reader for the file
+     * @throws IOException - if the file can not be mapped
+     */
+    public static SessionReader open(File file) throws IOException{
+        MappedByteBuffer data = map(file);
+        if(SessionFileFormat.readHeader(data.duplicate())){
+            return new SessionFileReader(data);
+        }
+        return new TextSessionReader(data);
+    }
+
+    /**
+     * Maps a file read-only.
+     * @param file - the file to map
+     * @return - the mapped file
+     * @throws IOException - if the file can not be mapped
+     */
+    static MappedByteBuffer map(File file) throws IOException{
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+        try{
+            FileChannel channel = access.getChannel();
+            if(channel.size() > Integer.MAX_VALUE){
+                throw new IOException("Session file too large to map: " + file);
+            }
+
+            //The mapping stays valid after the file is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }finally{
+            access.close();
+        }
+    }
+
+    /**
+     * @return - the number of readings in the file
+     */
+    public abstract long getReadingCount();
+
+    /**
+     * @param readingIndex - index of the first reading to read
+     * @return - a cursor starting at the given reading
+     */
+    public abstract ReadingCursor cursorAt(long readingIndex);
+
+    /**
+     * @param timestamp - the earliest time in milliseconds to read
+     * @return - a cursor starting at the first reading received at or after the given time
+     */
+    public abstract ReadingCursor cursorAtTime(long timestamp);
+
+    /**
+     * @return - a cursor over every reading in the file
+     */
+    public ReadingCursor cursor(){
+        return cursorAt(0);
+    }
+}
@@ -0,0 +1,486 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records sensor readings to a session file while the sensor is connected, so a ride is not lost
+ * if the app is killed before it is saved.
+ *
+ * The session file is a binary session file as described in SessionFileFormat, so every field, receive time
+ * and sequence number of a SensorRecord is kept. Readings are added to a pending block by the reading thread.
+ * A background writer swaps the pending block out, encodes it and writes it with a single FileChannel write
+ * once FLUSH_READINGS readings are waiting or FLUSH_INTERVAL_MS has passed since the last write, so each write
+ * is a complete block. The file has no block index, which readers rebuild from the block headers.
+ * Saving renames the session file to the chosen file and starts a new session file. A session file left behind
+ * by a killed app is continued on the next start, after dropping a block that was only partly written.
+ * One left in an older version of the format is first rewritten in the current version, and one that can not be
+ * read, e.g. from a newer version of the app, is moved aside, so an unsaved ride is never truncated.
+ */
+public class SessionRecorder {
+
+    //Readings waiting in the pending block that trigger a write
+    public static final int FLUSH_READINGS = 1024;
+
+    //Longest time readings wait in the pending block
+    public static final long FLUSH_INTERVAL_MS = 1000;
+
+    //File the current session is recorded to
+    private final File sessionFile;
+
+    //Guards the buffers and the writer state
+    private final Object lock = new Object();
+
+    //Block the reading thread adds readings to. Readings are dropped if the writer falls a full block behind.
+    private SessionFileFormat.Block pending = new SessionFileFormat.Block();
+
+    //Block the writer thread writes to the file
+    private SessionFileFormat.Block writing = new SessionFileFormat.Block();
+
+    //Buffer the writing block is encoded into
+    private final ByteBuffer encoded = ByteBuffer.allocate(SessionFileFormat.MAX_BLOCK_LENGTH);
+
+    private writerThread writer = null;
+    private FileChannel channel = null;
+
+    //Save request handed to the writer thread
+    private File saveTarget = null;
+    private boolean saveDone = false;
+    private boolean saveResult = false;
+
+    //Statistics
+    private volatile long bytesWritten = 0;
+    private volatile long flushCount = 0;
+    private volatile long lastFlushNanos = 0;
+    private volatile long maxFlushNanos = 0;
+    private volatile long totalFlushNanos = 0;
+    private volatile long droppedReadingCount = 0;
+    private volatile long recordingStartNanos = 0;
+    private volatile long recordingNanos = 0;
+
+    /**
+     * @param directory - the directory to keep the session file in. Saving is fastest if this is the save directory.
+     */
+    public SessionRecorder(File directory){
+        directory.mkdirs();
+        sessionFile = new File(directory, ".session" + SessionFileFormat.FILE_EXTENSION);
+    }
+
+    /**
+     * Starts recording, continuing any session file that was not saved.
+     * Waits for the writer of a previous recording to finish its last write.
+     */
+    public void start(){
+        synchronized(lock){
+            while(writer != null && !writer.running){
+                try{
+                    lock.wait();
+                }catch(InterruptedException e){
+                    return;
+                }
+            }
+            if(writer != null){
+                return;
+            }
+
+            try{
+                channel = openSessionFile();
+            }catch(IOException e){
+                return;
+            }
+
+            pending.clear();
+            recordingStartNanos = System.nanoTime();
+            writer = new writerThread();
+            writer.start();
+        }
+    }
+
+    /**
+     * Stops recording without waiting, so it can be called from the UI thread. The writer thread writes
+     * the pending readings and closes the session file by itself. The session file is kept until it is saved.
+     */
+    public void stop(){
+        synchronized(lock){
+            if(writer == null){
+                return;
+            }
+            writer.running = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return - true while readings are being recorded
+     */
+    public boolean isRecording(){
+        synchronized(lock){
+            return writer != null;
+        }
+    }
+
+    /**
+     * Adds a reading to the session file. Called from the reading thread.
+     * @param record - the reading with its receive times
+     */
+    public void append(SensorRecord record){
+        synchronized(lock){
+            if(writer == null){
+                return;
+            }
+
+            //Writer has fallen behind
+            if(pending.size == SessionFileFormat.BLOCK_READINGS){
+                droppedReadingCount++;
+                return;
+            }
+
+            pending.add(record);
+
+            if(pending.size >= FLUSH_READINGS){
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Moves the recorded session to the given file and starts a new session file.
+     * Blocks until the pending readings have been written.
+     * @param target - the file to save the session as
+     * @return - true if the session was saved
+     */
+    public boolean save(File target){
+        synchronized(lock){
+            //Not recording, move the file directly
+            if(writer == null){
+                return moveSessionFile(target);
+            }
+
+            //Let the writer thread move the file after its next write
+            saveTarget = target;
+            saveDone = false;
+            lock.notifyAll();
+            while(!saveDone){
+                try{
+                    lock.wait();
+                }catch(InterruptedException e){
+                    return false;
+                }
+            }
+            return saveResult;
+        }
+    }
+
+    /**
+     * @return - the number of bytes written to session files
+     */
+    public long getBytesWritten(){
+        return bytesWritten;
+    }
+
+    /**
+     * @return - the average number of bytes written per second while recording
+     */
+    public double getBytesPerSecond(){
+        long nanos = recordingNanos;
+        synchronized(lock){
+            if(writer != null){
+                nanos += System.nanoTime() - recordingStartNanos;
+            }
+        }
+        return nanos > 0 ? bytesWritten*1e9/nanos : 0;
+    }
+
+    /**
+     * @return - the number of writes to session files
+     */
+    public long getFlushCount(){
+        return flushCount;
+    }
+
+    /**
+     * @return - the duration of the last write in nanoseconds
+     */
+    public long getLastFlushNanos(){
+        return lastFlushNanos;
+    }
+
+    /**
+     * @return - the duration of the slowest write in nanoseconds
+     */
+    public long getMaxFlushNanos(){
+        return maxFlushNanos;
+    }
+
+    /**
+     * @return - the average duration of a write in nanoseconds
+     */
+    public long getAverageFlushNanos(){
+        long count = flushCount;
+        return count > 0 ? totalFlushNanos/count : 0;
+    }
+
+    /**
+     * @return - the number of readings waiting for the next write
+     */
+    public int getPendingCount(){
+        synchronized(lock){
+            return pending.size;
+        }
+    }
+
+    /**
+     * @return - the number of readings that were not recorded because the writer fell behind
+     */
+    public long getDroppedReadingCount(){
+        return droppedReadingCount;
+    }
+
+    //Opens the session file for appending, writing the file header to a new file
+    //and dropping a block that was only partly written to an old one
+    private FileChannel openSessionFile() throws IOException{
+        upgradeSessionFile();
+        FileChannel file = new RandomAccessFile(sessionFile, "rw").getChannel();
+        try{
+            long length = SessionFileFormat.completeLength(file);
+            file.truncate(length);
+            file.position(length);
+            if(length == 0){
+                ByteBuffer header = ByteBuffer.allocate(SessionFileFormat.HEADER_LENGTH);
+                SessionFileFormat.writeHeader(header);
+                header.flip();
+                while(header.hasRemaining()){
+                    file.write(header);
+                }
+            }
+        }catch(IOException e){
+            file.close();
+            throw e;
+        }
+        return file;
+    }
+
+    //Rewrites a session file of an older version in the current version, keeping its complete blocks,
+    //and moves a session file that is not of a supported version aside. The writing block and the encoding buffer
+    //are free while the session file is opened.
+    private void upgradeSessionFile() throws IOException{
+        //A shorter file has no readings
+        if(sessionFile.length() < SessionFileFormat.HEADER_LENGTH){
+            return;
+        }
+
+        int version;
+        FileChannel file = new FileInputStream(sessionFile).getChannel();
+        try{
+            version = SessionFileFormat.readVersion(file);
+        }finally{
+            file.close();
+        }
+        if(version == SessionFileFormat.VERSION){
+            return;
+        }
+        if(version == 0){
+            File unreadable = new File(sessionFile.getParentFile(),
+                    "unreadable-session-" + System.currentTimeMillis() + SessionFileFormat.FILE_EXTENSION);
+            if(!sessionFile.renameTo(unreadable)){
+                throw new IOException("Unable to move " + sessionFile);
+            }
+            return;
+        }
+
+        SessionFileReader reader = new SessionFileReader(sessionFile);
+        File upgraded = new File(sessionFile.getPath() + ".upgrade");
+        FileChannel out = new FileOutputStream(upgraded).getChannel();
+        try{
+            encoded.clear();
+            SessionFileFormat.writeHeader(encoded);
+            encoded.flip();
+            while(encoded.hasRemaining()){
+                out.write(encoded);
+            }
+
+            for(int i=0; i<reader.getBlockCount(); i++){
+                //Keep the blocks before a corrupt one
+                try{
+                    reader.readBlock(i, writing);
+                }catch(IOException e){
+                    break;
+                }
+                encoded.clear();
+                writing.encode(encoded);
+                encoded.flip();
+                while(encoded.hasRemaining()){
+                    out.write(encoded);
+                }
+            }
+        }finally{
+            writing.clear();
+            out.close();
+        }
+
+        if(!upgraded.renameTo(sessionFile)){
+            throw new IOException("Unable to replace " + sessionFile);
+        }
+    }
+
+    //Writes the writing block to the session file
+    private void flush(){
+        if(writing.size == 0){
+            return;
+        }
+
+        long start = System.nanoTime();
+        encoded.clear();
+        writing.encode(encoded);
+        encoded.flip();
+        int length = encoded.remaining();
+        try{
+            while(encoded.hasRemaining()){
+                channel.write(encoded);
+            }
+        }catch(IOException e){
+            droppedReadingCount += writing.size;
+            Metrics.SAVE_FAILURES.increment();
+        }
+        writing.clear();
+        long duration = System.nanoTime() - start;
+        Metrics.FLUSH.record(duration);
+        Metrics.SAVE_BYTES.add(length);
+
+        //Update statistics
+        bytesWritten += length;
+        flushCount++;
+        lastFlushNanos = duration;
+        totalFlushNanos += duration;
+        if(duration > maxFlushNanos){
+            maxFlushNanos = duration;
+        }
+    }
+
+    //Renames or copies the session file to the target. The channel must be closed.
+    private boolean moveSessionFile(File target){
+        //Nothing was recorded yet
+        if(!sessionFile.exists()){
+            try{
+                return target.createNewFile();
+            }catch(IOException e){
+                return false;
+            }
+        }
+
+        if(sessionFile.renameTo(target)){
+            return true;
+        }
+
+        //Session file is on a different file system than the target
+        FileChannel source = null;
+        FileChannel destination = null;
+        try{
+            source = new FileInputStream(sessionFile).getChannel();
+            destination = new FileOutputStream(target).getChannel();
+            long size = source.size();
+            long position = 0;
+            while(position < size){
+                position += source.transferTo(position, size - position, destination);
+            }
+        }catch(IOException e){
+            return false;
+        }finally{
+            try{
+                if(source != null) source.close();
+                if(destination != null) destination.close();
+            }catch(IOException e){}
+        }
+        return sessionFile.delete();
+    }
+
+    /**
+     * This thread writes pending readings to the session file in batches
+     */
+    private class writerThread extends Thread{
+        //Flag used to exit thread, guarded by the lock
+        private boolean running = true;
+
+        @Override
+        public void run(){
+            long lastFlush = System.currentTimeMillis();
+
+            while(true){
+                boolean stopping;
+                File target;
+
+                synchronized(lock){
+                    //Wait for enough readings, the flush interval, a save or a stop
+                    long waitTime = FLUSH_INTERVAL_MS - (System.currentTimeMillis() - lastFlush);
+                    while(running && saveTarget == null && pending.size < FLUSH_READINGS && waitTime > 0){
+                        try{
+                            lock.wait(waitTime);
+                        }catch(InterruptedException e){}
+                        waitTime = FLUSH_INTERVAL_MS - (System.currentTimeMillis() - lastFlush);
+                    }
+
+                    //Swap blocks so the reading thread can continue while the file is written
+                    SessionFileFormat.Block tmp = writing;
+                    writing = pending;
+                    pending = tmp;
+                    pending.clear();
+
+                    stopping = !running;
+                    target = saveTarget;
+                }
+
+                flush();
+                lastFlush = System.currentTimeMillis();
+
+                //Move the session file and start a new one
+                if(target != null){
+                    boolean result;
+                    try{
+                        channel.close();
+                    }catch(IOException e){}
+                    result = moveSessionFile(target);
+                    try{
+                        channel = openSessionFile();
+                    }catch(IOException e){
+                        stopping = true;
+                    }
+
+                    synchronized(lock){
+                        saveTarget = null;
+                        saveResult = result;
+                        saveDone = true;
+                        lock.notifyAll();
+                    }
+                }
+
+                if(stopping){
+                    break;
+                }
+            }
+
+            //Close the session file
+            try{
+                channel.close();
+            }catch(IOException e){}
+
+            synchronized(lock){
+                recordingNanos += System.nanoTime() - recordingStartNanos;
+                writer = null;
+                channel = null;
+
+                //Save requested while stopping
+                if(saveTarget != null){
+                    saveResult = moveSessionFile(saveTarget);
+                    saveTarget = null;
+                    saveDone = true;
+                }
+                lock.notifyAll();
+            }
+        }
+    }
+}
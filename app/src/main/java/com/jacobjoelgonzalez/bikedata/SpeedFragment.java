@@ -13,16 +13,21 @@ import android.widget.TextView;
 /**
  * Created by Jacob on 12/8/2014.
  */
-public class SpeedFragment extends Fragment implements AdapterView.OnItemSelectedListener, MainActivity.onReadingReceivedListener {
+public class SpeedFragment extends Fragment implements AdapterView.OnItemSelectedListener, ReadingBus.Subscriber {
+
+    //PipelineTrace section of showing a reading
+    private static final String TRACE_SECTION = "SpeedFragment.onReadingReceived";
 
     //Layout views
     TextView speedBox = null;
     TextView speedTenthsValue = null;
+    private TenthsDisplay speedDisplay = null;
 
-    private final int MPH = 2;  //miles per hour
-    private final int KPH = 3;  //kilometers per hour
+    //Shows the rolling average, minimum and maximum speed
+    private RollingStatsDisplay statsDisplay = null;
+    private final RollingStats.Snapshot stats = new RollingStats.Snapshot(RollingStats.DEFAULT_WINDOWS_MS.length);
 
-    private int units = MPH; //Units for calculation function
+    private int units = RideMetrics.MPH; //Units for calculation function
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -38,77 +43,55 @@ public class SpeedFragment extends Fragment implements AdapterView.OnItemSelecte
         //Set view variables
         speedBox = (TextView)fragView.findViewById(R.id.speedValue);
         speedTenthsValue = (TextView)fragView.findViewById(R.id.speedTenthsValue);
+        speedDisplay = new TenthsDisplay(speedBox, speedTenthsValue);
+        statsDisplay = RollingStatsDisplay.fromTable(fragView);
+
+        //Receive readings while the views exist
+        MainActivity.readingBus.register(SensorChannel.TIRE, this);
 
         return fragView;
     }
 
+    @Override
+    public void onDestroyView() {
+        MainActivity.readingBus.unregister(SensorChannel.TIRE, this);
+        super.onDestroyView();
+    }
+
     @Override
     public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
         if(position == 0){
             //Set units for calculation function
-            units = MPH;
+            units = RideMetrics.MPH;
         }
         else{
-            units = KPH;
+            units = RideMetrics.KPH;
         }
     }
 
     @Override
     public void onNothingSelected(AdapterView<?> parent) {}
 
-    /**
-     * Calculates the speed of the bike using the specified UNITS
-     * @param mpr - milliseconds per revolution of bike, retrieved from bluetooth sensor.
-     * @param UNITS - the units that the speed calculation should be in.
-     *              2 = miles/hour
-     *              3 = kilometers/hour
-     * @return - the calculated speed of the bicycle, in the specified units.
-     */
-    public int[] getSpeed(double mpr, int UNITS){
-        if(UNITS == MPH) {
-
-            //Get int value
-            int intVal = (int) ((1250.0 * Math.PI * MainActivity.RADIUS_IN) / (11 * mpr));
-
-            //Get tenths place value
-            double remainder = (1250.0 * Math.PI * MainActivity.RADIUS_IN) % (11 * mpr);
-            int tenthsVal = (int)Math.round((remainder / (11 * mpr)) * 10.0);
-            if(tenthsVal == 10){
-                intVal++;
-                tenthsVal = 0;
-            }
-
-            int[] mphValues = {intVal, tenthsVal};
-
-            return mphValues;
-        }
-        else{
-
-            //Get int value
-            int intVal = (int)((72*Math.PI*MainActivity.RADIUS_CM)/mpr);
-
-            //Get tenths place value
-            double remainder = (72*Math.PI*MainActivity.RADIUS_CM)%mpr;
-            int tenthsVal = (int)Math.round((remainder/mpr)*10.0);
-            if(tenthsVal == 10){
-                intVal++;
-                tenthsVal = 0;
-            }
-
-            int[] kphValues = {intVal, tenthsVal};
-
-            return kphValues;
-        }
-    }
-
     @Override
     public void onReadingReceived(double msPerRev) {
+        PipelineTrace.Sink trace = PipelineTrace.begin(TRACE_SECTION);
+
+        Calibration calibration = MainActivity.calibration;
 
-        //Calculate speed to the nearest integer
-        int[] speedValues = getSpeed(msPerRev, units);
+        //Calculate speed to the nearest tenth
+        long speedTenths = RideMetrics.speedTenths(msPerRev, units, calibration);
 
         //Display speed to UI
-        speedBox.setText(String.valueOf(speedValues[0]));
-        speedTenthsValue.setText(String.valueOf(speedValues[1]));
+        speedDisplay.show(speedTenths);
+
+        //Display speed over the rolling windows, from the tire rpm
+        MainActivity.rollingStats[SensorChannel.TIRE.index].read(System.nanoTime()/1000000, stats);
+        for(int window=0; window<stats.counts.length; window++){
+            statsDisplay.show(window, RollingStatsDisplay.AVERAGE, RideMetrics.rpmSpeedTenths(stats.averages[window], units, calibration));
+            statsDisplay.show(window, RollingStatsDisplay.MINIMUM, RideMetrics.rpmSpeedTenths(stats.minimums[window], units, calibration));
+            statsDisplay.show(window, RollingStatsDisplay.MAXIMUM, RideMetrics.rpmSpeedTenths(stats.maximums[window], units, calibration));
+        }
+
+        PipelineTrace.end(trace);
     }
 }
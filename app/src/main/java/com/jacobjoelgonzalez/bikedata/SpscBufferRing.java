@@ -0,0 +1,175 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed ring of reusable byte buffers passed from one producer thread to one consumer thread without locks,
+ * e.g. from the stage reading a sensor stream to the stage decoding it.
+ *
+ * The producer claims the next free buffer, fills it and publishes it with its length and receive times.
+ * The consumer reads the oldest published buffer and releases it for reuse. Each side only writes its own
+ * sequence number, which is published with an ordered write after the buffer is filled or consumed, so
+ * neither side ever waits for the other. Nothing is allocated after construction.
+ *
+ * Producer and consumer may move between threads, as long as each side is used by one thread at a time
+ * and hands over with a happens-before edge, e.g. by being resubmitted to an executor.
+ */
+public class SpscBufferRing {
+
+    private final byte[][] buffers;
+    private final int[] lengths;
+    private final long[] receiveNanos;
+    private final long[] receiveTimesMs;
+
+    //Sequence number of the next buffer to publish, written by the producer
+    private final AtomicLong tail = new AtomicLong(0);
+
+    //Sequence number of the next buffer to consume, written by the consumer
+    private final AtomicLong head = new AtomicLong(0);
+
+    //Statistics, written by the producer
+    private volatile long fullCount = 0;
+    private volatile int maxOccupancy = 0;
+    private volatile long occupancySum = 0;
+
+    /**
+     * @param bufferCount - the number of buffers in the ring
+     * @param bufferSize - the size of each buffer in bytes
+     */
+    public SpscBufferRing(int bufferCount, int bufferSize){
+        if(bufferCount < 1){
+            throw new IllegalArgumentException("At least one buffer is needed");
+        }
+        buffers = new byte[bufferCount][bufferSize];
+        lengths = new int[bufferCount];
+        receiveNanos = new long[bufferCount];
+        receiveTimesMs = new long[bufferCount];
+    }
+
+    /**
+     * Called by the producer.
+     * @return - the next free buffer to fill, or null if every buffer is waiting to be consumed
+     */
+    public byte[] claim(){
+        long next = tail.get();
+        if(next - head.get() == buffers.length){
+            fullCount++;
+            return null;
+        }
+        return buffers[index(next)];
+    }
+
+    /**
+     * Hands the claimed buffer to the consumer. Called by the producer.
+     * @param length - the number of valid bytes in the buffer
+     * @param nanos - monotonic time the bytes were received in nanoseconds
+     * @param timeMs - wall clock time the bytes were received in milliseconds
+     */
+    public void publish(int length, long nanos, long timeMs){
+        long next = tail.get();
+        int i = index(next);
+        lengths[i] = length;
+        receiveNanos[i] = nanos;
+        receiveTimesMs[i] = timeMs;
+        tail.lazySet(next + 1);
+
+        int occupancy = (int)(next + 1 - head.get());
+        occupancySum += occupancy;
+        if(occupancy > maxOccupancy){
+            maxOccupancy = occupancy;
+        }
+    }
+
+    /**
+     * Called by the consumer.
+     * @return - true if a published buffer is waiting
+     */
+    public boolean hasPublished(){
+        return head.get() != tail.get();
+    }
+
+    /**
+     * Called by the consumer.
+     * @return - the oldest published buffer. Only valid while hasPublished() is true and until release().
+     */
+    public byte[] buffer(){
+        return buffers[index(head.get())];
+    }
+
+    /**
+     * @return - the number of valid bytes in the oldest published buffer
+     */
+    public int length(){
+        return lengths[index(head.get())];
+    }
+
+    /**
+     * @return - the monotonic receive time of the oldest published buffer in nanoseconds
+     */
+    public long receiveNanos(){
+        return receiveNanos[index(head.get())];
+    }
+
+    /**
+     * @return - the wall clock receive time of the oldest published buffer in milliseconds
+     */
+    public long receiveTimeMs(){
+        return receiveTimesMs[index(head.get())];
+    }
+
+    /**
+     * Returns the oldest published buffer to the producer. Called by the consumer.
+     */
+    public void release(){
+        head.lazySet(head.get() + 1);
+    }
+
+    /**
+     * @return - the number of buffers in the ring
+     */
+    public int getCapacity(){
+        return buffers.length;
+    }
+
+    /**
+     * @return - the number of buffers published and not released yet
+     */
+    public int getOccupancy(){
+        //Read head first, so the difference is never negative
+        long consumed = head.get();
+        return (int)(tail.get() - consumed);
+    }
+
+    /**
+     * @return - the most buffers that were waiting at once
+     */
+    public int getMaxOccupancy(){
+        return maxOccupancy;
+    }
+
+    /**
+     * @return - the average number of buffers waiting, including the new one, when a buffer was published
+     */
+    public double getAverageOccupancy(){
+        long published = tail.get();
+        return published > 0 ? (double)occupancySum/published : 0;
+    }
+
+    /**
+     * @return - the number of times the producer found every buffer waiting
+     */
+    public long getFullCount(){
+        return fullCount;
+    }
+
+    /**
+     * @return - the number of buffers published
+     */
+    public long getPublishedCount(){
+        return tail.get();
+    }
+
+    private int index(long seq){
+        return (int)(seq%buffers.length);
+    }
+}
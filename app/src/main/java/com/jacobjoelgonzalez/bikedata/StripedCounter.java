@@ -0,0 +1,52 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can add to without contending on one value, e.g. the readings decoded
+ * by every decoder thread of a SensorHub.
+ *
+ * The count is split over STRIPES cells, each on its own cache line, and each thread adds to the cell
+ * picked by its thread id. Reading the count sums the cells, so it is slower than adding and may miss
+ * additions made during the sum. Nothing is allocated after construction.
+ */
+public class StripedCounter {
+
+    //Number of cells, a power of two
+    private static final int STRIPES = 8;
+
+    //Longs from one cell to the next, so no two cells share a 64 byte cache line
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES*PADDING);
+
+    /**
+     * Adds one to the count.
+     */
+    public void increment(){
+        cells.getAndIncrement(cell());
+    }
+
+    /**
+     * @param delta - the amount to add to the count
+     */
+    public void add(long delta){
+        cells.getAndAdd(cell(), delta);
+    }
+
+    /**
+     * @return - the sum of every addition so far
+     */
+    public long sum(){
+        long sum = 0;
+        for(int stripe=0; stripe<STRIPES; stripe++){
+            sum += cells.get(stripe*PADDING);
+        }
+        return sum;
+    }
+
+    //Index of the cell of the calling thread. Thread ids are handed out in order, so neighbouring threads get different cells.
+    private static int cell(){
+        return (int)(Thread.currentThread().getId() & (STRIPES - 1))*PADDING;
+    }
+}
@@ -0,0 +1,204 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generates a ride like the bike sensor sends it, for testing without a sensor, e.g. into the
+ * sensor stream of a PipeTransport or the socket of a TCP sensor simulator.
+ *
+ * The rider holds a cadence for SEGMENT_MS of ride time before moving to a new one between MIN_CADENCE and
+ * MAX_CADENCE, approaching it over a few revolutions, with a little jitter on every revolution. The tire turns
+ * the cadence times a gear ratio that changes with each segment. The pedal and tire readings are sent in the
+ * order they happen, as text lines or as binary frames after the handshake of firmware that accepted HELLO.
+ *
+ * At REAL_TIME each reading is sent when it happens in the ride, a few readings a second.
+ * Any other rate sends the ride compressed in time at that many readings per second, e.g. 100000
+ * to stress the parsing and dispatch path, or AS_FAST_AS_POSSIBLE without waiting.
+ * Readings are written in batches of at most BATCH_READINGS, the way a socket delivers them.
+ */
+public class SyntheticSensor implements Runnable {
+
+    //Rate that sends each reading at its time in the ride
+    public static final double REAL_TIME = 0;
+
+    //Rate that sends readings without waiting
+    public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+    //Most readings written at a time
+    public static final int BATCH_READINGS = 64;
+
+    //Ride time spent at each cadence
+    private static final double SEGMENT_MS = 30000;
+
+    //Range of the cadences held by the rider
+    private static final double MIN_CADENCE = 60;
+    private static final double MAX_CADENCE = 110;
+
+    //Range of the tire revolutions per pedal revolution
+    private static final double MIN_GEAR = 2.0;
+    private static final double MAX_GEAR = 3.5;
+
+    //Share of the way to the new cadence covered with each revolution
+    private static final double CADENCE_RESPONSE = 0.1;
+
+    //Standard deviation of the cadence of single revolutions in rpm
+    private static final double CADENCE_JITTER = 1.5;
+
+    //Wait while the next reading is not due yet
+    private static final long PAUSE_NANOS = 200000;
+
+    private final OutputStream out;
+    private final double readingsPerSecond;
+    private final boolean binary;
+    private final Random random;
+
+    //Flag used to stop the ride
+    private volatile boolean running = true;
+
+    //State of the rider, in ride time
+    private double cadence;
+    private double targetCadence;
+    private double gear;
+    private double segmentEndMs = 0;
+    private double nextPedalMs;
+    private double nextTireMs;
+    private long pedalCount = 0;
+    private long tireCount = 0;
+
+    //Encoding of the readings
+    private final BinaryFrameEncoder encoder = new BinaryFrameEncoder();
+    private final double[] fields = new double[SensorFrameParser.MAX_FIELD_COUNT];
+    private final byte[] batch = new byte[BATCH_READINGS*Math.max(SensorFrameParser.MAX_LINE_LENGTH, BinaryFrameEncoder.MAX_FRAME_LENGTH)];
+
+    //Statistics
+    private volatile long readingCount = 0;
+    private volatile long bytesWritten = 0;
+
+    /**
+     * @param sensorStream - the stream to write the readings to
+     * @param rate - readings sent per second, REAL_TIME or AS_FAST_AS_POSSIBLE
+     * @param binaryFrames - true to send binary frames, false to send text lines
+     * @param seed - seed of the ride, the same seed gives the same ride
+     */
+    public SyntheticSensor(OutputStream sensorStream, double rate, boolean binaryFrames, long seed){
+        out = sensorStream;
+        readingsPerSecond = rate;
+        binary = binaryFrames;
+        random = new Random(seed);
+
+        startSegment();
+        cadence = targetCadence;
+        nextPedalMs = 60000.0/cadence;
+        nextTireMs = 60000.0/(cadence*gear);
+    }
+
+    /**
+     * Sends the ride until stop() is called or the stream fails, e.g. because the connection was closed. Blocks until done.
+     */
+    @Override
+    public void run(){
+        long startNanos = System.nanoTime();
+        try{
+            if(binary){
+                int length = encoder.encodeHandshake(batch, 0);
+                out.write(batch, 0, length);
+                bytesWritten += length;
+            }
+
+            while(running){
+                long elapsedNanos = System.nanoTime() - startNanos;
+                int readings = 0;
+                int length = 0;
+                while(readings < BATCH_READINGS && isDue(readings, elapsedNanos)){
+                    length += nextReading(batch, length);
+                    readings++;
+                }
+
+                if(readings == 0){
+                    LockSupport.parkNanos(PAUSE_NANOS);
+                    continue;
+                }
+                out.write(batch, 0, length);
+                out.flush();
+                readingCount += readings;
+                bytesWritten += length;
+            }
+        }catch(IOException e){
+            //Connection closed
+        }
+    }
+
+    /**
+     * Stops the ride after the batch being written.
+     */
+    public void stop(){
+        running = false;
+    }
+
+    /**
+     * @return - the number of readings written
+     */
+    public long getReadingCount(){
+        return readingCount;
+    }
+
+    /**
+     * @return - the number of bytes written
+     */
+    public long getBytesWritten(){
+        return bytesWritten;
+    }
+
+    //True if the reading after the ones in the batch is due
+    private boolean isDue(int batched, long elapsedNanos){
+        if(readingsPerSecond == REAL_TIME){
+            return Math.min(nextPedalMs, nextTireMs) <= elapsedNanos/1000000.0;
+        }
+        return readingCount + batched < elapsedNanos*readingsPerSecond/1e9;
+    }
+
+    //Writes the next reading of the ride at offset, returning the number of bytes written
+    private int nextReading(byte[] buffer, int offset){
+        int channel;
+        int fieldCount;
+        if(nextPedalMs <= nextTireMs){
+            double msPerRev = Math.round(60000.0/cadence);
+            channel = Constants.CHANNEL_PEDAL;
+            fieldCount = SensorFrameParser.PEDAL_FIELD_COUNT;
+            fields[0] = ++pedalCount;
+            fields[1] = msPerRev;
+
+            //The rider moves towards the cadence of the segment with every revolution
+            nextPedalMs += msPerRev;
+            if(nextPedalMs >= segmentEndMs){
+                startSegment();
+            }
+            cadence += (targetCadence - cadence)*CADENCE_RESPONSE;
+            cadence = Math.max(1, cadence + random.nextGaussian()*CADENCE_JITTER);
+        }
+        else{
+            double msPerRev = Math.round(60000.0/(cadence*gear));
+            channel = Constants.CHANNEL_TIRE;
+            fieldCount = SensorFrameParser.TIRE_FIELD_COUNT;
+            fields[0] = ++tireCount;
+            fields[1] = Math.round(nextTireMs);
+            fields[2] = msPerRev;
+            nextTireMs += msPerRev;
+        }
+
+        if(binary){
+            return encoder.encode(channel, fields, fieldCount, buffer, offset);
+        }
+        return SensorFrameParser.formatLine(buffer, offset, channel, fields, fieldCount);
+    }
+
+    //Picks the cadence and gear of the next segment of the ride
+    private void startSegment(){
+        targetCadence = MIN_CADENCE + random.nextDouble()*(MAX_CADENCE - MIN_CADENCE);
+        gear = MIN_GEAR + random.nextDouble()*(MAX_GEAR - MIN_GEAR);
+        segmentEndMs += SEGMENT_MS;
+    }
+}
@@ -0,0 +1,217 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Connects to a sensor or sensor simulator over TCP, e.g. a SyntheticSensor served on a Linux box
+ * and reached from the phone through adb reverse, or on localhost by the benchmarks.
+ *
+ * The socket channel is read without blocking. available() reads whatever has arrived into a receive
+ * buffer, so a connection closed by the other end is noticed as an IOException by the polling SensorHub,
+ * where a plain socket stream would keep reporting 0 available bytes.
+ */
+public class TcpTransport implements SensorTransport {
+
+    //Longest wait for the connection to be accepted
+    public static final int CONNECT_TIMEOUT_MS = 5000;
+
+    //Bytes received from the channel at a time
+    private static final int RECEIVE_BUFFER_SIZE = 4096;
+
+    private final String host;
+    private final int port;
+
+    //Channel of the connection, opened by connect()
+    private volatile SocketChannel channel = null;
+    private volatile Selector selector = null;
+    private boolean closed = false;
+
+    private final channelInputStream in = new channelInputStream();
+    private final channelOutputStream out = new channelOutputStream();
+
+    /**
+     * @param sensorHost - the host name or address of the sensor
+     * @param sensorPort - the port the sensor listens on
+     */
+    public TcpTransport(String sensorHost, int sensorPort){
+        host = sensorHost;
+        port = sensorPort;
+    }
+
+    @Override
+    public String getName(){
+        return host + ":" + port;
+    }
+
+    @Override
+    public void connect() throws IOException{
+        SocketChannel opened = SocketChannel.open();
+        synchronized(this){
+            if(closed){
+                opened.close();
+                throw new IOException("Connection cancelled");
+            }
+            channel = opened;
+        }
+
+        //Readings are small, so they are sent right away instead of being coalesced
+        opened.socket().setTcpNoDelay(true);
+        opened.socket().connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+
+        opened.configureBlocking(false);
+        Selector readSelector = Selector.open();
+        opened.register(readSelector, SelectionKey.OP_READ);
+        synchronized(this){
+            if(closed){
+                readSelector.close();
+                throw new IOException("Connection cancelled");
+            }
+            selector = readSelector;
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException{
+        connectedChannel();
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException{
+        connectedChannel();
+        return out;
+    }
+
+    @Override
+    public void close(){
+        SocketChannel closing;
+        synchronized(this){
+            closed = true;
+            closing = channel;
+        }
+        if(closing != null){
+            try{
+                closing.close();
+            }catch(IOException e){}
+        }
+
+        //Also wakes a read waiting for bytes
+        Selector waiting = selector;
+        if(waiting != null){
+            try{
+                waiting.close();
+            }catch(IOException e){}
+        }
+    }
+
+    //The channel, or an IOException before connect() or after close()
+    private SocketChannel connectedChannel() throws IOException{
+        SocketChannel connected = channel;
+        if(connected == null || selector == null || !connected.isOpen()){
+            throw new IOException("Not connected");
+        }
+        return connected;
+    }
+
+    /**
+     * Reads the channel through a receive buffer. Only used by the one thread reading the connection at a time.
+     */
+    private class channelInputStream extends InputStream{
+
+        //Bytes received and not read yet, between position and limit
+        private final ByteBuffer received = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+
+        channelInputStream(){
+            received.limit(0);
+        }
+
+        /**
+         * @return - the number of bytes that can be read without blocking
+         * @throws IOException - once the connection was closed by either end
+         */
+        @Override
+        public int available() throws IOException{
+            if(!received.hasRemaining()){
+                SocketChannel connected = connectedChannel();
+                received.clear();
+                int bytes;
+                try{
+                    bytes = connected.read(received);
+                }finally{
+                    received.flip();
+                }
+                if(bytes < 0){
+                    throw new EOFException("Connection closed by the sensor");
+                }
+            }
+            return received.remaining();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException{
+            if(length == 0){
+                return 0;
+            }
+
+            //Block until bytes arrive
+            while(available() == 0){
+                try{
+                    selector.select();
+                    selector.selectedKeys().clear();
+                }catch(ClosedSelectorException e){
+                    throw new IOException("Connection closed");
+                }
+            }
+            int count = Math.min(length, received.remaining());
+            received.get(buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException{
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public void close(){
+            TcpTransport.this.close();
+        }
+    }
+
+    /**
+     * Writes commands to the channel. Commands are a few bytes, so a full send buffer is simply waited out.
+     */
+    private class channelOutputStream extends OutputStream{
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) throws IOException{
+            SocketChannel connected = connectedChannel();
+            ByteBuffer pending = ByteBuffer.wrap(bytes, offset, length);
+            while(pending.hasRemaining()){
+                if(connected.write(pending) == 0){
+                    Thread.yield();
+                }
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException{
+            write(new byte[]{(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void close(){
+            TcpTransport.this.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import android.widget.TextView;
+
+/**
+ * Shows a value in tenths in a pair of TextViews, one for the whole part and one for the tenths digit.
+ * A view is only given new text when its digits change, and the text is set from the reused
+ * arrays of a TenthsFormatter, so no Strings are created per reading.
+ */
+public class TenthsDisplay {
+
+    private final TextView wholeView;
+    private final TextView tenthsView;
+    private final TenthsFormatter formatter = new TenthsFormatter();
+
+    /**
+     * @param wholeValue - view for the whole part, including the sign
+     * @param tenthsValue - view for the tenths digit
+     */
+    public TenthsDisplay(TextView wholeValue, TextView tenthsValue){
+        wholeView = wholeValue;
+        tenthsView = tenthsValue;
+    }
+
+    /**
+     * @param valueTenths - the value to show in tenths, e.g. 875 for 87.5
+     */
+    public void show(long valueTenths){
+        int changed = formatter.update(valueTenths);
+
+        //The views keep the arrays, which are only changed right before setting them again
+        if((changed & TenthsFormatter.WHOLE_CHANGED) != 0){
+            wholeView.setText(formatter.whole, 0, formatter.wholeLength);
+        }
+        if((changed & TenthsFormatter.TENTHS_CHANGED) != 0){
+            tenthsView.setText(formatter.tenths, 0, 1);
+        }
+    }
+}
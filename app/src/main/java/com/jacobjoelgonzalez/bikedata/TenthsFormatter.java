@@ -0,0 +1,96 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * Formats a value in tenths, such as RideMetrics results, as a whole part and a tenths digit
+ * into reusable char arrays for TextView.setText(char[], int, int). Nothing is allocated per value.
+ *
+ * Values between -1 and 0 keep their sign as "-0". update() reports which parts changed,
+ * so views are only redrawn when the displayed digits change.
+ */
+public class TenthsFormatter {
+
+    //Flags returned by update()
+    public static final int WHOLE_CHANGED = 1;
+    public static final int TENTHS_CHANGED = 2;
+
+    //Sign and the 19 digits of the largest long
+    private static final int MAX_WHOLE_LENGTH = 20;
+
+    /**
+     * The whole part of the last value, including its sign. Only valid up to wholeLength.
+     */
+    public final char[] whole = new char[MAX_WHOLE_LENGTH];
+    public int wholeLength = 0;
+
+    /**
+     * The tenths digit of the last value
+     */
+    public final char[] tenths = new char[1];
+
+    //Parts of the last value, to detect changes
+    private boolean hasValue = false;
+    private boolean lastNegative;
+    private long lastWhole;
+    private int lastTenths;
+
+    //Digits are written here in reverse before being copied to whole
+    private final char[] digits = new char[MAX_WHOLE_LENGTH];
+
+    /**
+     * Formats a value if it differs from the last one.
+     * @param valueTenths - the value in tenths, e.g. -3 for -0.3
+     * @return - WHOLE_CHANGED and/or TENTHS_CHANGED for the parts that differ from the last value, or 0
+     */
+    public int update(long valueTenths){
+        //Keep the magnitude positive
+        if(valueTenths == Long.MIN_VALUE){
+            valueTenths = -Long.MAX_VALUE;
+        }
+
+        boolean negative = valueTenths < 0;
+        long magnitude = negative ? -valueTenths : valueTenths;
+        long wholeValue = magnitude/10;
+        int tenthsValue = (int)(magnitude%10);
+
+        int changed = 0;
+        if(!hasValue || negative != lastNegative || wholeValue != lastWhole){
+            formatWhole(negative, wholeValue);
+            changed |= WHOLE_CHANGED;
+        }
+        if(!hasValue || tenthsValue != lastTenths){
+            tenths[0] = (char)('0' + tenthsValue);
+            changed |= TENTHS_CHANGED;
+        }
+
+        hasValue = true;
+        lastNegative = negative;
+        lastWhole = wholeValue;
+        lastTenths = tenthsValue;
+        return changed;
+    }
+
+    /**
+     * Forgets the last value, so the next update() reports both parts as changed, e.g. after the views were recreated.
+     */
+    public void reset(){
+        hasValue = false;
+    }
+
+    //Writes the sign and digits of the whole part
+    private void formatWhole(boolean negative, long value){
+        int count = 0;
+        do{
+            digits[count++] = (char)('0' + value%10);
+            value /= 10;
+        }while(value != 0);
+
+        int length = 0;
+        if(negative){
+            whole[length++] = '-';
+        }
+        while(count > 0){
+            whole[length++] = digits[--count];
+        }
+        wholeLength = length;
+    }
+}
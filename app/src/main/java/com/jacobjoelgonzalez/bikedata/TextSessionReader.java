@@ -0,0 +1,278 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Reads tab-delimited text rides from a memory-mapped file.
+ *
+ * Text rides have no receive times, so each reading is given the sum of the intervals of its channel
+ * up to and including it, as done by SessionFileConverter.
+ * To start at any reading or time, the file is scanned once on first use and the position and channel times
+ * of every CHECKPOINT_INTERVAL-th reading are kept. Everything else is parsed from the mapping as it is read.
+ */
+public class TextSessionReader extends SessionReader {
+
+    //Readings between checkpoints
+    private static final int CHECKPOINT_INTERVAL = 1024;
+
+    //Byte offset of every CHECKPOINT_INTERVAL-th reading, and the channel times before it
+    private long[] checkpointOffsets = null;
+    private long[] checkpointPedalTimes;
+    private long[] checkpointTireTimes;
+    private int checkpointCount = 0;
+    private long readingCount = 0;
+
+    /**
+     * Opens a text ride.
+     * @param file - the file to read
+     * @throws IOException - if the file can not be mapped
+     */
+    public TextSessionReader(File file) throws IOException{
+        this(map(file));
+    }
+
+    TextSessionReader(MappedByteBuffer mappedFile){
+        super(mappedFile);
+    }
+
+    @Override
+    public long getReadingCount(){
+        buildCheckpoints();
+        return readingCount;
+    }
+
+    @Override
+    public Cursor cursorAt(long readingIndex){
+        buildCheckpoints();
+        if(readingIndex <= 0 || checkpointCount == 0){
+            return new Cursor(0, 0, 0, 0, Long.MIN_VALUE);
+        }
+
+        //Start at the checkpoint before the reading and skip ahead
+        int checkpoint = (int)Math.min(checkpointCount - 1, readingIndex/CHECKPOINT_INTERVAL);
+        Cursor cursor = startAt(checkpoint);
+        cursor.skip(readingIndex - (long)checkpoint*CHECKPOINT_INTERVAL);
+        return cursor;
+    }
+
+    @Override
+    public Cursor cursorAtTime(long timestamp){
+        buildCheckpoints();
+
+        //Last checkpoint where both channels are still before the time. Channel times only grow.
+        int checkpoint = 0;
+        int low = 0;
+        int high = checkpointCount - 1;
+        while(low <= high){
+            int middle = (low + high) >>> 1;
+            if(Math.max(checkpointPedalTimes[middle], checkpointTireTimes[middle]) < timestamp){
+                checkpoint = middle;
+                low = middle + 1;
+            }
+            else{
+                high = middle - 1;
+            }
+        }
+
+        if(checkpointCount == 0){
+            return new Cursor(0, 0, 0, 0, timestamp);
+        }
+        Cursor cursor = startAt(checkpoint);
+        cursor.fromTime = timestamp;
+        return cursor;
+    }
+
+    private Cursor startAt(int checkpoint){
+        return new Cursor(checkpointOffsets[checkpoint], (long)checkpoint*CHECKPOINT_INTERVAL,
+                checkpointPedalTimes[checkpoint], checkpointTireTimes[checkpoint], Long.MIN_VALUE);
+    }
+
+    //Scans the whole file once to count the readings and record checkpoints
+    private synchronized void buildCheckpoints(){
+        if(checkpointOffsets != null){
+            return;
+        }
+
+        int capacity = 16;
+        long[] offsets = new long[capacity];
+        long[] pedalTimes = new long[capacity];
+        long[] tireTimes = new long[capacity];
+        int count = 0;
+
+        Cursor cursor = new Cursor(0, 0, 0, 0, Long.MIN_VALUE);
+        long readings = 0;
+        while(true){
+            long offset = cursor.position;
+            long pedalTime = cursor.channelTimes[Constants.CHANNEL_PEDAL];
+            long tireTime = cursor.channelTimes[Constants.CHANNEL_TIRE];
+            if(!cursor.next()){
+                break;
+            }
+
+            //Record the state before every CHECKPOINT_INTERVAL-th reading
+            if(readings % CHECKPOINT_INTERVAL == 0){
+                if(count == capacity){
+                    capacity *= 2;
+                    offsets = grow(offsets, capacity);
+                    pedalTimes = grow(pedalTimes, capacity);
+                    tireTimes = grow(tireTimes, capacity);
+                }
+                offsets[count] = offset;
+                pedalTimes[count] = pedalTime;
+                tireTimes[count] = tireTime;
+                count++;
+            }
+            readings++;
+        }
+
+        checkpointPedalTimes = pedalTimes;
+        checkpointTireTimes = tireTimes;
+        checkpointCount = count;
+        readingCount = readings;
+        checkpointOffsets = offsets;
+    }
+
+    private static long[] grow(long[] array, int length){
+        long[] copy = new long[length];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+
+    /**
+     * Parses readings from the mapped file in order. Each line is copied into a small
+     * reusable buffer for parsing, so no objects are created per reading.
+     * A cursor must only be used by one thread.
+     */
+    public class Cursor implements ReadingCursor{
+
+        //Byte offset of the next line
+        private long position;
+
+        //Index of the next reading
+        private long nextIndex;
+
+        //Running interval sum of each channel
+        private final long[] channelTimes = new long[2];
+
+        //Skip readings before this time
+        private long fromTime;
+
+        //Current reading
+        private final byte[] line = new byte[SensorFrameParser.MAX_FRAME_LENGTH];
+        private final double[] fields = new double[SensorFrameParser.MAX_FIELD_COUNT];
+        private int channel;
+        private long timestamp;
+
+        Cursor(long offset, long index, long pedalTime, long tireTime, long from){
+            position = offset;
+            nextIndex = index;
+            channelTimes[Constants.CHANNEL_PEDAL] = pedalTime;
+            channelTimes[Constants.CHANNEL_TIRE] = tireTime;
+            fromTime = from;
+        }
+
+        @Override
+        public boolean next(){
+            do{
+                if(!nextReading()){
+                    return false;
+                }
+            }while(timestamp < fromTime);
+            return true;
+        }
+
+        //Skips the given number of readings
+        void skip(long count){
+            for(long i=0; i<count; i++){
+                if(!nextReading()){
+                    return;
+                }
+            }
+        }
+
+        //Parses the next valid line
+        private boolean nextReading(){
+            int size = data.limit();
+            while(position < size){
+                //Find the end of the line
+                int start = (int)position;
+                int end = start;
+                while(end < size && data.get(end) != '\n'){
+                    end++;
+                }
+                position = end + 1;
+
+                //Lines longer than the sensor sends are malformed
+                int length = end - start;
+                if(length > line.length){
+                    continue;
+                }
+                for(int i=0; i<length; i++){
+                    line[i] = data.get(start + i);
+                }
+
+                int parsed = SensorFrameParser.parseLine(line, 0, length, fields);
+                if(parsed < 0){
+                    continue;
+                }
+
+                channel = parsed;
+                channelTimes[channel] += Math.round(fields[SensorFrameParser.fieldCountOf(channel) - 1]);
+                timestamp = channelTimes[channel];
+                nextIndex++;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public long index(){
+            return nextIndex - 1;
+        }
+
+        @Override
+        public long timestamp(){
+            return timestamp;
+        }
+
+        //Text files have no receive times or sequence numbers
+        @Override
+        public long receiveNanos(){
+            return 0;
+        }
+
+        @Override
+        public int sequence(){
+            return SensorRecord.NO_SEQUENCE;
+        }
+
+        @Override
+        public int channel(){
+            return channel;
+        }
+
+        @Override
+        public int fieldCount(){
+            return SensorFrameParser.fieldCountOf(channel);
+        }
+
+        @Override
+        public double field(int field){
+            return fields[field];
+        }
+
+        @Override
+        public double interval(){
+            return fields[fieldCount() - 1];
+        }
+
+        @Override
+        public int copyFields(double[] out){
+            int count = fieldCount();
+            System.arraycopy(fields, 0, out, 0, count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.os.Environment;
+import android.support.annotation.NonNull;
+import android.support.v4.app.DialogFragment;
+import android.view.View;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Hidden screen showing the Metrics of the reading path: counters with their rates, p50/p99/p999 of
+ * the latency histograms and the queue depths. Opened by tapping the selected tab several times.
+ * Also turns the PipelineTrace sections on and off.
+ * The metrics and the FlightRecorder events of the last FlightRecorder.DUMP_WINDOW_NANOS can be dumped to
+ * text files in the diagnostics folder next to the saved rides, which is done on a background thread.
+ */
+public class diagnosticsDialog extends DialogFragment {
+
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        final Activity activity = getActivity();
+        AlertDialog.Builder builder = new AlertDialog.Builder(activity);
+
+        //Set title
+        builder.setTitle(R.string.diagnostics_dialog_title);
+
+        View view = activity.getLayoutInflater().inflate(R.layout.diagnostics_dialog, null);
+
+        //Show the metrics as of opening the dialog
+        TextView metricsView = (TextView)view.findViewById(R.id.metricsView);
+        metricsView.setText(Metrics.REGISTRY.describe());
+
+        //Turn the trace sections of the reading path on and off
+        CheckBox traceCheckBox = (CheckBox)view.findViewById(R.id.traceCheckBox);
+        traceCheckBox.setChecked(PipelineTrace.isEnabled());
+        traceCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                PipelineTrace.setSink(isChecked ? new AndroidTraceSink() : null);
+            }
+        });
+        builder.setView(view);
+
+        //Write the metrics to a file
+        builder.setPositiveButton(R.string.diagnostics_dump, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                dumpLater(activity, "metrics-" + System.currentTimeMillis() + ".txt", false, 0);
+            }
+        })
+        .setNeutralButton(R.string.diagnostics_dump_events, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                dumpLater(activity, "flight-manual-" + System.currentTimeMillis() + ".txt", true,
+                        System.nanoTime() - FlightRecorder.DUMP_WINDOW_NANOS);
+            }
+        })
+        .setNegativeButton("close", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {}
+        });
+
+        return builder.create();
+    }
+
+    /**
+     * Writes the metrics or the FlightRecorder events to a file on a background thread, like FlightRecorder.dumpLater(),
+     * and tells the user the result on the UI thread.
+     * @param activity - shows the result
+     * @param fileName - the name of the file in the diagnostics folder
+     * @param events - true to write the FlightRecorder events, false to write the metrics
+     * @param sinceNanos - the System.nanoTime() of the oldest event to write
+     */
+    private static void dumpLater(final Activity activity, final String fileName, final boolean events, final long sinceNanos){
+        Thread thread = new Thread("Diagnostics dump"){
+            @Override
+            public void run(){
+                //Kept in a folder, so the replay list of saved rides does not show the dumps
+                File dir = new File(Environment.getExternalStoragePublicDirectory("BIKE DATA"), "diagnostics");
+                dir.mkdirs();
+                final File file = new File(dir, fileName);
+                boolean written;
+                try{
+                    if(events){
+                        FlightRecorder.EVENTS.dump(file, sinceNanos, "manual");
+                    }
+                    else{
+                        Metrics.REGISTRY.dump(file);
+                    }
+                    written = true;
+                }catch(IOException e){
+                    written = false;
+                }
+
+                final boolean saved = written;
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(saved){
+                            Toast.makeText(activity, file.getPath()+" has been saved.", Toast.LENGTH_SHORT).show();
+                        }
+                        else{
+                            Toast.makeText(activity, R.string.write_error, Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,79 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.app.Dialog;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.os.Environment;
+import android.support.annotation.NonNull;
+import android.support.v4.app.DialogFragment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Lets the user pick a saved ride to play back instead of a live sensor.
+ */
+public class replayDialog extends DialogFragment {
+
+    /**
+     * Listener object to send the selected ride to the UI activity
+     */
+    private onRideSelectedListener callback;
+
+    /**
+     * Interface for sending the path of the selected ride to the UI activity
+     */
+    public interface onRideSelectedListener{
+        public void onRideSelected(String path);
+    }
+
+    @Override
+    public void onAttach(Activity activity) {
+        super.onAttach(activity);
+
+        callback = (onRideSelectedListener) activity;
+    }
+
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+
+        //Set title
+        builder.setTitle(R.string.replay_dialog_title);
+
+        //List saved rides, skipping the hidden session file
+        final ArrayList<File> rides = new ArrayList<File>();
+        File[] files = Environment.getExternalStoragePublicDirectory("BIKE DATA").listFiles();
+        if(files != null){
+            Arrays.sort(files);
+            for(File file : files){
+                if(file.isFile() && !file.getName().startsWith(".")){
+                    rides.add(file);
+                }
+            }
+        }
+
+        CharSequence[] names = new CharSequence[rides.size()];
+        for(int i=0; i<names.length; i++){
+            names[i] = rides.get(i).getName();
+        }
+
+        //Send the selected ride to the main activity
+        builder.setItems(names, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {
+                callback.onRideSelected(rides.get(which).getPath());
+            }
+        })
+        .setNegativeButton("cancel", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which) {}
+        });
+
+        return builder.create();
+    }
+}
@@ -1,5 +1,6 @@
 package com.jacobjoelgonzalez.bikedata;
 
+import android.app.Activity;
 import android.os.Bundle;
 import android.os.Environment;
 import android.support.annotation.Nullable;
@@ -13,8 +14,6 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
 
 /**
  * Created by Jacob on 12/15/2014.
@@ -28,6 +27,12 @@ public class saveDataDialog extends DialogFragment {
         //Add title
         getDialog().setTitle(R.string.save_data_dialog_title);
 
+        //Show the totals of the ride being saved
+        TextView summaryBox = (TextView)view.findViewById(R.id.saveSummaryView);
+        SessionAggregates.Summary summary = new SessionAggregates.Summary();
+        MainActivity.sessionAggregates.read(summary);
+        summaryBox.setText(SessionAggregates.describe(summary, MainActivity.calibration));
+
         //Save action button
         Button saveButton = (Button)view.findViewById(R.id.saveButton);
         final EditText fileNameInput = (EditText)view.findViewById(R.id.fileName);
@@ -46,7 +51,7 @@ public class saveDataDialog extends DialogFragment {
                 File parentDir = Environment.getExternalStoragePublicDirectory("BIKE DATA");
                 //Make sure parent directory exists
                 parentDir.mkdirs();
-                String fileName = fileNameInput.getText().toString()+".txt";
+                String fileName = fileNameInput.getText().toString()+SessionFileFormat.FILE_EXTENSION;
                 File file = new File(parentDir, fileName);
 
                 //Check if file already exists
@@ -56,35 +61,30 @@ public class saveDataDialog extends DialogFragment {
                     return;
                 }
 
-                try {
-                    //Write sensor readings to file
-                    PrintWriter out = new PrintWriter(file);
-
-                    //Avoid concurrent access to sensor reading buffer with connectedThread
-                    synchronized (MainActivity.lock) {
-                        out.write(MainActivity.sensorReadings.toString());
-
-                        //Check if write was successful
-                        if (out.checkError()) {
-                            errorBox.setVisibility(View.VISIBLE);
-                            errorBox.setText(R.string.write_error);
-                            return;
+                //Move the recorded session file to the chosen name on a background thread, since saving waits
+                //for the recorder to flush and may have to copy the file. The result is shown on the UI thread.
+                final Button button = (Button)v;
+                button.setEnabled(false);
+                final Activity activity = getActivity();
+                final String savedName = fileName;
+                final File savedFile = file;
+                new Thread("Save session"){
+                    @Override
+                    public void run(){
+                        long start = System.nanoTime();
+                        final boolean saved = MainActivity.sessionRecorder.save(savedFile);
+                        Metrics.SAVE.recordSince(start);
+                        if(!saved){
+                            Metrics.SAVE_FAILURES.increment();
                         }
-
-                        //Clear sensor readings
-                        MainActivity.sensorReadings = new StringBuilder(0);
+                        activity.runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                onSaved(saved, savedName, errorBox, button);
+                            }
+                        });
                     }
-
-                    //Notify user of successful file save
-                    Toast.makeText(getActivity(), fileName+" has been saved.", Toast.LENGTH_SHORT).show();
-
-                    //Exit dialog
-                    dismiss();
-
-                }catch(FileNotFoundException e){
-                    errorBox.setVisibility(View.VISIBLE);
-                    errorBox.setText(R.string.file_not_found_error);
-                }
+                }.start();
             }
         });
 
@@ -100,6 +100,38 @@ public class saveDataDialog extends DialogFragment {
         return view;
     }
 
+    /**
+     * Shows the result of a save on the UI thread. The totals are cleared even if the dialog was closed meanwhile.
+     * @param saved - true if the session file was saved
+     * @param fileName - the name the session was saved under
+     * @param errorBox - shows a failed save
+     * @param saveButton - enabled again after a failed save
+     */
+    private void onSaved(boolean saved, String fileName, TextView errorBox, Button saveButton){
+        //The next readings start a new ride
+        if(saved){
+            MainActivity.sessionAggregates.clear();
+        }
+
+        //Dialog was closed while saving
+        if(!isAdded()){
+            return;
+        }
+
+        if(!saved){
+            errorBox.setVisibility(View.VISIBLE);
+            errorBox.setText(R.string.write_error);
+            saveButton.setEnabled(true);
+            return;
+        }
+
+        //Notify user of successful file save
+        Toast.makeText(getActivity(), fileName+" has been saved.", Toast.LENGTH_SHORT).show();
+
+        //Exit dialog
+        dismiss();
+    }
+
     /**
      * Checks if external storage is available for read and write
      * @return - True if the phones external storage is available for read and write, and false otherwise.
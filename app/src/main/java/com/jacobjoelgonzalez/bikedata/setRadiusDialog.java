@@ -86,8 +86,7 @@ public class setRadiusDialog extends DialogFragment {
      * @param radius - the radius of the bike tire in inches.
      */
     public void setRADIUS_IN(double radius){
-        MainActivity.RADIUS_IN = radius;
-        MainActivity.RADIUS_CM = radius*2.54;
+        MainActivity.calibration = Calibration.fromInches(radius);
     }
 
     /**
@@ -95,7 +94,6 @@ public class setRadiusDialog extends DialogFragment {
      * @param radius - the radius of the bike tire in centimeters.
      */
     public void setRADIUS_CM(double radius){
-        MainActivity.RADIUS_CM = radius;
-        MainActivity.RADIUS_IN = radius/2.54;
+        MainActivity.calibration = Calibration.fromCentimeters(radius);
     }
 }
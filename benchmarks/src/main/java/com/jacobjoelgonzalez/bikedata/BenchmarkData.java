@@ -0,0 +1,78 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Generates the sensor data used by the benchmarks. The same seed is used for every run,
+ * so results can be compared between runs.
+ */
+public class BenchmarkData {
+
+    //Readings in a generated ride
+    public static final int READINGS = 4096;
+
+    //Bytes read from the sensor at a time by ConnectedThread
+    public static final int CHUNK_SIZE = 1024;
+
+    private static final long SEED = 20141213;
+
+    /**
+     * @return - milliseconds per revolution values between 300 and 1500, as sent by the sensors while riding
+     */
+    public static double[] intervals(int count){
+        Random random = new Random(SEED);
+        double[] intervals = new double[count];
+        for(int i=0; i<count; i++){
+            intervals[i] = 300 + random.nextInt(120000)/100.0;
+        }
+        return intervals;
+    }
+
+    /**
+     * @return - a ride in the tab-delimited text format sent by the sensor, pedal and tire readings alternating
+     */
+    public static byte[] textRide(){
+        double[] intervals = intervals(READINGS);
+        byte[] line = new byte[SensorFrameParser.MAX_LINE_LENGTH];
+        double[] fields = new double[SensorFrameParser.MAX_FIELD_COUNT];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for(int i=0; i<READINGS; i++){
+            int channel = fillFields(i, intervals[i], fields);
+            out.write(line, 0, SensorFrameParser.formatLine(line, 0, channel, fields, SensorFrameParser.fieldCountOf(channel)));
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return - the same ride as textRide() in binary frames, starting with the handshake
+     */
+    public static byte[] binaryRide(){
+        double[] intervals = intervals(READINGS);
+        byte[] frame = new byte[BinaryFrameEncoder.MAX_FRAME_LENGTH];
+        double[] fields = new double[SensorFrameParser.MAX_FIELD_COUNT];
+        BinaryFrameEncoder encoder = new BinaryFrameEncoder();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(frame, 0, encoder.encodeHandshake(frame, 0));
+        for(int i=0; i<READINGS; i++){
+            int channel = fillFields(i, intervals[i], fields);
+            out.write(frame, 0, encoder.encode(channel, fields, SensorFrameParser.fieldCountOf(channel), frame, 0));
+        }
+        return out.toByteArray();
+    }
+
+    //Fills the fields of the i-th reading and returns its channel
+    private static int fillFields(int i, double interval, double[] fields){
+        if(i%2 == 0){
+            fields[0] = i/2;
+            fields[1] = interval;
+            return Constants.CHANNEL_PEDAL;
+        }
+        else{
+            fields[0] = i/2;
+            fields[1] = interval*2.1;
+            fields[2] = interval;
+            return Constants.CHANNEL_TIRE;
+        }
+    }
+}
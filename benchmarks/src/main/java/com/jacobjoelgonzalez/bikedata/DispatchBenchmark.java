@@ -0,0 +1,96 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures handing a reading from the reading thread to the UI thread. Each operation posts one reading
+ * and handles it again, so the allocation rate per operation is the garbage created per reading.
+ *
+ * messageBundleHandoff is the Message and Bundle per reading that newPedalReading and newTireReading
+ * originally sent, through HandlerModel, kept as the baseline. mailboxHandoff goes through ReadingMailbox.
+ * mailboxCoalesced posts a whole frame of readings before each drain, like a fast sensor does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    //Message type and key the readings were originally sent with
+    private static final int MESSAGE_PEDAL_READING = 4;
+    private static final String PEDAL_READING = "pedal_reading";
+
+    //Readings posted per drain by mailboxCoalesced
+    private static final int READINGS_PER_FRAME = 16;
+
+    private HandlerModel handler;
+    private ReadingMailbox mailbox;
+    private ReadingMailbox.Listener mailboxListener;
+    private double drained;
+    private double[] intervals;
+    private int index = 0;
+
+    @Setup
+    public void setup(){
+        handler = new HandlerModel();
+        mailbox = new ReadingMailbox();
+        mailboxListener = new ReadingMailbox.Listener() {
+            @Override
+            public void onReading(int channel, double msPerRev, boolean artificial) {
+                drained = msPerRev;
+            }
+        };
+        intervals = BenchmarkData.intervals(BenchmarkData.READINGS);
+    }
+
+    @Benchmark
+    public double messageBundleHandoff(){
+        index = (index + 1)%intervals.length;
+
+        //Reading thread, as in newPedalReading
+        HandlerModel.Message msg = handler.obtainMessage(MESSAGE_PEDAL_READING);
+        HandlerModel.Bundle bundle = new HandlerModel.Bundle();
+        bundle.putDouble(PEDAL_READING, intervals[index]);
+        msg.data = bundle;
+        handler.sendMessage(msg);
+
+        //UI thread, as in MainActivity.handleMessage
+        HandlerModel.Message received = handler.next();
+        double reading = received.data.getDouble(PEDAL_READING);
+        handler.recycle(received);
+        return reading;
+    }
+
+    @Benchmark
+    public double mailboxHandoff(){
+        index = (index + 1)%intervals.length;
+        mailbox.post(Constants.CHANNEL_PEDAL, intervals[index]);
+        mailbox.drain(mailboxListener);
+        return drained;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READINGS_PER_FRAME)
+    public double mailboxCoalesced(){
+        for(int i=0; i<READINGS_PER_FRAME; i++){
+            index = (index + 1)%intervals.length;
+            mailbox.post(i%2 == 0 ? Constants.CHANNEL_PEDAL : Constants.CHANNEL_TIRE, intervals[index]);
+        }
+        mailbox.drain(mailboxListener);
+        return drained;
+    }
+}
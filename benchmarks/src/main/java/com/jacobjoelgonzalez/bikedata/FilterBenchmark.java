@@ -0,0 +1,82 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the reading filter stages. Each operation filters the next interval of a generated ride,
+ * so the windows hold varying values like they do while riding.
+ * Run with the gc profiler of the jmh task to confirm that filtering allocates nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+    @Param({"3", "9"})
+    public int window;
+
+    private double[] intervals;
+    private int index = 0;
+
+    private MovingAverageFilter movingAverage;
+    private ExponentialMovingAverageFilter exponentialAverage;
+    private RollingMedianFilter median;
+    private LeastSquaresSlopeFilter slope;
+    private ReadingFilterChain chain;
+
+    @Setup
+    public void setup(){
+        intervals = BenchmarkData.intervals(BenchmarkData.READINGS);
+        movingAverage = new MovingAverageFilter(window);
+        exponentialAverage = new ExponentialMovingAverageFilter(2.0/(window + 1));
+        median = new RollingMedianFilter(window);
+        slope = new LeastSquaresSlopeFilter(window);
+        chain = new ReadingFilterChain(new RollingMedianFilter(window), new ExponentialMovingAverageFilter(2.0/(window + 1)));
+    }
+
+    //Returns the next interval of the ride
+    private double nextInterval(){
+        index = (index + 1)%intervals.length;
+        return intervals[index];
+    }
+
+    @Benchmark
+    public double movingAverage(){
+        return movingAverage.filter(nextInterval());
+    }
+
+    @Benchmark
+    public double exponentialAverage(){
+        return exponentialAverage.filter(nextInterval());
+    }
+
+    @Benchmark
+    public double median(){
+        return median.filter(nextInterval());
+    }
+
+    @Benchmark
+    public double slope(){
+        return slope.filter(nextInterval());
+    }
+
+    @Benchmark
+    public double medianThenAverage(){
+        return chain.filter(nextInterval());
+    }
+}
@@ -0,0 +1,148 @@
+package com.jacobjoelgonzalez.bikedata;
+
+/**
+ * The calculation functions RPMFragment, SpeedFragment and AccelerationFragment had before RideMetrics,
+ * kept unchanged as the baseline of MetricsBenchmark.
+ */
+public class FragmentMath {
+
+    //Tire radius used by SpeedFragment, from MainActivity
+    public static double RADIUS_IN = 14.5;
+    public static double RADIUS_CM = 36.83;
+
+    //Tire radius used by AccelerationFragment
+    public static double ACCELERATION_RADIUS_IN = 14.5;
+    public static double ACCELERATION_RADIUS_CM = 28.0;
+
+    public static final int MPH = 2;  //miles per hour
+    public static final int KPH = 3;  //kilometers per hour
+    public static final int FPS2 = 4; //feet/second^2
+    public static final int MPS2 = 5; //meters/second^2
+
+    /**
+     * RPMFragment.getCadence
+     */
+    public static int[] getCadence(double mpr){
+
+        //Get int value
+        int intVal = (int)(60000/mpr);
+
+        //Get the tenths place value
+        double remainder = 60000%mpr;
+        int tenthsVal = (int)Math.round((remainder/mpr)*10.0);
+        if(tenthsVal == 10){
+            intVal++;
+            tenthsVal = 0;
+        }
+
+        int[] values = {intVal, tenthsVal};
+
+        return values;
+    }
+
+    /**
+     * SpeedFragment.getSpeed
+     */
+    public static int[] getSpeed(double mpr, int UNITS){
+        if(UNITS == MPH) {
+
+            //Get int value
+            int intVal = (int) ((1250.0 * Math.PI * RADIUS_IN) / (11 * mpr));
+
+            //Get tenths place value
+            double remainder = (1250.0 * Math.PI * RADIUS_IN) % (11 * mpr);
+            int tenthsVal = (int)Math.round((remainder / (11 * mpr)) * 10.0);
+            if(tenthsVal == 10){
+                intVal++;
+                tenthsVal = 0;
+            }
+
+            int[] mphValues = {intVal, tenthsVal};
+
+            return mphValues;
+        }
+        else{
+
+            //Get int value
+            int intVal = (int)((72*Math.PI*RADIUS_CM)/mpr);
+
+            //Get tenths place value
+            double remainder = (72*Math.PI*RADIUS_CM)%mpr;
+            int tenthsVal = (int)Math.round((remainder/mpr)*10.0);
+            if(tenthsVal == 10){
+                intVal++;
+                tenthsVal = 0;
+            }
+
+            int[] kphValues = {intVal, tenthsVal};
+
+            return kphValues;
+        }
+    }
+
+    /**
+     * AccelerationFragment.getCadence
+     */
+    public static double getAccelerationCadence(double mpr){return 60000.0/mpr;}
+
+    /**
+     * AccelerationFragment.getAcceleration
+     */
+    public static String[] getAcceleration(double currMPR, double prevMPR, int UNITS){
+        double rpmDiff = getAccelerationCadence(currMPR)-getAccelerationCadence(prevMPR);
+        double timeDiff = currMPR/1000; //Seconds per revolution
+
+        if(UNITS == FPS2) {
+
+            //Get int val
+            int intVal = (int)((Math.PI * ACCELERATION_RADIUS_IN * rpmDiff) / (360 * timeDiff));
+
+            //Get tenths place
+            double remainder = (Math.PI * ACCELERATION_RADIUS_IN * rpmDiff) % (360 * timeDiff);
+            int tenthsVal = (int)Math.abs(Math.round((remainder/(360*timeDiff))*10.0));
+            if(tenthsVal == 10){
+                intVal++;
+                tenthsVal = 0;
+            }
+
+            //Check for negative values between -1 and 0
+            String intValStr;
+            if(intVal==0 && rpmDiff<0 && tenthsVal!=0){
+                intValStr = "-0";
+            }
+            else{
+                intValStr = String.valueOf(intVal);
+            }
+
+            String[] accelerationValues = {intValStr, String.valueOf(tenthsVal)};
+
+            return accelerationValues;
+        }
+        else {
+
+            //Get int val
+            int intVal = (int)((Math.PI * ACCELERATION_RADIUS_CM * rpmDiff) / (3000 * timeDiff));
+
+            //Get tenths place
+            double remainder = (Math.PI * ACCELERATION_RADIUS_CM * rpmDiff) % (3000 * timeDiff);
+            int tenthsVal = (int)Math.abs(Math.round((remainder/(3000*timeDiff))*10.0));
+            if(tenthsVal == 10){
+                intVal++;
+                tenthsVal = 0;
+            }
+
+            //Check for negative values between -1 and 0
+            String intValStr;
+            if(intVal==0 && rpmDiff<0 && tenthsVal!=0){
+                intValStr = "-0";
+            }
+            else{
+                intValStr = String.valueOf(intVal);
+            }
+
+            String[] accelerationValues = {intValStr, String.valueOf(tenthsVal)};
+
+            return accelerationValues;
+        }
+    }
+}
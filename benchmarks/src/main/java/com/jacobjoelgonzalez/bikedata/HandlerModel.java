@@ -0,0 +1,114 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import java.util.HashMap;
+
+/**
+ * Stand-in for the Handler, Message and Bundle classes of Android, which can not be used outside of Android.
+ * It does the same work per reading as BluetoothSensorService: a Message is taken from a synchronized pool,
+ * a new Bundle with a map and a boxed double is created, and the message is added to a synchronized
+ * linked queue that the UI thread takes it from before recycling it.
+ */
+public class HandlerModel {
+
+    /**
+     * Stand-in for android.os.Message
+     */
+    public static class Message{
+        public int what;
+        public Bundle data;
+        private Message next;
+    }
+
+    /**
+     * Stand-in for android.os.Bundle, which keeps its values boxed in a map
+     */
+    public static class Bundle{
+        private final HashMap<String, Object> map = new HashMap<String, Object>(4);
+
+        public void putDouble(String key, double value){
+            map.put(key, value);
+        }
+
+        public double getDouble(String key){
+            Object value = map.get(key);
+            return value == null ? 0.0 : (Double)value;
+        }
+    }
+
+    //Recycled messages, like Message.sPool
+    private final Object poolLock = new Object();
+    private Message pool = null;
+
+    //Pending messages, like MessageQueue
+    private Message head = null;
+    private Message tail = null;
+    private int queueSize = 0;
+
+    /**
+     * Handler.obtainMessage
+     */
+    public Message obtainMessage(int what){
+        Message msg;
+        synchronized(poolLock){
+            msg = pool;
+            if(msg != null){
+                pool = msg.next;
+                msg.next = null;
+            }
+        }
+        if(msg == null){
+            msg = new Message();
+        }
+        msg.what = what;
+        return msg;
+    }
+
+    /**
+     * Handler.sendMessage
+     */
+    public synchronized void sendMessage(Message msg){
+        if(tail == null){
+            head = msg;
+        }
+        else{
+            tail.next = msg;
+        }
+        tail = msg;
+        queueSize++;
+    }
+
+    /**
+     * MessageQueue.next without blocking
+     * @return - the oldest pending message, or null if there is none
+     */
+    public synchronized Message next(){
+        Message msg = head;
+        if(msg != null){
+            head = msg.next;
+            if(head == null){
+                tail = null;
+            }
+            msg.next = null;
+            queueSize--;
+        }
+        return msg;
+    }
+
+    /**
+     * @return - the number of pending messages
+     */
+    public synchronized int size(){
+        return queueSize;
+    }
+
+    /**
+     * Message.recycle
+     */
+    public void recycle(Message msg){
+        msg.data = null;
+        synchronized(poolLock){
+            msg.next = pool;
+            pool = msg;
+        }
+    }
+}
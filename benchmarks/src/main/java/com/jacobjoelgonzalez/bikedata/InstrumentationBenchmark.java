@@ -0,0 +1,118 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures what the Metrics cost the reading path. Every benchmark runs on as many threads as the
+ * hub has reader and decoder threads, all recording to the same instruments like the decoder threads do.
+ *
+ * atomicIncrement is the baseline of a single shared AtomicLong, which stripedIncrement should beat
+ * under contention. The histogram benchmarks record the intervals of a generated ride in nanoseconds,
+ * and the gc profiler should report no allocation for any of them. flightRecord records a read event
+ * to a FlightRecorder, which every read and delivered reading does. traceDisabled opens and closes
+ * a PipelineTrace section while tracing is off, which every stage does, and should cost next to nothing.
+ * frameStats measures a UI frame with reading updates in a FrameStats, which the FrameMonitor does every frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class InstrumentationBenchmark {
+
+    private final AtomicLong atomic = new AtomicLong(0);
+    private final StripedCounter striped = new StripedCounter();
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final FlightRecorder recorder = new FlightRecorder(FlightRecorder.CAPACITY);
+
+    private long[] latencies;
+
+    @Setup
+    public void setup(){
+        double[] intervals = BenchmarkData.intervals(BenchmarkData.READINGS);
+        latencies = new long[intervals.length];
+        for(int i=0; i<intervals.length; i++){
+            latencies[i] = (long)(intervals[i]*1000000);
+        }
+    }
+
+    /**
+     * Frames of a 60 Hz display, measured on one thread like the UI thread does
+     */
+    @State(Scope.Thread)
+    public static class Frames{
+        final FrameStats stats = new FrameStats(16666667);
+        long frameNanos = 0;
+    }
+
+    /**
+     * The position in the ride of each thread
+     */
+    @State(Scope.Thread)
+    public static class Cursor{
+        int index = 0;
+    }
+
+    @Benchmark
+    public long atomicIncrement(){
+        return atomic.incrementAndGet();
+    }
+
+    @Benchmark
+    public void stripedIncrement(){
+        striped.increment();
+    }
+
+    @Benchmark
+    public void histogramRecord(Cursor cursor){
+        cursor.index = (cursor.index + 1)%latencies.length;
+        histogram.record(latencies[cursor.index]);
+    }
+
+    @Benchmark
+    public void histogramRecordSince(){
+        histogram.recordSince(System.nanoTime());
+    }
+
+    @Benchmark
+    public void flightRecord(Cursor cursor){
+        cursor.index = (cursor.index + 1)%latencies.length;
+        recorder.record(FlightRecorder.READ, 0, cursor.index, latencies[cursor.index]);
+    }
+
+    @Benchmark
+    public void traceDisabled(){
+        PipelineTrace.Sink trace = PipelineTrace.begin(PipelineTrace.DECODE);
+        PipelineTrace.end(trace);
+        PipelineTrace.bufferRead(System.nanoTime());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void frameStats(Frames frames){
+        frames.frameNanos += 16666667;
+        frames.stats.onFrame(frames.frameNanos);
+        frames.stats.onReadingUpdates(frames.frameNanos, 2, 100000);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long histogramPercentile(){
+        return histogram.getPercentile(0.99);
+    }
+}
@@ -0,0 +1,122 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the calculations the fragments run for every reading. Each operation is one calculation
+ * on the next interval of a generated ride, so the inputs vary like they do while riding.
+ *
+ * The benchmarks without a prefix run RideMetrics. The ones prefixed with legacy run the original
+ * fragment functions in FragmentMath as the baseline.
+ * The Formatted benchmarks also turn the result into the text shown by the fragments.
+ * aggregate adds the reading to the ride totals, which is done for every real reading.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    private double[] intervals;
+    private int index = 0;
+    private Calibration calibration = Calibration.DEFAULT;
+    private TenthsFormatter formatter = new TenthsFormatter();
+    private SessionAggregates aggregates = new SessionAggregates();
+
+    @Setup
+    public void setup(){
+        intervals = BenchmarkData.intervals(BenchmarkData.READINGS);
+    }
+
+    //Returns the next interval of the ride
+    private double nextInterval(){
+        index = (index + 1)%intervals.length;
+        return intervals[index];
+    }
+
+    @Benchmark
+    public long cadence(){
+        return RideMetrics.cadenceTenths(nextInterval());
+    }
+
+    @Benchmark
+    public long speedMph(){
+        return RideMetrics.speedTenths(nextInterval(), RideMetrics.MPH, calibration);
+    }
+
+    @Benchmark
+    public long speedKph(){
+        return RideMetrics.speedTenths(nextInterval(), RideMetrics.KPH, calibration);
+    }
+
+    @Benchmark
+    public long accelerationFps2(){
+        double previous = intervals[index];
+        return RideMetrics.accelerationTenths(nextInterval(), previous, RideMetrics.FPS2, calibration);
+    }
+
+    @Benchmark
+    public long accelerationMps2(){
+        double previous = intervals[index];
+        return RideMetrics.accelerationTenths(nextInterval(), previous, RideMetrics.MPS2, calibration);
+    }
+
+    @Benchmark
+    public void aggregate(){
+        double interval = nextInterval();
+        aggregates.add(index & 1, interval, interval);
+    }
+
+    @Benchmark
+    public int cadenceFormatted(){
+        return formatter.update(RideMetrics.cadenceTenths(nextInterval()));
+    }
+
+    @Benchmark
+    public int[] legacyCadence(){
+        return FragmentMath.getCadence(nextInterval());
+    }
+
+    @Benchmark
+    public int[] legacySpeedMph(){
+        return FragmentMath.getSpeed(nextInterval(), FragmentMath.MPH);
+    }
+
+    @Benchmark
+    public int[] legacySpeedKph(){
+        return FragmentMath.getSpeed(nextInterval(), FragmentMath.KPH);
+    }
+
+    @Benchmark
+    public String[] legacyAccelerationFps2(){
+        double previous = intervals[index];
+        return FragmentMath.getAcceleration(nextInterval(), previous, FragmentMath.FPS2);
+    }
+
+    @Benchmark
+    public String[] legacyAccelerationMps2(){
+        double previous = intervals[index];
+        return FragmentMath.getAcceleration(nextInterval(), previous, FragmentMath.MPS2);
+    }
+
+    @Benchmark
+    public void legacyCadenceFormatted(Blackhole blackhole){
+        int[] rpmVals = FragmentMath.getCadence(nextInterval());
+        blackhole.consume(String.valueOf(rpmVals[0]));
+        blackhole.consume(String.valueOf(rpmVals[1]));
+    }
+}
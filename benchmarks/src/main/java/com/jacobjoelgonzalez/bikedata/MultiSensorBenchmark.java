@@ -0,0 +1,158 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Validates SensorHub with many simulated sensors sharing READER_THREADS reader threads.
+ * Each operation sends a chunk of readings to the next simulated bike, round robin, through a PipeTransport.
+ *
+ * Every bike sends an interval unique to it, so a reading delivered to the wrong connection is detected.
+ * At the end the benchmark waits for the hub to drain every stream and fails if any reading was lost,
+ * delivered twice or delivered to the wrong connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiSensorBenchmark {
+
+    //Same number of reader threads as BluetoothSensorService
+    private static final int READER_THREADS = 2;
+
+    //Readings sent to a bike at a time
+    private static final int CHUNK_READINGS = 16;
+
+    //Bytes each simulated socket buffers
+    private static final int STREAM_CAPACITY = 4096;
+
+    //Longest wait for the hub to drain the streams at the end
+    private static final long DRAIN_TIMEOUT_MS = 10000;
+
+    @Param({"32", "64"})
+    public int devices;
+
+    private SensorHub hub;
+    private PipeTransport[] pipes;
+    private byte[][] chunks;
+    private long[] sent;
+    private int next = 0;
+
+    //Bike index of each connection, filled when it is opened, before its stream is read
+    private final ConcurrentHashMap<SensorConnection, Integer> bikes = new ConcurrentHashMap<SensorConnection, Integer>();
+    private int openingBike;
+    private AtomicLongArray received;
+    private final AtomicLong misdelivered = new AtomicLong(0);
+
+    @Setup
+    public void setup() throws IOException{
+        pipes = new PipeTransport[devices];
+        chunks = new byte[devices][];
+        sent = new long[devices];
+        received = new AtomicLongArray(devices);
+
+        hub = new SensorHub(READER_THREADS, devices, new SensorHub.Listener() {
+            @Override
+            public void onOpened(SensorConnection connection) {
+                bikes.put(connection, openingBike);
+            }
+
+            @Override
+            public void onReading(SensorConnection connection, SensorRecord record, double filteredMsPerRev) {
+                int bike = bikes.get(connection);
+                if(record.interval() != interval(bike)){
+                    misdelivered.incrementAndGet();
+                }
+                received.incrementAndGet(bike);
+            }
+
+            @Override
+            public void onTimeout(SensorConnection connection, int channel, double msPerRev) {}
+
+            @Override
+            public void onClosed(SensorConnection connection) {}
+        });
+
+        byte[] line = new byte[SensorFrameParser.MAX_LINE_LENGTH];
+        double[] fields = new double[SensorFrameParser.MAX_FIELD_COUNT];
+        for(int bike=0; bike<devices; bike++){
+            //Alternating pedal and tire readings with the interval of the bike
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+            for(int i=0; i<CHUNK_READINGS; i++){
+                int channel = i%2 == 0 ? Constants.CHANNEL_PEDAL : Constants.CHANNEL_TIRE;
+                int fieldCount = SensorFrameParser.fieldCountOf(channel);
+                for(int f=0; f<fieldCount; f++){
+                    fields[f] = interval(bike);
+                }
+                chunk.write(line, 0, SensorFrameParser.formatLine(line, 0, channel, fields, fieldCount));
+            }
+            chunks[bike] = chunk.toByteArray();
+
+            pipes[bike] = new PipeTransport("bike " + bike, STREAM_CAPACITY);
+            openingBike = bike;
+            hub.open(pipes[bike]);
+        }
+    }
+
+    //Interval sent by a bike
+    private static double interval(int bike){
+        return 300 + bike;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_READINGS)
+    public void feed() throws IOException{
+        int bike = next;
+        next = (next + 1)%devices;
+        pipes[bike].getSensorStream().write(chunks[bike], 0, chunks[bike].length);
+        sent[bike] += CHUNK_READINGS;
+    }
+
+    @TearDown
+    public void verify() throws InterruptedException{
+        //Wait for the hub to read everything that was sent
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        while(!drained() && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+        hub.shutdown();
+
+        for(int bike=0; bike<devices; bike++){
+            if(received.get(bike) != sent[bike]){
+                throw new IllegalStateException("Bike " + bike + " sent " + sent[bike] + " readings, " + received.get(bike) + " received");
+            }
+        }
+        if(misdelivered.get() != 0){
+            throw new IllegalStateException(misdelivered.get() + " readings were delivered to the wrong connection");
+        }
+    }
+
+    private boolean drained(){
+        for(int bike=0; bike<devices; bike++){
+            if(received.get(bike) < sent[bike]){
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,133 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures splitting and parsing the bytes read by ConnectedThread into readings.
+ * Each operation is one reading, so the score is readings per second.
+ *
+ * legacySplit is the String based loop that ConnectedThread.run() originally used, kept as the baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    private byte[] textRide;
+    private byte[] binaryRide;
+
+    private SensorFrameParser parser;
+    private SensorStreamDecoder textDecoder;
+    private SensorStreamDecoder binaryDecoder;
+
+    //Sum of the parsed intervals, returned so the parsing is not optimized away
+    private double intervalSum;
+
+    //State of the baseline loop
+    private StringBuilder sensorReadingBuffer = new StringBuilder(0);
+
+    @Setup
+    public void setup(){
+        textRide = BenchmarkData.textRide();
+        binaryRide = BenchmarkData.binaryRide();
+
+        SensorFrameParser.Listener listener = new SensorFrameParser.Listener() {
+            @Override
+            public void onReading(int channel, double[] fields, int fieldCount) {
+                intervalSum += fields[fieldCount-1];
+            }
+        };
+        parser = new SensorFrameParser(listener);
+        textDecoder = new SensorStreamDecoder(listener);
+        binaryDecoder = new SensorStreamDecoder(listener);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkData.READINGS)
+    public double parse(){
+        intervalSum = 0;
+        for(int offset=0; offset<textRide.length; offset+=BenchmarkData.CHUNK_SIZE){
+            parser.parse(textRide, offset, Math.min(BenchmarkData.CHUNK_SIZE, textRide.length - offset));
+        }
+        return intervalSum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkData.READINGS)
+    public double decodeText(){
+        intervalSum = 0;
+        for(int offset=0; offset<textRide.length; offset+=BenchmarkData.CHUNK_SIZE){
+            textDecoder.decode(textRide, offset, Math.min(BenchmarkData.CHUNK_SIZE, textRide.length - offset));
+        }
+        return intervalSum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkData.READINGS)
+    public double decodeBinary(){
+        intervalSum = 0;
+        binaryDecoder.reset();
+        for(int offset=0; offset<binaryRide.length; offset+=BenchmarkData.CHUNK_SIZE){
+            binaryDecoder.decode(binaryRide, offset, Math.min(BenchmarkData.CHUNK_SIZE, binaryRide.length - offset));
+        }
+        return intervalSum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BenchmarkData.READINGS)
+    public double legacySplit(){
+        intervalSum = 0;
+        for(int offset=0; offset<textRide.length; offset+=BenchmarkData.CHUNK_SIZE){
+            int bytes = Math.min(BenchmarkData.CHUNK_SIZE, textRide.length - offset);
+
+            //Construct a char[] from the valid bytes in the byte[]
+            String readStr = new String(textRide, offset, bytes);
+            char[] charArr = readStr.toCharArray();
+
+            //Separate complete sensor readings
+            for(int i=0; i<charArr.length; i++){
+                if(charArr[i] != '\n'){
+                    sensorReadingBuffer.append(charArr[i]);
+                }
+                else{
+                    String reading = sensorReadingBuffer.toString();
+                    sensorReadingBuffer = new StringBuilder(0);
+
+                    if(reading.length() > 0){
+                        //Tire sensor reading
+                        if(reading.charAt(0) == '\t'){
+                            String[] values = reading.split("\t");
+                            if(values.length == 4){
+                                intervalSum += Double.parseDouble(values[3]);
+                            }
+                        }
+
+                        //Pedal sensor reading
+                        else{
+                            String[] values = reading.split("\t");
+                            if(values.length == 2){
+                                intervalSum += Double.parseDouble(values[1]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return intervalSum;
+    }
+}
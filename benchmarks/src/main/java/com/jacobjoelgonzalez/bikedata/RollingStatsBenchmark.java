@@ -0,0 +1,78 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures adding a reading to the 10 second, 1 minute and 5 minute windows of RollingStats
+ * and reading every window back, which is what the UI does for each reading of a channel.
+ *
+ * intervalMs is the time between readings. At 300 ms the windows drop readings by time, at 1 ms
+ * the 5 minute window is limited by the capacity and drops the oldest reading on every add.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RollingStatsBenchmark {
+
+    //Same capacity as MainActivity
+    private static final int CAPACITY = 16384;
+
+    @Param({"1", "300"})
+    public long intervalMs;
+
+    private double[] intervals;
+    private int index = 0;
+    private long time = 0;
+    private RollingStats stats;
+    private final RollingStats.Snapshot snapshot = new RollingStats.Snapshot(RollingStats.DEFAULT_WINDOWS_MS.length);
+
+    @Setup
+    public void setup(){
+        intervals = BenchmarkData.intervals(BenchmarkData.READINGS);
+        stats = new RollingStats(RollingStats.DEFAULT_WINDOWS_MS, CAPACITY);
+
+        //Fill the windows
+        for(int i=0; i<CAPACITY; i++){
+            addReading();
+        }
+    }
+
+    //Adds the next interval of the ride as rpm
+    private void addReading(){
+        index = (index + 1)%intervals.length;
+        time += intervalMs;
+        stats.add(time, RideMetrics.cadence(intervals[index]));
+    }
+
+    @Benchmark
+    public double add(){
+        addReading();
+        return stats.getAverage(0);
+    }
+
+    @Benchmark
+    public double addAndReadWindows(){
+        addReading();
+        stats.read(time, snapshot);
+        double sum = 0;
+        for(int window=0; window<snapshot.counts.length; window++){
+            sum += snapshot.averages[window] + snapshot.minimums[window] + snapshot.maximums[window];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,90 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress test of SensorChannelState under heavy concurrent load. A reading thread and a timeout thread
+ * write one channel as fast as they can while two threads read it. Every reading is written with
+ * its time equal to its value and its deadline FIRST_TIMEOUT_MS later, so a reader can tell a torn read.
+ * The benchmark fails if any read was torn.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SensorStateBenchmark {
+
+    //Time passed to the timeouts, later than every reading deadline
+    private static final long TIMEOUT_TIME = 1L << 50;
+
+    private final SensorChannelState state = new SensorChannelState(0);
+    private final AtomicLong tornReadCount = new AtomicLong(0);
+
+    @State(Scope.Thread)
+    public static class ThreadState{
+        final SensorChannelState.Snapshot snapshot = new SensorChannelState.Snapshot();
+        long reading = 0;
+    }
+
+    @Setup
+    public void setup(){
+        //Start from a consistent reading
+        state.onReading(0, 0, SensorTimeoutScheduler.FIRST_TIMEOUT_MS);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void reading(ThreadState thread){
+        long value = ++thread.reading;
+        state.onReading(value, value, value + SensorTimeoutScheduler.FIRST_TIMEOUT_MS);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public boolean timeout(ThreadState thread){
+        return state.timeOut(TIMEOUT_TIME, SensorTimeoutScheduler.STEP_TIMEOUT_MS, Integer.MAX_VALUE, thread.snapshot);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public long read(ThreadState thread){
+        SensorChannelState.Snapshot snapshot = thread.snapshot;
+        state.read(snapshot);
+
+        boolean consistent = snapshot.readingTime == (long)snapshot.msPerRev
+                && (snapshot.timeOutCount != 0 || snapshot.deadline == snapshot.readingTime + SensorTimeoutScheduler.FIRST_TIMEOUT_MS)
+                && (snapshot.timeOutCount == 0 || snapshot.deadline == TIMEOUT_TIME + SensorTimeoutScheduler.STEP_TIMEOUT_MS);
+        if(!consistent){
+            tornReadCount.incrementAndGet();
+        }
+        return snapshot.readingTime;
+    }
+
+    @TearDown
+    public void check(){
+        if(tornReadCount.get() != 0){
+            throw new IllegalStateException(tornReadCount.get() + " torn reads, " + state.getReadRetryCount()
+                    + " read retries, " + state.getWriteSpinCount() + " write spins");
+        }
+    }
+}
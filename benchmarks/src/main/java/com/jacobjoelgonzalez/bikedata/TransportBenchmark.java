@@ -0,0 +1,148 @@
+package com.jacobjoelgonzalez.bikedata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stresses the parsing and dispatch path end to end without a sensor. A SyntheticSensor sends a ride
+ * through a PipeTransport or a TcpTransport on localhost to a SensorHub, at 100000 readings per second
+ * or as fast as the hub keeps up. Each operation waits for the next BATCH readings to be delivered,
+ * so the score is the delivered readings per second, which should match the paced rate.
+ *
+ * At the end the benchmark fails if any reading was lost, could not be decoded or was dropped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransportBenchmark {
+
+    //Same number of reader threads as BluetoothSensorService
+    private static final int READER_THREADS = 2;
+
+    //Readings waited for by each operation
+    private static final int BATCH = 256;
+
+    //Longest wait for the hub to drain the transport at the end
+    private static final long DRAIN_TIMEOUT_MS = 10000;
+
+    @Param({"pipe", "tcp"})
+    public String transport;
+
+    @Param({"text", "binary"})
+    public String framing;
+
+    @Param({"100000", "Infinity"})
+    public double readingsPerSecond;
+
+    private SensorHub hub;
+    private SensorConnection connection;
+    private SyntheticSensor sensor;
+    private Thread sensorThread;
+    private ServerSocket server;
+    private Socket socket;
+
+    private final AtomicLong received = new AtomicLong(0);
+    private long waitedFor = 0;
+
+    @Setup
+    public void setup() throws IOException{
+        hub = new SensorHub(READER_THREADS, 1, new SensorHub.Listener() {
+            @Override
+            public void onOpened(SensorConnection connection) {}
+
+            @Override
+            public void onReading(SensorConnection connection, SensorRecord record, double filteredMsPerRev) {
+                received.incrementAndGet();
+            }
+
+            @Override
+            public void onTimeout(SensorConnection connection, int channel, double msPerRev) {}
+
+            @Override
+            public void onClosed(SensorConnection connection) {}
+        });
+
+        boolean binary = framing.equals("binary");
+        SensorTransport sensorTransport;
+        if(transport.equals("pipe")){
+            PipeTransport pipe = new PipeTransport("synthetic pipe", PipeTransport.DEFAULT_CAPACITY);
+            sensor = new SyntheticSensor(pipe.getSensorStream(), readingsPerSecond, binary, 1);
+            sensorTransport = pipe;
+        }
+        else{
+            //The sensor is served on localhost like a sensor simulator on another machine
+            server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            sensorTransport = new TcpTransport(server.getInetAddress().getHostAddress(), server.getLocalPort());
+        }
+
+        sensorTransport.connect();
+        if(server != null){
+            socket = server.accept();
+            socket.setTcpNoDelay(true);
+            sensor = new SyntheticSensor(socket.getOutputStream(), readingsPerSecond, binary, 1);
+        }
+        connection = hub.open(sensorTransport);
+
+        sensorThread = new Thread(sensor, "SyntheticSensor");
+        sensorThread.start();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long receive(){
+        waitedFor += BATCH;
+        long count;
+        while((count = received.get()) < waitedFor){
+            Thread.yield();
+        }
+        return count;
+    }
+
+    @TearDown
+    public void verify() throws InterruptedException, IOException{
+        sensor.stop();
+        sensorThread.join();
+        long sent = sensor.getReadingCount();
+
+        //Wait for the hub to read everything that was sent
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        while(received.get() < sent && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+        long malformed = connection.getMalformedReadingCount();
+        long dropped = connection.getDroppedReadingCount();
+        hub.shutdown();
+        if(server != null){
+            socket.close();
+            server.close();
+        }
+
+        if(received.get() != sent){
+            throw new IllegalStateException("The sensor sent " + sent + " readings, " + received.get() + " received");
+        }
+        if(malformed != 0 || dropped != 0){
+            throw new IllegalStateException(malformed + " readings could not be decoded, " + dropped + " were dropped");
+        }
+    }
+}